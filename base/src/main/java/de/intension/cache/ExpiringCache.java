@@ -0,0 +1,235 @@
+package de.intension.cache;
+
+import static org.jboss.logging.Logger.getLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Bounded in-memory cache with time-to-live and least-recently-used eviction.
+ * <p>
+ * An entry is fresh for {@code ttl}. Afterwards it is still served for {@code staleWhileRevalidate} while it gets
+ * reloaded in the background. Entries older than both are loaded synchronously by the calling thread.
+ * Negative results (e.g. an empty list) can be kept for a shorter time and are never served stale.
+ * A {@code ttl} of zero or less disables caching.
+ */
+public class ExpiringCache<K, V>
+    implements Closeable
+{
+
+    public static final String  METRIC_NAME = "fwu.whitelist.cache";
+    private static final Logger LOG         = getLogger(ExpiringCache.class);
+
+    private final String                name;
+    private final long                  ttlMillis;
+    private final long                  staleMillis;
+    private final Map<K, CacheEntry<V>> entries;
+    private final Set<K>                refreshing = ConcurrentHashMap.newKeySet();
+    private final ExecutorService       refreshExecutor;
+    private final LongSupplier          clock;
+    private final LongAdder             hits       = new LongAdder();
+    private final LongAdder             staleHits  = new LongAdder();
+    private final LongAdder             misses     = new LongAdder();
+    private long                        negativeTtlMillis;
+    private Predicate<V>                isNegative = v -> false;
+
+    public ExpiringCache(String name, long ttlSeconds, long staleWhileRevalidateSeconds, int maxSize)
+    {
+        this(name, ttlSeconds, staleWhileRevalidateSeconds, maxSize, System::currentTimeMillis);
+    }
+
+    ExpiringCache(String name, long ttlSeconds, long staleWhileRevalidateSeconds, int maxSize, LongSupplier clock)
+    {
+        this.name = name;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.negativeTtlMillis = ttlMillis;
+        this.staleMillis = TimeUnit.SECONDS.toMillis(Math.max(0, staleWhileRevalidateSeconds));
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+        this.refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name + "-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Keep values matching the given predicate only for {@code negativeTtlSeconds}.
+     */
+    public ExpiringCache<K, V> withNegativeTtl(long negativeTtlSeconds, Predicate<V> isNegative)
+    {
+        this.negativeTtlMillis = TimeUnit.SECONDS.toMillis(Math.min(negativeTtlSeconds, TimeUnit.MILLISECONDS.toSeconds(ttlMillis)));
+        this.isNegative = isNegative;
+        return this;
+    }
+
+    /**
+     * Register hit, stale and miss counters and the hit ratio with the global (Keycloak) meter registry.
+     */
+    public ExpiringCache<K, V> registerMetrics()
+    {
+        registerCounter("hit", hits);
+        registerCounter("stale", staleHits);
+        registerCounter("miss", misses);
+        Gauge.builder(METRIC_NAME + ".hit.ratio", this, ExpiringCache::getHitRatio)
+            .description("Share of whitelist lookups served from the cache, including stale entries")
+            .tag("cache", name)
+            .register(Metrics.globalRegistry);
+        return this;
+    }
+
+    private void registerCounter(String result, LongAdder counter)
+    {
+        FunctionCounter.builder(METRIC_NAME, counter, LongAdder::sum)
+            .description("Whitelist cache lookups")
+            .tag("cache", name).tag("result", result)
+            .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Get cached value for key or load it with the given loader.
+     */
+    public V get(K key, Loader<V> loader)
+        throws IOException, URISyntaxException
+    {
+        if (ttlMillis <= 0) {
+            misses.increment();
+            return loader.load();
+        }
+        long now = clock.getAsLong();
+        CacheEntry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && now < entry.freshUntil()) {
+            hits.increment();
+            return entry.value();
+        }
+        if (entry != null && now < entry.staleUntil()) {
+            staleHits.increment();
+            refreshInBackground(key, loader);
+            return entry.value();
+        }
+        misses.increment();
+        V value = loader.load();
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Reload entry asynchronously, at most one refresh per key at a time.
+     */
+    private void refreshInBackground(K key, Loader<V> loader)
+    {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    put(key, loader.load());
+                } catch (Exception e) {
+                    LOG.warnf("Refreshing %s cache entry %s failed: %s", name, key, e.getMessage());
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    public void put(K key, V value)
+    {
+        long now = clock.getAsLong();
+        CacheEntry<V> entry = isNegative.test(value)
+                ? new CacheEntry<>(value, now + negativeTtlMillis, now + negativeTtlMillis)
+                : new CacheEntry<>(value, now + ttlMillis, now + ttlMillis + staleMillis);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getStaleHits()
+    {
+        return staleHits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Share of fresh and stale hits of all lookups since startup, {@code NaN} without lookups.
+     */
+    public double getHitRatio()
+    {
+        long hitCount = hits.sum() + staleHits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? Double.NaN : (double)hitCount / total;
+    }
+
+    @Override
+    public void close()
+    {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Loads the current value, e.g. from a REST-API.
+     */
+    @FunctionalInterface
+    public interface Loader<V>
+    {
+
+        V load()
+            throws IOException, URISyntaxException;
+    }
+
+    private record CacheEntry<V>(V value, long freshUntil, long staleUntil) {}
+}
@@ -0,0 +1,101 @@
+package de.intension.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Small bounded in-memory cache without expiry. When the upper bound is reached, the least recently used entry is
+ * evicted, so frequently used entries stay cached while rarely used ones are replaced one at a time.
+ * <p>
+ * All operations lock the cache for a short time only, values are loaded without holding the lock. {@code null}
+ * values are not cached.
+ */
+public class LruCache<K, V>
+{
+
+    private final Map<K, V> entries;
+
+    public LruCache(int maxSize)
+    {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return cached value or {@code null}
+     */
+    public V get(K key)
+    {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Get the cached value or load and cache it. If two threads load the same key concurrently, the first cached
+     * value wins.
+     *
+     * @param loader loads the value, {@code null} results are not cached
+     */
+    public V computeIfAbsent(K key, Function<K, V> loader)
+    {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        value = loader.apply(key);
+        if (value == null) {
+            return null;
+        }
+        synchronized (entries) {
+            V cached = entries.putIfAbsent(key, value);
+            return cached != null ? cached : value;
+        }
+    }
+
+    public void put(K key, V value)
+    {
+        synchronized (entries) {
+            entries.put(key, value);
+        }
+    }
+
+    public void remove(K key)
+    {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Remove all entries whose key matches the filter.
+     */
+    public void removeIf(Predicate<K> filter)
+    {
+        synchronized (entries) {
+            entries.keySet().removeIf(filter);
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
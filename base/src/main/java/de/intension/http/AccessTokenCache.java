@@ -0,0 +1,229 @@
+package de.intension.http;
+
+import static org.jboss.logging.Logger.getLogger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.jboss.logging.Logger;
+import org.keycloak.representations.AccessTokenResponse;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Cache for client-credentials access tokens keyed by realm, client id and a hash of the client secret.
+ * Tokens are reused until their {@code expires_in} minus a safety margin has passed. Only one thread per key
+ * fetches a new token, all other threads wait for it and reuse the result.
+ */
+public class AccessTokenCache
+{
+
+    public static final String  METRIC_NAME                = "fwu.whitelist.token.cache";
+    public static final long    DEFAULT_EXPIRY_MARGIN_SECS = 30;
+    private static final Logger LOG                        = getLogger(AccessTokenCache.class);
+
+    private final ConcurrentMap<TokenKey, TokenHolder> tokens = new ConcurrentHashMap<>();
+    private final LongAdder                            hits   = new LongAdder();
+    private final LongAdder                            misses = new LongAdder();
+    private final long                                 expiryMarginMillis;
+    private final LongSupplier                         clock;
+
+    public AccessTokenCache()
+    {
+        this(DEFAULT_EXPIRY_MARGIN_SECS);
+    }
+
+    public AccessTokenCache(long expiryMarginSeconds)
+    {
+        this(expiryMarginSeconds, System::currentTimeMillis);
+    }
+
+    AccessTokenCache(long expiryMarginSeconds, LongSupplier clock)
+    {
+        this.expiryMarginMillis = TimeUnit.SECONDS.toMillis(expiryMarginSeconds);
+        this.clock = clock;
+    }
+
+    /**
+     * Register hit and miss counters and the hit ratio with the global (Keycloak) meter registry.
+     */
+    public AccessTokenCache registerMetrics(String cacheName)
+    {
+        FunctionCounter.builder(METRIC_NAME, hits, LongAdder::sum)
+            .description("Access token cache lookups")
+            .tag("cache", cacheName).tag("result", "hit")
+            .register(Metrics.globalRegistry);
+        FunctionCounter.builder(METRIC_NAME, misses, LongAdder::sum)
+            .description("Access token cache lookups")
+            .tag("cache", cacheName).tag("result", "miss")
+            .register(Metrics.globalRegistry);
+        Gauge.builder(METRIC_NAME + ".hit.ratio", this, AccessTokenCache::getHitRatio)
+            .description("Share of access token requests served from the cache")
+            .tag("cache", cacheName)
+            .register(Metrics.globalRegistry);
+        return this;
+    }
+
+    /**
+     * Get a valid access token from cache or fetch a new one with the given loader.
+     */
+    public String getToken(String realm, String clientId, String clientSecret, TokenLoader loader)
+        throws IOException
+    {
+        TokenHolder holder = tokens.computeIfAbsent(new TokenKey(realm, clientId, hash(clientSecret)), k -> new TokenHolder());
+        CachedToken token = holder.token;
+        if (token != null && token.isValid(clock.getAsLong())) {
+            hits.increment();
+            return token.value();
+        }
+        holder.lock.lock();
+        try {
+            // another thread may have refreshed the token while we were waiting
+            token = holder.token;
+            if (token != null && token.isValid(clock.getAsLong())) {
+                hits.increment();
+                return token.value();
+            }
+            misses.increment();
+            AccessTokenResponse response = loader.load();
+            long expiresAt = clock.getAsLong() + TimeUnit.SECONDS.toMillis(response.getExpiresIn()) - expiryMarginMillis;
+            holder.token = new CachedToken(response.getToken(), expiresAt);
+            LOG.debugv("Fetched new access token for client [{0}] in realm [{1}], expires in {2}s", clientId, realm, response.getExpiresIn());
+            return response.getToken();
+        } finally {
+            holder.lock.unlock();
+        }
+    }
+
+    /**
+     * Get a valid access token from cache or fetch a new one asynchronously with the given loader. While a token is
+     * being fetched, all callers for the same client share the pending result.
+     */
+    public CompletableFuture<String> getTokenAsync(String realm, String clientId, String clientSecret, AsyncTokenLoader loader)
+    {
+        TokenHolder holder = tokens.computeIfAbsent(new TokenKey(realm, clientId, hash(clientSecret)), k -> new TokenHolder());
+        CachedToken token = holder.token;
+        if (token != null && token.isValid(clock.getAsLong())) {
+            hits.increment();
+            return CompletableFuture.completedFuture(token.value());
+        }
+        holder.lock.lock();
+        try {
+            token = holder.token;
+            if (token != null && token.isValid(clock.getAsLong())) {
+                hits.increment();
+                return CompletableFuture.completedFuture(token.value());
+            }
+            if (holder.pending != null) {
+                return holder.pending;
+            }
+            misses.increment();
+            CompletableFuture<String> pending = loader.load().thenApply(response -> {
+                long expiresAt = clock.getAsLong() + TimeUnit.SECONDS.toMillis(response.getExpiresIn()) - expiryMarginMillis;
+                holder.token = new CachedToken(response.getToken(), expiresAt);
+                LOG.debugv("Fetched new access token for client [{0}] in realm [{1}], expires in {2}s", clientId, realm, response.getExpiresIn());
+                return response.getToken();
+            });
+            holder.pending = pending;
+            pending.whenComplete((t, e) -> holder.pending = null);
+            return pending;
+        } finally {
+            holder.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove cached token, e.g. after the resource server rejected it.
+     */
+    public void invalidate(String realm, String clientId, String clientSecret)
+    {
+        tokens.remove(new TokenKey(realm, clientId, hash(clientSecret)));
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Share of cache hits of all requests since startup, {@code NaN} without requests.
+     */
+    public double getHitRatio()
+    {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? Double.NaN : (double)hitCount / total;
+    }
+
+    /**
+     * The secret itself is never kept in memory as part of a key.
+     */
+    private static String hash(String secret)
+    {
+        if (secret == null) {
+            return null;
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fetches a new access token from the token endpoint.
+     */
+    @FunctionalInterface
+    public interface TokenLoader
+    {
+
+        AccessTokenResponse load()
+            throws IOException;
+    }
+
+    /**
+     * Fetches a new access token from the token endpoint without blocking.
+     */
+    @FunctionalInterface
+    public interface AsyncTokenLoader
+    {
+
+        CompletableFuture<AccessTokenResponse> load();
+    }
+
+    private record TokenKey(String realm, String clientId, String secretHash) {}
+
+    private record CachedToken(String value, long expiresAt)
+    {
+
+        boolean isValid(long now)
+        {
+            return value != null && now < expiresAt;
+        }
+    }
+
+    private static class TokenHolder
+    {
+
+        private final ReentrantLock                lock = new ReentrantLock();
+        private volatile CachedToken               token;
+        private volatile CompletableFuture<String> pending;
+    }
+}
@@ -0,0 +1,213 @@
+package de.intension.http;
+
+import static org.jboss.logging.Logger.getLogger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.jboss.logging.Logger;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.utils.MediaType;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.intension.metrics.WhitelistMetrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Sends GET requests authorized with a client-credentials token of a Keycloak realm. Tokens are taken from the
+ * {@link AccessTokenCache}; if the resource server rejects a cached token with {@code 401}, the request is retried
+ * once with a new one. The HTTP client is owned and closed by the caller.
+ */
+public class ClientCredentialsClient
+{
+
+    private static final Logger       LOG          = getLogger(ClientCredentialsClient.class);
+    private final ObjectMapper        objectMapper = new ObjectMapper();
+    private final String              kcAuthUrl;
+    private final CloseableHttpClient httpClient;
+    private final AccessTokenCache    tokenCache;
+    private HttpClient                asyncClient;
+    private Duration                  requestDeadline;
+    private WhitelistMetrics          metrics      = WhitelistMetrics.DISABLED;
+
+    public ClientCredentialsClient(String kcAuthUrl, CloseableHttpClient httpClient, AccessTokenCache tokenCache)
+    {
+        this.kcAuthUrl = kcAuthUrl;
+        this.httpClient = httpClient;
+        this.tokenCache = tokenCache;
+    }
+
+    /**
+     * Enable {@link #sendGetAsync}, every single request is limited by the given deadline.
+     */
+    public ClientCredentialsClient withAsyncRequests(HttpClient asyncClient, Duration requestDeadline)
+    {
+        this.asyncClient = asyncClient;
+        this.requestDeadline = requestDeadline;
+        return this;
+    }
+
+    /**
+     * Record token fetch times.
+     */
+    public ClientCredentialsClient withMetrics(WhitelistMetrics metrics)
+    {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Send an authorized GET request. The caller has to close the response.
+     */
+    public CloseableHttpResponse executeGet(URI uri, String realm, String clientId, String clientSecret)
+        throws IOException
+    {
+        HttpGet httpGet = new HttpGet(uri);
+        httpGet.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + getAccessToken(realm, clientId, clientSecret));
+        httpGet.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+
+        CloseableHttpResponse response = httpClient.execute(httpGet);
+
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+            // cached token might have been revoked, retry once with a fresh one
+            response.close();
+            tokenCache.invalidate(realm, clientId, clientSecret);
+            httpGet.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + getAccessToken(realm, clientId, clientSecret));
+            response = httpClient.execute(httpGet);
+        }
+        return response;
+    }
+
+    /**
+     * Non-blocking variant of {@link #executeGet}, requires {@link #withAsyncRequests}.
+     */
+    public CompletableFuture<HttpResponse<String>> sendGetAsync(URI uri, String realm, String clientId, String clientSecret)
+    {
+        return sendGetAsync(uri, realm, clientId, clientSecret, true);
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendGetAsync(URI uri, String realm, String clientId, String clientSecret,
+                                                                 boolean retryUnauthorized)
+    {
+        return getAccessTokenAsync(realm, clientId, clientSecret)
+            .thenCompose(token -> asyncClient.sendAsync(HttpRequest.newBuilder(uri)
+                .timeout(requestDeadline)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .GET().build(), BodyHandlers.ofString()))
+            .thenCompose(response -> {
+                if (response.statusCode() == HttpStatus.SC_UNAUTHORIZED && retryUnauthorized) {
+                    // cached token might have been revoked, retry once with a fresh one
+                    tokenCache.invalidate(realm, clientId, clientSecret);
+                    return sendGetAsync(uri, realm, clientId, clientSecret, false);
+                }
+                return CompletableFuture.completedFuture(response);
+            });
+    }
+
+    /**
+     * Get a valid token from the cache or from the token endpoint.
+     */
+    public String getAccessToken(String realm, String clientId, String clientSecret)
+        throws IOException
+    {
+        return tokenCache.getToken(realm, clientId, clientSecret, () -> {
+            Timer.Sample sample = metrics.start();
+            try {
+                return fetchAccessToken(realm, clientId, clientSecret);
+            } finally {
+                metrics.tokenFetched(sample);
+            }
+        });
+    }
+
+    /**
+     * Non-blocking variant of {@link #getAccessToken}, requires {@link #withAsyncRequests}.
+     */
+    public CompletableFuture<String> getAccessTokenAsync(String realm, String clientId, String clientSecret)
+    {
+        return tokenCache.getTokenAsync(realm, clientId, clientSecret,
+                                        () -> metrics.timeTokenFetch(() -> fetchAccessTokenAsync(realm, clientId, clientSecret)));
+    }
+
+    private AccessTokenResponse fetchAccessToken(String realm, String clientId, String clientSecret)
+        throws IOException
+    {
+        HttpPost httpPost = new HttpPost(getTokenUrl(realm));
+        httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED);
+        httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+        httpPost.setEntity(new UrlEncodedFormEntity(getTokenRequestParams(clientId, clientSecret)));
+
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            LOG.debugv("Get access token. Status = {0, number, integer}", response.getStatusLine().getStatusCode());
+            return objectMapper.readValue(EntityUtils.toString(response.getEntity()), AccessTokenResponse.class);
+        }
+    }
+
+    private CompletableFuture<AccessTokenResponse> fetchAccessTokenAsync(String realm, String clientId, String clientSecret)
+    {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(getTokenUrl(realm)))
+                .timeout(requestDeadline)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .POST(BodyPublishers.ofString(URLEncodedUtils.format(getTokenRequestParams(clientId, clientSecret), StandardCharsets.UTF_8)))
+                .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return asyncClient.sendAsync(request, BodyHandlers.ofString()).thenApply(response -> {
+            LOG.debugv("Get access token. Status = {0, number, integer}", response.statusCode());
+            try {
+                return objectMapper.readValue(response.body(), AccessTokenResponse.class);
+            } catch (JsonProcessingException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private String getTokenUrl(String realm)
+    {
+        return String.format("%s/realms/%s/protocol/openid-connect/token", kcAuthUrl, realm);
+    }
+
+    private static List<NameValuePair> getTokenRequestParams(String clientId, String clientSecret)
+    {
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair(OAuth2Constants.GRANT_TYPE, OAuth2Constants.CLIENT_CREDENTIALS));
+        params.add(new BasicNameValuePair(OAuth2Constants.CLIENT_ID, clientId));
+        params.add(new BasicNameValuePair(OAuth2Constants.CLIENT_SECRET, clientSecret));
+        return params;
+    }
+
+    public AccessTokenCache getTokenCache()
+    {
+        return tokenCache;
+    }
+}
@@ -0,0 +1,47 @@
+package de.intension.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers for asynchronous REST calls.
+ */
+public final class Futures
+{
+
+    private Futures()
+    {
+    }
+
+    /**
+     * Wait for the result of an asynchronous call which completes on its own, e.g. because of
+     * {@link CompletableFuture#orTimeout}. The cause of a failure is rethrown, an exceeded deadline is reported as
+     * {@link IOException}.
+     */
+    public static <T> T await(CompletableFuture<T> future)
+        throws IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new InterruptedIOException("Interrupted while waiting for REST-API");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new IOException("REST-API did not respond within the deadline", cause);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
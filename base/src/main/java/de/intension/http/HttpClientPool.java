@@ -0,0 +1,195 @@
+package de.intension.http;
+
+import java.io.Closeable;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Pooled HTTP connections shared by the REST clients of all extensions.
+ * <p>
+ * The pool is created by the first provider factory calling {@link #acquire(Config.Scope)} with the settings of
+ * its scope and closed after the last provider factory has called {@link #release()}. Other settings requested by a
+ * later provider factory are logged as warning, because they have no effect.
+ * <p>
+ * Non-blocking requests use a single shared {@link HttpClient}, which maintains its own connection pool.
+ */
+public class HttpClientPool
+    implements Closeable
+{
+
+    public static final String  CONF_MAX_TOTAL                 = "httpMaxTotal";
+    public static final String  CONF_MAX_PER_ROUTE             = "httpMaxPerRoute";
+    public static final String  CONF_KEEP_ALIVE                = "httpKeepAlive";
+    public static final String  CONF_IDLE_TIMEOUT              = "httpIdleTimeout";
+    public static final String  CONF_VALIDATE_AFTER_INACTIVITY = "httpValidateAfterInactivity";
+    public static final String  METRIC_NAME                    = "fwu.http.pool.connections";
+    private static final Logger LOG                            = Logger.getLogger(HttpClientPool.class);
+
+    private static HttpClientPool shared;
+    private static Settings       sharedSettings;
+    private static int            references;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor              evictor;
+    private final ConnectionKeepAliveStrategy        keepAliveStrategy;
+    private HttpClient                               asyncClient;
+
+    public HttpClientPool(Settings settings)
+    {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(settings.maxTotal());
+        connectionManager.setDefaultMaxPerRoute(settings.maxPerRoute());
+        connectionManager.setValidateAfterInactivity(settings.validateAfterInactivityMillis());
+        long keepAliveMillis = TimeUnit.SECONDS.toMillis(settings.keepAliveSeconds());
+        keepAliveStrategy = (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+        };
+        evictor = new IdleConnectionEvictor(connectionManager, settings.idleTimeoutSeconds(), TimeUnit.SECONDS);
+        evictor.start();
+        LOG.infof("Created HTTP connection pool %s", settings);
+    }
+
+    /**
+     * Get the shared pool. It is created with the settings from the given scope if it does not exist yet, differing
+     * settings of later scopes are ignored with a warning.
+     */
+    public static synchronized HttpClientPool acquire(Config.Scope scope)
+    {
+        Settings settings = Settings.fromScope(scope);
+        if (shared == null) {
+            shared = new HttpClientPool(settings).registerMetrics("shared");
+            sharedSettings = settings;
+        }
+        else if (!settings.equals(sharedSettings)) {
+            LOG.warnf("Ignoring HTTP connection pool %s, the shared pool was already created with %s", settings, sharedSettings);
+        }
+        references++;
+        return shared;
+    }
+
+    /**
+     * Release the shared pool, the last release closes all pooled connections.
+     */
+    public void release()
+    {
+        synchronized (HttpClientPool.class) {
+            if (this != shared) {
+                close();
+                return;
+            }
+            if (--references <= 0) {
+                shared = null;
+                sharedSettings = null;
+                references = 0;
+                close();
+            }
+        }
+    }
+
+    /**
+     * Create a new HTTP client using the pooled connections. Closing the client does not close the pool.
+     */
+    public CloseableHttpClient createClient(RequestConfig requestConfig)
+    {
+        return HttpClientBuilder.create()
+            .setConnectionManager(connectionManager)
+            .setConnectionManagerShared(true)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+    }
+
+    /**
+     * Get the shared client for non-blocking requests, it is created on first use.
+     */
+    public synchronized HttpClient getAsyncClient()
+    {
+        if (asyncClient == null) {
+            asyncClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        }
+        return asyncClient;
+    }
+
+    /**
+     * Register leased, pending, available and max connections with the global (Keycloak) meter registry.
+     */
+    public HttpClientPool registerMetrics(String poolName)
+    {
+        registerGauge(poolName, "leased", PoolStats::getLeased);
+        registerGauge(poolName, "pending", PoolStats::getPending);
+        registerGauge(poolName, "available", PoolStats::getAvailable);
+        registerGauge(poolName, "max", PoolStats::getMax);
+        return this;
+    }
+
+    private void registerGauge(String poolName, String state, ToIntFunction<PoolStats> value)
+    {
+        Gauge.builder(METRIC_NAME, this, pool -> value.applyAsInt(pool.getTotalStats()))
+            .description("Connections of the HTTP connection pool")
+            .tag("pool", poolName).tag("state", state)
+            .register(Metrics.globalRegistry);
+    }
+
+    public PoolStats getTotalStats()
+    {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close()
+    {
+        evictor.shutdown();
+        connectionManager.close();
+        synchronized (this) {
+            if (asyncClient != null) {
+                asyncClient.shutdownNow();
+                asyncClient = null;
+            }
+        }
+    }
+
+    /**
+     * Connection pool settings.
+     *
+     * @param maxTotal Maximum number of connections
+     * @param maxPerRoute Maximum number of connections per host
+     * @param keepAliveSeconds Maximum time a connection is kept alive if the server does not send a shorter one
+     * @param idleTimeoutSeconds Idle connections are closed after this time
+     * @param validateAfterInactivityMillis Connections are validated before reuse after this time of inactivity
+     */
+    public record Settings(int maxTotal, int maxPerRoute, long keepAliveSeconds, long idleTimeoutSeconds, int validateAfterInactivityMillis)
+    {
+
+        public static final Settings DEFAULT = new Settings(100, 50, 30, 60, 2000);
+
+        public static Settings fromScope(Config.Scope scope)
+        {
+            return new Settings(
+                    scope.getInt(CONF_MAX_TOTAL, DEFAULT.maxTotal()),
+                    scope.getInt(CONF_MAX_PER_ROUTE, DEFAULT.maxPerRoute()),
+                    scope.getLong(CONF_KEEP_ALIVE, DEFAULT.keepAliveSeconds()),
+                    scope.getLong(CONF_IDLE_TIMEOUT, DEFAULT.idleTimeoutSeconds()),
+                    scope.getInt(CONF_VALIDATE_AFTER_INACTIVITY, DEFAULT.validateAfterInactivityMillis()));
+        }
+    }
+}
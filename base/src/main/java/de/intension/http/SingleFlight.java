@@ -0,0 +1,111 @@
+package de.intension.http;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Coalesces concurrent requests for the same key into one in-flight call.
+ * <p>
+ * The first caller executes the call, every caller arriving before it completed shares its result or failure. Nothing
+ * is cached afterwards, the next caller executes the call again.
+ */
+public class SingleFlight<K, V>
+{
+
+    public static final String                           METRIC_NAME = "fwu.http.requests.coalesced";
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight    = new ConcurrentHashMap<>();
+    private final LongAdder                              coalesced   = new LongAdder();
+
+    /**
+     * Register a counter of coalesced requests with the global (Keycloak) meter registry.
+     */
+    public SingleFlight<K, V> registerMetrics(String clientName)
+    {
+        FunctionCounter.builder(METRIC_NAME, coalesced, LongAdder::sum)
+            .description("Requests which shared the result of an identical in-flight request")
+            .tag("client", clientName)
+            .register(Metrics.globalRegistry);
+        return this;
+    }
+
+    /**
+     * Execute the call in the calling thread or wait for the identical call already in flight.
+     */
+    public V execute(K key, Call<V> call)
+        throws IOException, URISyntaxException
+    {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, own);
+        if (existing != null) {
+            coalesced.increment();
+            return Futures.await(existing);
+        }
+        V value;
+        try {
+            value = call.call();
+        } catch (Throwable e) {
+            // waiting callers must be released by any failure, errors included
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+        own.complete(value);
+        return value;
+    }
+
+    /**
+     * Start the asynchronous call or join the identical call already in flight. Every caller gets its own copy of the
+     * shared future, so cancelling or timing out one caller does not affect the others.
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> call)
+    {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, own);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.copy();
+        }
+        CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, e) -> {
+            inFlight.remove(key, own);
+            if (e == null) {
+                own.complete(value);
+            }
+            else {
+                own.completeExceptionally(e);
+            }
+        });
+        return own.copy();
+    }
+
+    public long getCoalesced()
+    {
+        return coalesced.sum();
+    }
+
+    /**
+     * A blocking REST call.
+     */
+    @FunctionalInterface
+    public interface Call<V>
+    {
+
+        V call()
+            throws IOException, URISyntaxException;
+    }
+}
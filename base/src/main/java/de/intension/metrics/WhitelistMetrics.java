@@ -0,0 +1,131 @@
+package de.intension.metrics;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Latency and outcome metrics of the whitelist decisions of an authenticator.
+ * <ul>
+ * <li>{@value #DECISION_METRIC}: total time of a decision per flow path, as histogram for SLOs.</li>
+ * <li>{@value #DECISIONS_METRIC}: allowed, denied and failed decisions per realm and flow path.</li>
+ * <li>{@value #TOKEN_FETCH_METRIC}: time to fetch an access token for the REST-API, cache hits are not timed.</li>
+ * <li>{@value #ASSIGNMENT_FETCH_METRIC}: time to fetch the assignments of a client from the REST-API.</li>
+ * </ul>
+ */
+public class WhitelistMetrics
+{
+
+    public static final String           DECISION_METRIC         = "fwu.whitelist.decision";
+    public static final String           DECISIONS_METRIC        = "fwu.whitelist.decisions";
+    public static final String           TOKEN_FETCH_METRIC      = "fwu.whitelist.token.fetch";
+    public static final String           ASSIGNMENT_FETCH_METRIC = "fwu.whitelist.assignments.fetch";
+
+    /** Records nothing, used if an authenticator or REST client is created without metrics. */
+    public static final WhitelistMetrics DISABLED                = new WhitelistMetrics("disabled", new CompositeMeterRegistry());
+
+    private static final Set<String>     FLOW_PATHS              = Set.of("authenticate", "first-broker-login", "post-broker-login");
+
+    public enum Outcome
+    {
+        ALLOWED, DENIED, ERROR;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private final String        authenticator;
+    private final MeterRegistry registry;
+    private final Timer         tokenFetch;
+    private final Timer         assignmentFetchSuccess;
+    private final Timer         assignmentFetchError;
+
+    /**
+     * Register the metrics of the given authenticator with the global (Keycloak) meter registry.
+     */
+    public WhitelistMetrics(String authenticator)
+    {
+        this(authenticator, Metrics.globalRegistry);
+    }
+
+    public WhitelistMetrics(String authenticator, MeterRegistry registry)
+    {
+        this.authenticator = authenticator;
+        this.registry = registry;
+        this.tokenFetch = Timer.builder(TOKEN_FETCH_METRIC)
+            .description("Time to fetch an access token for the REST-API")
+            .tag("authenticator", authenticator)
+            .register(registry);
+        this.assignmentFetchSuccess = assignmentFetchTimer("success");
+        this.assignmentFetchError = assignmentFetchTimer("error");
+    }
+
+    private Timer assignmentFetchTimer(String result)
+    {
+        return Timer.builder(ASSIGNMENT_FETCH_METRIC)
+            .description("Time to fetch whitelist assignments from the REST-API")
+            .tag("authenticator", authenticator).tag("result", result)
+            .register(registry);
+    }
+
+    /**
+     * Start timing a decision, a token or an assignment fetch.
+     */
+    public Timer.Sample start()
+    {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Count the outcome of a decision and record its duration.
+     */
+    public void decision(Timer.Sample sample, String realm, String flowPath, Outcome outcome)
+    {
+        String flow = FLOW_PATHS.contains(flowPath) ? flowPath : "other";
+        sample.stop(Timer.builder(DECISION_METRIC)
+            .description("Total time of a whitelist decision")
+            .tag("authenticator", authenticator).tag("flow", flow)
+            .publishPercentileHistogram()
+            .register(registry));
+        Counter.builder(DECISIONS_METRIC)
+            .description("Whitelist decisions")
+            .tag("authenticator", authenticator).tag("realm", realm == null ? "unknown" : realm).tag("flow", flow)
+            .tag("outcome", outcome.tag)
+            .register(registry)
+            .increment();
+    }
+
+    public void tokenFetched(Timer.Sample sample)
+    {
+        sample.stop(tokenFetch);
+    }
+
+    public void assignmentsFetched(Timer.Sample sample, boolean success)
+    {
+        sample.stop(success ? assignmentFetchSuccess : assignmentFetchError);
+    }
+
+    /**
+     * Time an asynchronous token fetch until the returned future completes.
+     */
+    public <T> CompletableFuture<T> timeTokenFetch(Supplier<CompletableFuture<T>> fetch)
+    {
+        Timer.Sample sample = start();
+        return fetch.get().whenComplete((result, e) -> tokenFetched(sample));
+    }
+
+    /**
+     * Time an asynchronous assignment fetch until the returned future completes.
+     */
+    public <T> CompletableFuture<T> timeAssignmentFetch(Supplier<CompletableFuture<T>> fetch)
+    {
+        Timer.Sample sample = start();
+        return fetch.get().whenComplete((result, e) -> assignmentsFetched(sample, e == null));
+    }
+}
@@ -2,6 +2,7 @@ package de.intension.util;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
@@ -26,4 +27,11 @@ public class JsonSerialization {
     public static String writeValueAsString(Object value) throws JsonProcessingException {
         return mapper.writeValueAsString(value);
     }
+
+    /**
+     * Convert a value to a JSON tree without serializing it to text and parsing it again.
+     */
+    public static JsonNode valueToTree(Object value) {
+        return mapper.valueToTree(value);
+    }
 }
@@ -0,0 +1,122 @@
+package de.intension.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class ExpiringCacheTest
+{
+
+    private final AtomicLong    now   = new AtomicLong(0);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * GIVEN: a cache with a ttl of 10 seconds and no stale window
+     * WHEN: a key is requested within and after the ttl
+     * THEN: value is loaded again only after the ttl
+     */
+    @Test
+    void should_serve_fresh_entries_and_reload_expired_ones()
+        throws Exception
+    {
+        try (ExpiringCache<String, String> cache = new ExpiringCache<>("test", 10, 0, 10, now::get)) {
+            assertEquals("value-1", cache.get("key", this::load));
+            now.set(9_999);
+            assertEquals("value-1", cache.get("key", this::load));
+            now.set(10_000);
+            assertEquals("value-2", cache.get("key", this::load));
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+        }
+    }
+
+    /**
+     * GIVEN: a cache with a ttl of 10 seconds and a stale window of 5 seconds
+     * WHEN: a key is requested within the stale window
+     * THEN: the stale value is returned and the value is reloaded in the background
+     */
+    @Test
+    void should_serve_stale_entry_while_revalidating()
+        throws Exception
+    {
+        try (ExpiringCache<String, String> cache = new ExpiringCache<>("test", 10, 5, 10, now::get)) {
+            cache.get("key", this::load);
+            now.set(12_000);
+            assertEquals("value-1", cache.get("key", this::load));
+            // wait until background refresh has stored the new value
+            for (int i = 0; i < 100 && !"value-2".equals(cache.get("key", this::load)); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals("value-2", cache.get("key", this::load));
+            assertTrue(cache.getStaleHits() >= 1);
+            assertEquals(1, cache.getMisses());
+            assertEquals(2, loads.get());
+        }
+    }
+
+    /**
+     * GIVEN: a cache with a maximum size of 2
+     * WHEN: a third key is added
+     * THEN: the least recently used key is evicted
+     */
+    @Test
+    void should_evict_least_recently_used_entry()
+        throws Exception
+    {
+        try (ExpiringCache<String, String> cache = new ExpiringCache<>("test", 10, 0, 2, now::get)) {
+            cache.get("a", this::load);
+            cache.get("b", this::load);
+            cache.get("a", this::load);
+            cache.get("c", this::load);
+            assertEquals(2, cache.size());
+            cache.get("a", this::load);
+            assertEquals(3, loads.get());
+            cache.get("b", this::load);
+            assertEquals(4, loads.get());
+        }
+    }
+
+    /**
+     * GIVEN: a cache with a ttl of 0
+     * WHEN: a key is requested twice
+     * THEN: value is loaded every time
+     */
+    @Test
+    void should_not_cache_if_disabled()
+        throws Exception
+    {
+        try (ExpiringCache<String, String> cache = new ExpiringCache<>("test", 0, 0, 10, now::get)) {
+            cache.get("key", this::load);
+            cache.get("key", this::load);
+            assertEquals(2, loads.get());
+        }
+    }
+
+    /**
+     * GIVEN: a cache with a ttl of 10 seconds and a negative ttl of 2 seconds
+     * WHEN: a negative value is requested after 2 seconds
+     * THEN: value is loaded again
+     */
+    @Test
+    void should_keep_negative_entries_shorter()
+        throws Exception
+    {
+        try (ExpiringCache<String, String> cache = new ExpiringCache<String, String>("test", 10, 5, 10, now::get)
+            .withNegativeTtl(2, "value-1"::equals)) {
+            cache.get("key", this::load);
+            now.set(2_000);
+            assertEquals("value-2", cache.get("key", this::load));
+            now.set(4_000);
+            assertEquals("value-2", cache.get("key", this::load));
+        }
+    }
+
+    private String load()
+    {
+        return "value-" + loads.incrementAndGet();
+    }
+}
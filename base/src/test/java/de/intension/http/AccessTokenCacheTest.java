@@ -0,0 +1,168 @@
+package de.intension.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.representations.AccessTokenResponse;
+
+class AccessTokenCacheTest
+{
+
+    private final AtomicLong    now   = new AtomicLong(0);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * GIVEN: a token which expires in 300 seconds
+     * WHEN: token is requested again before and after expiry minus margin
+     * THEN: token endpoint is only called again after the margin has been reached
+     */
+    @Test
+    void should_reuse_token_until_expiry_minus_margin()
+    {
+        AccessTokenCache cache = new AccessTokenCache(30, now::get);
+
+        assertEquals("token-1", getToken(cache, 300));
+        now.set(269_000);
+        assertEquals("token-1", getToken(cache, 300));
+        now.set(270_000);
+        assertEquals("token-2", getToken(cache, 300));
+
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    /**
+     * GIVEN: a token response without expires_in
+     * WHEN: token is requested twice
+     * THEN: token is not cached
+     */
+    @Test
+    void should_not_cache_token_without_expiry()
+    {
+        AccessTokenCache cache = new AccessTokenCache(30, now::get);
+
+        getToken(cache, 0);
+        getToken(cache, 0);
+
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * GIVEN: a cached token
+     * WHEN: the token is invalidated or the client secret changes
+     * THEN: a new token is fetched
+     */
+    @Test
+    void should_fetch_new_token_after_invalidation_or_secret_change()
+        throws Exception
+    {
+        AccessTokenCache cache = new AccessTokenCache(30, now::get);
+
+        getToken(cache, 300);
+        cache.invalidate("realm", "client", "secret");
+        getToken(cache, 300);
+        cache.getToken("realm", "client", "otherSecret", () -> load(300));
+
+        assertEquals(3, loads.get());
+    }
+
+    /**
+     * GIVEN: many threads requesting a token for the same client at the same time
+     * WHEN: no token is cached yet
+     * THEN: the token endpoint is called only once
+     */
+    @Test
+    void should_fetch_token_only_once_under_concurrency()
+        throws Exception
+    {
+        AccessTokenCache cache = new AccessTokenCache(30, now::get);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.getToken("realm", "client", "secret", () -> {
+                        sleep();
+                        return load(300);
+                    });
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                assertEquals("token-1", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * GIVEN: a token request which is still in flight
+     * WHEN: the token is requested asynchronously again, and after the response arrived
+     * THEN: all callers share the pending request and the cached token is reused afterwards
+     */
+    @Test
+    void should_share_pending_async_token_request()
+        throws Exception
+    {
+        AccessTokenCache cache = new AccessTokenCache(30, now::get);
+        CompletableFuture<AccessTokenResponse> response = new CompletableFuture<>();
+        AccessTokenCache.AsyncTokenLoader loader = () -> {
+            loads.incrementAndGet();
+            return response;
+        };
+
+        CompletableFuture<String> first = cache.getTokenAsync("realm", "client", "secret", loader);
+        CompletableFuture<String> second = cache.getTokenAsync("realm", "client", "secret", loader);
+        assertSame(first, second);
+        AccessTokenResponse token = new AccessTokenResponse();
+        token.setToken("token-1");
+        token.setExpiresIn(300);
+        response.complete(token);
+
+        assertEquals("token-1", first.get());
+        assertEquals("token-1", cache.getTokenAsync("realm", "client", "secret", loader).get());
+        assertEquals(1, loads.get());
+    }
+
+    private String getToken(AccessTokenCache cache, int expiresIn)
+    {
+        try {
+            return cache.getToken("realm", "client", "secret", () -> load(expiresIn));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep()
+    {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private AccessTokenResponse load(int expiresIn)
+    {
+        AccessTokenResponse response = new AccessTokenResponse();
+        response.setToken("token-" + loads.incrementAndGet());
+        response.setExpiresIn(expiresIn);
+        return response;
+    }
+}
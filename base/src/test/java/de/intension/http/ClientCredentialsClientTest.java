@@ -0,0 +1,116 @@
+package de.intension.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class ClientCredentialsClientTest
+{
+
+    private final AtomicInteger     tokenRequests = new AtomicInteger();
+    private final AtomicInteger     rejections    = new AtomicInteger();
+    private HttpServer              server;
+    private HttpClientPool          pool;
+    private ClientCredentialsClient client;
+    private URI                     resource;
+
+    @BeforeEach
+    void setUp()
+        throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/auth/realms/test/protocol/openid-connect/token", exchange -> {
+            int token = tokenRequests.incrementAndGet();
+            respond(exchange, 200, "{\"access_token\":\"token-" + token + "\",\"expires_in\":300}");
+        });
+        // rejects the first token as if it had been revoked
+        server.createContext("/resource", exchange -> {
+            if ("Bearer token-1".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                rejections.incrementAndGet();
+                respond(exchange, 401, "");
+            }
+            else {
+                respond(exchange, 200, "ok");
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort();
+        resource = URI.create(url + "/resource");
+        pool = new HttpClientPool(HttpClientPool.Settings.DEFAULT);
+        client = new ClientCredentialsClient(url + "/auth", pool.createClient(RequestConfig.DEFAULT), new AccessTokenCache());
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        server.stop(0);
+        pool.close();
+    }
+
+    /**
+     * GIVEN: a cached token which is rejected by the resource server
+     * WHEN: GET requests are sent
+     * THEN: the first request is retried once with a new token, which is reused for the next request
+     */
+    @Test
+    void should_retry_once_with_new_token()
+        throws Exception
+    {
+        try (CloseableHttpResponse response = client.executeGet(resource, "test", "api", "secret")) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+        try (CloseableHttpResponse response = client.executeGet(resource, "test", "api", "secret")) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        assertEquals(2, tokenRequests.get());
+        assertEquals(1, rejections.get());
+    }
+
+    /**
+     * GIVEN: asynchronous requests and a cached token which is rejected by the resource server
+     * WHEN: GET requests are sent
+     * THEN: the first request is retried once with a new token, which is reused for the next request
+     */
+    @Test
+    void should_retry_once_with_new_token_async()
+    {
+        client.withAsyncRequests(HttpClient.newHttpClient(), Duration.ofSeconds(5));
+
+        assertEquals("ok", client.sendGetAsync(resource, "test", "api", "secret").join().body());
+        assertEquals("ok", client.sendGetAsync(resource, "test", "api", "secret").join().body());
+
+        assertEquals(2, tokenRequests.get());
+        assertEquals(1, rejections.get());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+        throws IOException
+    {
+        byte[] response = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length == 0 ? -1 : response.length);
+        if (response.length > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        }
+        exchange.close();
+    }
+}
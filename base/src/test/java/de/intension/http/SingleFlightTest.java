@@ -0,0 +1,130 @@
+package de.intension.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest
+{
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * GIVEN: many threads requesting the same key at the same time
+     * WHEN: the call is still running while the other threads arrive
+     * THEN: the call is executed only once and all threads get its result
+     */
+    @Test
+    void should_execute_call_only_once_under_concurrency()
+        throws Exception
+    {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return singleFlight.execute("client", () -> {
+                        awaitCoalesced(singleFlight, 15);
+                        return "result-" + calls.incrementAndGet();
+                    });
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                assertEquals("result-1", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(15, singleFlight.getCoalesced());
+        assertEquals("result-2", singleFlight.execute("client", () -> "result-" + calls.incrementAndGet()));
+    }
+
+    /**
+     * GIVEN: an asynchronous call which is still in flight
+     * WHEN: the same key is requested again and the call fails
+     * THEN: both callers get the failure and the next request executes the call again
+     */
+    @Test
+    void should_share_failure_of_async_call()
+    {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        CompletableFuture<String> first = singleFlight.executeAsync("client", () -> {
+            calls.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<String> second = singleFlight.executeAsync("client", () -> {
+            calls.incrementAndGet();
+            return pending;
+        });
+        pending.completeExceptionally(new IOException("unavailable"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, first::get);
+        assertTrue(e.getCause() instanceof IOException);
+        assertThrows(ExecutionException.class, second::get);
+        assertEquals(1, calls.get());
+        singleFlight.executeAsync("client", () -> CompletableFuture.completedFuture("result-" + calls.incrementAndGet()));
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * GIVEN: a call which is still in flight while a second caller waits for it
+     * WHEN: the call fails with an error
+     * THEN: the waiting caller is released with the failure and the next request executes the call again
+     */
+    @Test
+    void should_release_waiting_callers_on_error()
+        throws Exception
+    {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> waiting = executor.submit(() -> {
+                started.await();
+                return singleFlight.execute("client", () -> "result-" + calls.incrementAndGet());
+            });
+            assertThrows(StackOverflowError.class, () -> singleFlight.execute("client", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                awaitCoalesced(singleFlight, 1);
+                throw new StackOverflowError();
+            }));
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getCause() instanceof StackOverflowError);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("result-2", singleFlight.execute("client", () -> "result-" + calls.incrementAndGet()));
+    }
+
+    private static void awaitCoalesced(SingleFlight<?, ?> singleFlight, int expected)
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCoalesced() < expected && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+}
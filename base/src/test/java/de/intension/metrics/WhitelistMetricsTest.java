@@ -0,0 +1,55 @@
+package de.intension.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import de.intension.metrics.WhitelistMetrics.Outcome;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WhitelistMetricsTest
+{
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final WhitelistMetrics    metrics  = new WhitelistMetrics("test-authenticator", registry);
+
+    /**
+     * GIVEN: decisions in different realms and flows
+     * WHEN: the decisions are recorded
+     * THEN: outcomes are counted per realm and flow, unknown flow paths are grouped as "other"
+     */
+    @Test
+    void should_count_decisions_per_realm_and_flow()
+    {
+        metrics.decision(metrics.start(), "realm-a", "first-broker-login", Outcome.ALLOWED);
+        metrics.decision(metrics.start(), "realm-a", "first-broker-login", Outcome.ALLOWED);
+        metrics.decision(metrics.start(), "realm-b", "authenticate", Outcome.DENIED);
+        metrics.decision(metrics.start(), "realm-b", "some/other/path", Outcome.ERROR);
+
+        assertEquals(2, registry.get(WhitelistMetrics.DECISIONS_METRIC).tag("realm", "realm-a").tag("outcome", "allowed").counter().count());
+        assertEquals(1, registry.get(WhitelistMetrics.DECISIONS_METRIC).tag("realm", "realm-b").tag("flow", "authenticate").tag("outcome", "denied")
+            .counter().count());
+        assertEquals(1, registry.get(WhitelistMetrics.DECISIONS_METRIC).tag("flow", "other").tag("outcome", "error").counter().count());
+        assertEquals(2, registry.get(WhitelistMetrics.DECISION_METRIC).tag("flow", "first-broker-login").timer().count());
+    }
+
+    /**
+     * GIVEN: a successful and a failed asynchronous assignment fetch
+     * WHEN: both complete
+     * THEN: each is timed with its result
+     */
+    @Test
+    void should_time_async_assignment_fetch_by_result()
+    {
+        metrics.timeAssignmentFetch(() -> CompletableFuture.completedFuture("ok"));
+        CompletableFuture<String> failing = new CompletableFuture<>();
+        metrics.timeAssignmentFetch(() -> failing);
+        failing.completeExceptionally(new IllegalStateException());
+
+        assertEquals(1, registry.get(WhitelistMetrics.ASSIGNMENT_FETCH_METRIC).tag("result", "success").timer().count());
+        assertEquals(1, registry.get(WhitelistMetrics.ASSIGNMENT_FETCH_METRIC).tag("result", "error").timer().count());
+        assertEquals(0, registry.get(WhitelistMetrics.TOKEN_FETCH_METRIC).timer().count());
+    }
+}
@@ -0,0 +1,79 @@
+package de.intension.benchmarks.hmac;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapperHelper;
+import de.intension.protocol.oidc.mappers.HmacSimpleUserAttributeMapper;
+
+/**
+ * Cost of calculating one pseudonym per hash algorithm offered by the HMAC mappers: with the cached key material of
+ * {@link HmacPairwiseSubMapperHelper}, with the key setup per call of {@link HmacSimpleUserAttributeMapper} and of the
+ * final {@link UUID#nameUUIDFromBytes(byte[])} step alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacIdentifierBenchmark
+{
+
+    @Param({"HmacMD5", "HmacSHA1", "HmacSHA224", "HmacSHA256", "HmacSHA384", "HmacSHA512", "HmacSHA512/224", "HmacSHA512/256",
+            "HmacSHA3-224", "HmacSHA3-256", "HmacSHA3-384", "HmacSHA3-512"})
+    private String                        algorithm;
+
+    private ProtocolMapperModel           subMapperModel;
+    private ProtocolMapperModel           simpleMapperModel;
+    private HmacSimpleUserAttributeMapper simpleMapper;
+    private byte[]                        digest;
+
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        MapperModels.checkOffered(algorithm);
+        subMapperModel = MapperModels.subMapper(algorithm);
+        simpleMapperModel = MapperModels.simpleUserAttributeMapper(algorithm);
+        simpleMapper = new HmacSimpleUserAttributeMapper();
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(MapperModels.SALT.getBytes(StandardCharsets.UTF_8), algorithm));
+        digest = mac.doFinal(MapperModels.USER_ID.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public String subMapperIdentifier()
+    {
+        return HmacPairwiseSubMapperHelper.generateIdentifier(subMapperModel, MapperModels.USER_ID);
+    }
+
+    @Benchmark
+    public String simpleUserAttributeIdentifier()
+    {
+        return simpleMapper.generateIdentifier(simpleMapperModel, MapperModels.USER_ID);
+    }
+
+    @Benchmark
+    public UUID nameUuidFromBytes()
+    {
+        return UUID.nameUUIDFromBytes(digest);
+    }
+}
@@ -0,0 +1,78 @@
+package de.intension.benchmarks.hmac;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intension.protocol.oidc.mappers.HmacPairwiseEmailMapper;
+import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapper;
+import de.intension.protocol.oidc.mappers.HmacSimpleUserAttributeMapper;
+
+/**
+ * Full {@code transformAccessToken} path of the HMAC mappers which every token passes through: reading the config and
+ * the local sub value of the user, calculating the pseudonym and setting the claim. There is no client session
+ * context, so nothing is memoized between invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacTransformAccessTokenBenchmark
+{
+
+    @Param({"HmacMD5", "HmacSHA1", "HmacSHA224", "HmacSHA256", "HmacSHA384", "HmacSHA512", "HmacSHA512/224", "HmacSHA512/256",
+            "HmacSHA3-224", "HmacSHA3-256", "HmacSHA3-384", "HmacSHA3-512"})
+    private String                              algorithm;
+
+    private final HmacPairwiseSubMapper         subMapper    = new HmacPairwiseSubMapper();
+    private final HmacSimpleUserAttributeMapper simpleMapper = new HmacSimpleUserAttributeMapper();
+    private final HmacPairwiseEmailMapper       emailMapper  = new HmacPairwiseEmailMapper();
+    private ProtocolMapperModel                 subMapperModel;
+    private ProtocolMapperModel                 simpleMapperModel;
+    private ProtocolMapperModel                 emailMapperModel;
+    private UserSessionModel                    userSession;
+
+    @Setup
+    public void setUp()
+    {
+        MapperModels.checkOffered(algorithm);
+        subMapperModel = MapperModels.subMapper(algorithm);
+        simpleMapperModel = MapperModels.simpleUserAttributeMapper(algorithm);
+        emailMapperModel = MapperModels.emailMapper(algorithm);
+        userSession = Stubs.userSession(Stubs.user(MapperModels.USER_ID, "tim", "tim@example.com", Map.of()));
+    }
+
+    @Benchmark
+    public AccessToken subMapper()
+    {
+        return subMapper.transformAccessToken(new AccessToken(), subMapperModel, null, userSession, null);
+    }
+
+    @Benchmark
+    public AccessToken simpleUserAttributeMapper()
+    {
+        return simpleMapper.transformAccessToken(new AccessToken(), simpleMapperModel, null, userSession, null);
+    }
+
+    @Benchmark
+    public AccessToken emailMapper()
+    {
+        return emailMapper.transformAccessToken(new AccessToken(), emailMapperModel, null, userSession, null);
+    }
+}
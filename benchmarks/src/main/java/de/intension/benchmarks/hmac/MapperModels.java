@@ -0,0 +1,84 @@
+package de.intension.benchmarks.hmac;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.protocol.oidc.mappers.PairwiseSubMapperHelper;
+
+import de.intension.protocol.oidc.mappers.HmacPairwiseEmailMapper;
+import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapper;
+import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapperHelper;
+import de.intension.protocol.oidc.mappers.HmacSimpleUserAttributeMapper;
+
+/**
+ * Configs of the HMAC mappers as they are stored by the admin console, all included in the access token.
+ */
+final class MapperModels
+{
+
+    static final String USER_ID           = "608b8580-9bcd-4723-be12-1affd60bcc3a";
+    static final String SALT              = "P5ZD+fqPLDTW";
+    static final String SECTOR_IDENTIFIER = "https://sector.example.org/sector_identifiers.json";
+
+    private MapperModels()
+    {
+    }
+
+    /**
+     * Fail if the algorithm is not offered by the mapper config anymore, so the benchmark parameters follow the
+     * mappers.
+     */
+    static void checkOffered(String algorithm)
+    {
+        boolean offered = new HmacPairwiseSubMapper().getConfigProperties().stream()
+            .filter(property -> HmacPairwiseSubMapperHelper.HASH_ALGORITHM_PROP_NAME.equals(property.getName()))
+            .anyMatch(property -> property.getOptions().contains(algorithm));
+        if (!offered) {
+            throw new IllegalStateException("Hash algorithm '" + algorithm + "' is not offered by the HMAC mappers");
+        }
+    }
+
+    static ProtocolMapperModel subMapper(String algorithm)
+    {
+        Map<String, String> config = baseConfig(algorithm);
+        config.put(PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT, SALT);
+        config.put(PairwiseSubMapperHelper.SECTOR_IDENTIFIER_URI, SECTOR_IDENTIFIER);
+        return mapperModel(HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID, config);
+    }
+
+    static ProtocolMapperModel simpleUserAttributeMapper(String algorithm)
+    {
+        Map<String, String> config = baseConfig(algorithm);
+        config.put(HmacSimpleUserAttributeMapper.SECTOR_IDENTIFIER_PROP_NAME, "sector");
+        config.put(OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME, "pseudonym");
+        return mapperModel(HmacSimpleUserAttributeMapper.PROTOCOL_MAPPER_ID, config);
+    }
+
+    static ProtocolMapperModel emailMapper(String algorithm)
+    {
+        Map<String, String> config = baseConfig(algorithm);
+        config.put(PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT, SALT);
+        config.put(PairwiseSubMapperHelper.SECTOR_IDENTIFIER_URI, SECTOR_IDENTIFIER);
+        config.put("emailDomain", "example.org");
+        return mapperModel(HmacPairwiseEmailMapper.PROVIDER_ID, config);
+    }
+
+    private static Map<String, String> baseConfig(String algorithm)
+    {
+        Map<String, String> config = new HashMap<>();
+        config.put(HmacPairwiseSubMapperHelper.HASH_ALGORITHM_PROP_NAME, algorithm);
+        config.put(HmacPairwiseSubMapperHelper.LOCAL_SUB_IDENTIFIER_PROP_NAME, "id");
+        config.put(OIDCAttributeMapperHelper.INCLUDE_IN_ACCESS_TOKEN, Boolean.TRUE.toString());
+        return config;
+    }
+
+    private static ProtocolMapperModel mapperModel(String protocolMapper, Map<String, String> config)
+    {
+        ProtocolMapperModel mapperModel = new ProtocolMapperModel();
+        mapperModel.setProtocolMapper(protocolMapper);
+        mapperModel.setConfig(config);
+        return mapperModel;
+    }
+}
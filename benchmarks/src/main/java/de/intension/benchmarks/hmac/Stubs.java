@@ -0,0 +1,51 @@
+package de.intension.benchmarks.hmac;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+
+/**
+ * Minimal user and user session for benchmarking mappers outside of Keycloak. Plain proxies instead of mocks, so
+ * recording invocations does not show up in the measurements.
+ */
+final class Stubs
+{
+
+    private Stubs()
+    {
+    }
+
+    /**
+     * User with ID, username, email and the given attributes.
+     */
+    static UserModel user(String id, String username, String email, Map<String, String> attributes)
+    {
+        return (UserModel)Proxy.newProxyInstance(UserModel.class.getClassLoader(), new Class<?>[] {UserModel.class},
+                                                 (proxy, method, args) -> switch (method.getName()) {
+                                                     case "getId" -> id;
+                                                     case "getUsername" -> username;
+                                                     case "getEmail" -> email;
+                                                     case "getAttributeStream" -> {
+                                                         String value = "username".equals(args[0]) ? username : attributes.get(args[0]);
+                                                         yield value != null ? Stream.of(value) : Stream.empty();
+                                                     }
+                                                     case "hashCode" -> System.identityHashCode(proxy);
+                                                     case "equals" -> proxy == args[0];
+                                                     default -> throw new UnsupportedOperationException(method.getName());
+                                                 });
+    }
+
+    static UserSessionModel userSession(UserModel user)
+    {
+        return (UserSessionModel)Proxy.newProxyInstance(UserSessionModel.class.getClassLoader(), new Class<?>[] {UserSessionModel.class},
+                                                        (proxy, method, args) -> switch (method.getName()) {
+                                                            case "getUser" -> user;
+                                                            case "hashCode" -> System.identityHashCode(proxy);
+                                                            case "equals" -> proxy == args[0];
+                                                            default -> throw new UnsupportedOperationException(method.getName());
+                                                        });
+    }
+}
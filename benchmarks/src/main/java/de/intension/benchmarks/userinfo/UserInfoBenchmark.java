@@ -0,0 +1,137 @@
+package de.intension.benchmarks.userinfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.representations.IDToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intension.api.UserInfoAttribute;
+import de.intension.api.json.UserInfo;
+import de.intension.mapper.oidc.UserInfoProviderMapper;
+import de.intension.mapper.user.UserAttributeSnapshot;
+import de.intension.mapper.user.UserInfoHelper;
+
+/**
+ * Cost of reading the attributes of a user with {@link #kontexte} Personenkontexte for the userInfo claim: one
+ * {@link KeycloakModelUtils#resolveAttribute(UserModel, String, boolean)} per field, as the helper did before, against
+ * one {@link UserAttributeSnapshot}, and the whole {@link UserInfoHelper#getUserInfoFromKeycloakUser}.
+ * <p>
+ * The number of attribute and group reads on the user per operation is printed on setup, run with {@code -prof gc} for
+ * the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserInfoBenchmark
+{
+
+    @Param({"10"})
+    private int                 kontexte;
+
+    private final long[]        lookups = new long[1];
+    private UserModel           user;
+    private UserSessionModel    userSession;
+    private ProtocolMapperModel mappingModel;
+    private UserInfoHelper      helper;
+    private List<String>        fieldNames;
+
+    @Setup
+    public void setUp()
+    {
+        Map<String, List<String>> attributes = UserStubs.attributes(kontexte);
+        user = UserStubs.user("2757c7a9-bb12-44d8-adf4-32e8d1afd3a0", attributes, lookups);
+        userSession = UserStubs.userSession(user);
+        mappingModel = mappingModel();
+        helper = new UserInfoHelper();
+        // every field read for the claim, including the group chunks probed per Personenkontext
+        fieldNames = new ArrayList<>(attributes.keySet());
+        for (int i = 0; i < kontexte; i++) {
+            fieldNames.add(UserInfoHelper.getIndexedAttributeName(UserInfoAttribute.PERSON_KONTEXT_ARRAY_GRUPPEN, i) + "[0]");
+        }
+        printLookups("perFieldLookups", this::perFieldLookups);
+        printLookups("snapshotLookups", this::snapshotLookups);
+        printLookups("userInfo", this::userInfo);
+    }
+
+    @Benchmark
+    public String[] perFieldLookups()
+    {
+        // the Personenkontexte are found by scanning the attribute names
+        String[] values = new String[fieldNames.size() + 1];
+        values[0] = String.valueOf(user.getAttributes().size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            Collection<String> resolved = KeycloakModelUtils.resolveAttribute(user, fieldNames.get(i), false);
+            values[i + 1] = resolved.isEmpty() ? null : resolved.iterator().next();
+        }
+        return values;
+    }
+
+    @Benchmark
+    public String[] snapshotLookups()
+    {
+        UserAttributeSnapshot snapshot = UserAttributeSnapshot.of(user);
+        String[] values = new String[fieldNames.size() + 1];
+        values[0] = String.valueOf(snapshot.getUserAttributeNames().size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            values[i + 1] = snapshot.resolveFirst(fieldNames.get(i));
+        }
+        return values;
+    }
+
+    @Benchmark
+    public UserInfo userInfo()
+    {
+        IDToken token = new IDToken();
+        token.setSubject(user.getId());
+        return helper.getUserInfoFromKeycloakUser(null, userSession, token, mappingModel);
+    }
+
+    private void printLookups(String benchmark, Supplier<Object> operation)
+    {
+        lookups[0] = 0;
+        operation.get();
+        System.out.printf("%n%s: %d attribute and group reads on the user per operation%n", benchmark, lookups[0]);
+    }
+
+    /**
+     * Mapper config with every attribute of the claim enabled.
+     */
+    private static ProtocolMapperModel mappingModel()
+    {
+        Map<String, String> config = new HashMap<>();
+        for (ProviderConfigProperty property : new UserInfoProviderMapper().getConfigProperties()) {
+            if (property.getName().startsWith("heimatorganisation.") || property.getName().startsWith("person.")) {
+                config.put(property.getName(), "true");
+            }
+        }
+        ProtocolMapperModel mappingModel = new ProtocolMapperModel();
+        mappingModel.setName("userInfo");
+        mappingModel.setProtocolMapper(UserInfoProviderMapper.PROVIDER_ID);
+        mappingModel.setConfig(config);
+        return mappingModel;
+    }
+}
@@ -0,0 +1,98 @@
+package de.intension.benchmarks.userinfo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intension.api.UserInfoAttribute;
+import de.intension.api.json.UserInfo;
+import de.intension.mapper.oidc.UserInfoProviderMapper;
+import de.intension.mapper.user.UserInfoHelper;
+
+/**
+ * Cost of mapping the userInfo of a user with {@link #kontexte} Personenkontexte into a JSON claim: serialized to a
+ * String, which Keycloak parses into a tree again, against the JSON tree of the userInfo. With {@link #encodeToken}
+ * the token is serialized afterwards, as on every token response.
+ * <p>
+ * Run with {@code -prof gc} for the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserInfoClaimBenchmark
+{
+
+    @Param({"10"})
+    private int                 kontexte;
+
+    @Param({"false", "true"})
+    private boolean             encodeToken;
+
+    private UserInfo            userInfo;
+    private ProtocolMapperModel mappingModel;
+
+    @Setup
+    public void setUp()
+    {
+        Map<String, String> config = new HashMap<>();
+        for (UserInfoAttribute attribute : UserInfoAttribute.values()) {
+            config.put(attribute.getAttributeName(), "true");
+        }
+        config.put(OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME, UserInfoProviderMapper.USER_INFO_ATTRIBUTE_NAME);
+        config.put(OIDCAttributeMapperHelper.JSON_TYPE, "JSON");
+        config.put(OIDCAttributeMapperHelper.INCLUDE_IN_ACCESS_TOKEN, "true");
+        mappingModel = new ProtocolMapperModel();
+        mappingModel.setName("userInfo");
+        mappingModel.setProtocolMapper(UserInfoProviderMapper.PROVIDER_ID);
+        mappingModel.setConfig(config);
+
+        AccessToken token = new AccessToken();
+        token.setSubject("2757c7a9-bb12-44d8-adf4-32e8d1afd3a0");
+        userInfo = new UserInfoHelper()
+            .getUserInfoFromKeycloakUser(null, UserStubs.userSession(UserStubs.user(token.getSubject(), UserStubs.attributes(kontexte), new long[1])),
+                                         token, mappingModel);
+    }
+
+    @Benchmark
+    public Object serializedClaim()
+        throws Exception
+    {
+        AccessToken token = new AccessToken();
+        OIDCAttributeMapperHelper.mapClaim(token, mappingModel, userInfo.getJsonRepresentation());
+        return encode(token);
+    }
+
+    @Benchmark
+    public Object treeClaim()
+        throws Exception
+    {
+        AccessToken token = new AccessToken();
+        OIDCAttributeMapperHelper.mapClaim(token, mappingModel, userInfo.getJsonTree());
+        return encode(token);
+    }
+
+    private Object encode(AccessToken token)
+        throws Exception
+    {
+        return encodeToken ? JsonSerialization.writeValueAsBytes(token) : token;
+    }
+}
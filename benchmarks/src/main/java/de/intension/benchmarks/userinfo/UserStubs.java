@@ -0,0 +1,120 @@
+package de.intension.benchmarks.userinfo;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+
+import de.intension.api.UserInfoAttribute;
+import de.intension.mapper.user.UserInfoHelper;
+
+/**
+ * User with Personenkontexte, its session and realm for benchmarking the user info mapper outside of Keycloak. Plain
+ * proxies instead of mocks, so recording invocations does not show up in the measurements.
+ */
+final class UserStubs
+{
+
+    static final String IDP_ALIAS = "DE-SN-Schullogin";
+
+    private UserStubs()
+    {
+    }
+
+    /**
+     * Attributes of a user with person details and the given number of Personenkontexte.
+     */
+    static Map<String, List<String>> attributes(int kontexte)
+    {
+        Map<String, List<String>> attributes = new HashMap<>();
+        attributes.put(UserModel.IDP_ALIAS, List.of(IDP_ALIAS));
+        put(attributes, UserInfoAttribute.HEIMATORGANISATION_BUNDESLAND, "DE-BY");
+        put(attributes, UserInfoAttribute.PERSON_FAMILIENNAME, "Muster");
+        put(attributes, UserInfoAttribute.PERSON_VORNAME, "Max");
+        put(attributes, UserInfoAttribute.PERSON_AKRONYM, "mamu");
+        put(attributes, UserInfoAttribute.PERSON_GEBURTSDATUM, "2010-01-01");
+        put(attributes, UserInfoAttribute.PERSON_GESCHLECHT, "D");
+        put(attributes, UserInfoAttribute.PERSON_KONTEXT_ORG_KENNUNG, "5555");
+        put(attributes, UserInfoAttribute.PERSON_KONTEXT_ORG_NAME, "Test-Schule");
+        put(attributes, UserInfoAttribute.PERSON_KONTEXT_ROLLE, "LEHR");
+        for (int i = 0; i < kontexte; i++) {
+            attributes.put(UserInfoHelper.getIndexedAttributeName(UserInfoAttribute.PERSON_KONTEXT_ARRAY_ORG_KENNUNG, i), List.of("NI_" + i));
+            attributes.put(UserInfoHelper.getIndexedAttributeName(UserInfoAttribute.PERSON_KONTEXT_ARRAY_ORG_NAME, i), List.of("Schule " + i));
+            attributes.put(UserInfoHelper.getIndexedAttributeName(UserInfoAttribute.PERSON_KONTEXT_ARRAY_ORG_TYP, i), List.of("SCHULE"));
+            attributes.put(UserInfoHelper.getIndexedAttributeName(UserInfoAttribute.PERSON_KONTEXT_ARRAY_ROLLE, i), List.of("LERN"));
+            attributes.put(UserInfoHelper.getIndexedAttributeName(UserInfoAttribute.PERSON_KONTEXT_ARRAY_STATUS, i), List.of("AKTIV"));
+            attributes.put(UserInfoHelper.getIndexedAttributeName(UserInfoAttribute.PERSON_KONTEXT_ARRAY_LOESCHUNG, i),
+                           List.of("{\"zeitpunkt\": \"2099-12-31T23:59Z\"}"));
+        }
+        return attributes;
+    }
+
+    private static void put(Map<String, List<String>> attributes, UserInfoAttribute attribute, String value)
+    {
+        attributes.put(attribute.getAttributeName(), List.of(value));
+    }
+
+    /**
+     * User without groups which counts the reads of its attributes and groups in {@code lookups[0]}. Like the JPA
+     * user adapter {@code getAttributes()} returns a new map on every call.
+     */
+    static UserModel user(String id, Map<String, List<String>> attributes, long[] lookups)
+    {
+        return (UserModel)Proxy.newProxyInstance(UserModel.class.getClassLoader(), new Class<?>[] {UserModel.class},
+                                                 (proxy, method, args) -> switch (method.getName()) {
+                                                     case "getId" -> id;
+                                                     case "getUsername" -> "max.muster";
+                                                     case "getFirstName" -> "Max";
+                                                     case "getLastName" -> "Muster";
+                                                     case "getAttributes" -> {
+                                                         lookups[0]++;
+                                                         Map<String, List<String>> copy = new HashMap<>();
+                                                         attributes.forEach((name, values) -> copy.put(name, new ArrayList<>(values)));
+                                                         yield copy;
+                                                     }
+                                                     case "getAttributeStream" -> {
+                                                         lookups[0]++;
+                                                         yield attributes.getOrDefault((String)args[0], List.of()).stream();
+                                                     }
+                                                     case "getGroupsStream" -> {
+                                                         lookups[0]++;
+                                                         yield Stream.empty();
+                                                     }
+                                                     case "hashCode" -> System.identityHashCode(proxy);
+                                                     case "equals" -> proxy == args[0];
+                                                     default -> throw new UnsupportedOperationException(method.getName());
+                                                 });
+    }
+
+    /**
+     * Session of the user in a realm which knows the identity provider {@value #IDP_ALIAS}.
+     */
+    static UserSessionModel userSession(UserModel user)
+    {
+        IdentityProviderModel idp = new IdentityProviderModel();
+        idp.setAlias(IDP_ALIAS);
+        idp.setDisplayName("Schullogin");
+        RealmModel realm = (RealmModel)Proxy.newProxyInstance(RealmModel.class.getClassLoader(), new Class<?>[] {RealmModel.class},
+                                                              (proxy, method, args) -> switch (method.getName()) {
+                                                                  case "getIdentityProviderByAlias" -> IDP_ALIAS.equals(args[0]) ? idp : null;
+                                                                  case "hashCode" -> System.identityHashCode(proxy);
+                                                                  case "equals" -> proxy == args[0];
+                                                                  default -> throw new UnsupportedOperationException(method.getName());
+                                                              });
+        return (UserSessionModel)Proxy.newProxyInstance(UserSessionModel.class.getClassLoader(), new Class<?>[] {UserSessionModel.class},
+                                                        (proxy, method, args) -> switch (method.getName()) {
+                                                            case "getUser" -> user;
+                                                            case "getRealm" -> realm;
+                                                            case "hashCode" -> System.identityHashCode(proxy);
+                                                            case "equals" -> proxy == args[0];
+                                                            default -> throw new UnsupportedOperationException(method.getName());
+                                                        });
+    }
+}
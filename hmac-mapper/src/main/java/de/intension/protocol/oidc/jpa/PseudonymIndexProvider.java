@@ -0,0 +1,58 @@
+package de.intension.protocol.oidc.jpa;
+
+import de.intension.protocol.oidc.jpa.entity.PseudonymEntity;
+import jakarta.persistence.EntityManager;
+import lombok.AllArgsConstructor;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.provider.Provider;
+
+@AllArgsConstructor
+public class PseudonymIndexProvider implements Provider {
+    private final KeycloakSession session;
+    private final PseudonymIndexWriter writer;
+
+    @Override
+    public void close() {
+        //Nothing to do
+    }
+
+    /**
+     * @return {@code false} if the index is not enabled, then nothing is recorded
+     */
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * Record a pseudonym issued for a user. It is written later in a batch with other pseudonyms.
+     */
+    public void record(ClientModel client, String pseudonym, String userId) {
+        if (writer != null) {
+            writer.enqueue(new PseudonymEntity(client.getId(), pseudonym, userId));
+        }
+    }
+
+    /**
+     * @return ID of the user the pseudonym was issued for or {@code null} if it is not indexed
+     */
+    public String getUserId(ClientModel client, String pseudonym) {
+        return getEntityManager()
+                .createNamedQuery(PseudonymEntity.GET_USER_ID_BY_PSEUDONYM, String.class)
+                .setParameter(PseudonymEntity.PSEUDONYM, pseudonym)
+                .setParameter(PseudonymEntity.CLIENT_ID, client.getId())
+                .getResultStream().findFirst().orElse(null);
+    }
+
+    public void deletePseudonyms(String userId) {
+        getEntityManager()
+                .createNamedQuery(PseudonymEntity.REMOVE_PSEUDONYMS_BY_USER_ID)
+                .setParameter(PseudonymEntity.USER_ID, userId)
+                .executeUpdate();
+    }
+
+    private EntityManager getEntityManager() {
+        return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    }
+}
@@ -0,0 +1,60 @@
+package de.intension.protocol.oidc.jpa;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.ProviderFactory;
+
+/**
+ * Factory of the opt-in pseudonym index, enable it with {@code --spi-pseudonym-index--jpa--enabled=true}.
+ */
+public class PseudonymIndexProviderFactory implements ProviderFactory<PseudonymIndexProvider> {
+    public static final String PROVIDER_ID = "jpa";
+    public static final String ENABLED = "enabled";
+    public static final String BATCH_SIZE = "batch-size";
+    public static final String FLUSH_INTERVAL = "flush-interval";
+    public static final String QUEUE_CAPACITY = "queue-capacity";
+
+    private PseudonymIndexWriter writer;
+    private long flushInterval;
+    private KeycloakSessionFactory sessionFactory;
+
+    @Override
+    public PseudonymIndexProvider create(KeycloakSession keycloakSession) {
+        return new PseudonymIndexProvider(keycloakSession, writer);
+    }
+
+    @Override
+    public void init(Config.Scope scope) {
+        if (scope.getBoolean(ENABLED, false)) {
+            writer = new PseudonymIndexWriter(scope.getInt(BATCH_SIZE, 100), scope.getInt(QUEUE_CAPACITY, 10000));
+            flushInterval = scope.getLong(FLUSH_INTERVAL, 5000L);
+        }
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
+        if (writer != null) {
+            sessionFactory = keycloakSessionFactory;
+            writer.start(keycloakSessionFactory, flushInterval);
+            keycloakSessionFactory.register(event -> {
+                if (event instanceof UserModel.UserRemovedEvent removed) {
+                    removed.getKeycloakSession().getProvider(PseudonymIndexProvider.class).deletePseudonyms(removed.getUser().getId());
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            writer.close(sessionFactory);
+        }
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -0,0 +1,31 @@
+package de.intension.protocol.oidc.jpa;
+
+import org.keycloak.provider.Spi;
+
+/**
+ * Custom Spi so that the {@link PseudonymIndexProvider} can be found
+ * as a provider for recording issued pseudonyms and resolving them to users from the keycloak database.
+ */
+public class PseudonymIndexSpi implements Spi {
+    private static final String PSEUDONYM_INDEX = "pseudonymIndex";
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return PSEUDONYM_INDEX;
+    }
+
+    @Override
+    public Class<PseudonymIndexProvider> getProviderClass() {
+        return PseudonymIndexProvider.class;
+    }
+
+    @Override
+    public Class<PseudonymIndexProviderFactory> getProviderFactoryClass() {
+        return PseudonymIndexProviderFactory.class;
+    }
+}
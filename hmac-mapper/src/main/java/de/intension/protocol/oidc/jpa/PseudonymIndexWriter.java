@@ -0,0 +1,154 @@
+package de.intension.protocol.oidc.jpa;
+
+import de.intension.protocol.oidc.jpa.entity.PseudonymEntity;
+import jakarta.persistence.EntityManager;
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes recorded pseudonyms in batches on a background thread, so issuing a token never waits for the database.
+ * <p>
+ * Pseudonyms already written by this node are skipped. If a batch fails, e.g. because another cluster node wrote one
+ * of its pseudonyms concurrently, the batch is written again row by row, so one duplicate does not discard the other
+ * pseudonyms of the batch. If the queue is full, e.g. while the database is not available, further pseudonyms are
+ * dropped; they are recorded again with the next token of the user.
+ */
+public class PseudonymIndexWriter {
+    private static final Logger LOG = Logger.getLogger(PseudonymIndexWriter.class);
+
+    private final int batchSize;
+    private final int maxKnown;
+    private final BlockingQueue<PseudonymEntity> queue;
+    private final Map<PseudonymEntity.Key, Boolean> known = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public PseudonymIndexWriter(int batchSize, int queueCapacity) {
+        this.batchSize = batchSize;
+        this.maxKnown = queueCapacity * 10;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hmac-pseudonym-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Flush the queue every {@code flushIntervalMillis}.
+     */
+    public void start(KeycloakSessionFactory sessionFactory, long flushIntervalMillis) {
+        scheduler.scheduleWithFixedDelay(() -> flush(sessionFactory), flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return {@code false} if the pseudonym was already recorded or the queue is full
+     */
+    public boolean enqueue(PseudonymEntity pseudonym) {
+        var key = toKey(pseudonym);
+        if (known.putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        if (known.size() > maxKnown) {
+            known.clear();
+        }
+        if (!queue.offer(pseudonym)) {
+            known.remove(key);
+            LOG.debugf("Pseudonym index queue is full, dropping pseudonym of user %s", pseudonym.getUserId());
+            return false;
+        }
+        return true;
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Write all queued pseudonyms, one transaction per batch.
+     */
+    void flush(KeycloakSessionFactory sessionFactory) {
+        List<PseudonymEntity> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            try {
+                write(sessionFactory, batch);
+                LOG.debugf("Wrote %d pseudonyms to index", batch.size());
+            } catch (RuntimeException e) {
+                LOG.debugf("Writing %d pseudonyms to index failed, writing them one by one: %s", batch.size(), e.getMessage());
+                writeOneByOne(sessionFactory, batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write each pseudonym in its own transaction. Pseudonyms which could not be written and do not exist are
+     * recorded again with the next token.
+     */
+    private void writeOneByOne(KeycloakSessionFactory sessionFactory, List<PseudonymEntity> batch) {
+        int failed = 0;
+        RuntimeException lastError = null;
+        for (PseudonymEntity pseudonym : batch) {
+            try {
+                write(sessionFactory, List.of(pseudonym));
+            } catch (RuntimeException e) {
+                if (!exists(sessionFactory, pseudonym)) {
+                    known.remove(toKey(pseudonym));
+                    failed++;
+                    lastError = e;
+                }
+            }
+        }
+        if (lastError != null) {
+            LOG.warnf("Could not write %d of %d pseudonyms to index: %s", failed, batch.size(), lastError.getMessage());
+        }
+    }
+
+    private static void write(KeycloakSessionFactory sessionFactory, List<PseudonymEntity> pseudonyms) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+            for (PseudonymEntity pseudonym : pseudonyms) {
+                if (em.find(PseudonymEntity.class, toKey(pseudonym)) == null) {
+                    em.persist(pseudonym);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return whether the pseudonym was written, e.g. concurrently by another node
+     */
+    private static boolean exists(KeycloakSessionFactory sessionFactory, PseudonymEntity pseudonym) {
+        try {
+            return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> session.getProvider(JpaConnectionProvider.class)
+                    .getEntityManager().find(PseudonymEntity.class, toKey(pseudonym)) != null);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static PseudonymEntity.Key toKey(PseudonymEntity pseudonym) {
+        return new PseudonymEntity.Key(pseudonym.getPseudonym(), pseudonym.getClientId());
+    }
+
+    /**
+     * Stop the scheduler and write the remaining pseudonyms.
+     */
+    public void close(KeycloakSessionFactory sessionFactory) {
+        scheduler.shutdownNow();
+        if (sessionFactory != null) {
+            flush(sessionFactory);
+        }
+    }
+}
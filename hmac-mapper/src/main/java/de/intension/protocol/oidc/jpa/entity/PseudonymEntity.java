@@ -0,0 +1,76 @@
+package de.intension.protocol.oidc.jpa.entity;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Pseudonym issued by the 'HMAC Pairwise subject with static sectorIdentifier' mapper of a client for a user.
+ */
+@Entity
+@Table(name = "HMAC_PSEUDONYM")
+@IdClass(PseudonymEntity.Key.class)
+@NamedQueries({
+        @NamedQuery(name = PseudonymEntity.GET_USER_ID_BY_PSEUDONYM,
+                query = "SELECT p.userId FROM PseudonymEntity p WHERE p.pseudonym = :pseudonym AND p.clientId = :clientId"),
+        @NamedQuery(name = PseudonymEntity.REMOVE_PSEUDONYMS_BY_USER_ID,
+                query = "DELETE FROM PseudonymEntity p WHERE p.userId = :userId")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class PseudonymEntity {
+    public static final String GET_USER_ID_BY_PSEUDONYM = "getUserIdByPseudonym";
+    public static final String REMOVE_PSEUDONYMS_BY_USER_ID = "removePseudonymsByUserId";
+    public static final String PSEUDONYM = "pseudonym";
+    public static final String CLIENT_ID = "clientId";
+    public static final String USER_ID = "userId";
+
+    @Id
+    @Column(name = "PSEUDONYM", nullable = false)
+    private String pseudonym;
+
+    /**
+     * Internal ID of the client, not the clientId, so the entry is unique across realms and survives renaming.
+     */
+    @Id
+    @Column(name = "CLIENT_ID", nullable = false)
+    private String clientId;
+
+    @Column(name = "USER_ID", nullable = false)
+    private String userId;
+
+    @Setter(AccessLevel.NONE)
+    @Column(name = "CREATED_AT", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    public PseudonymEntity(String clientId, String pseudonym, String userId) {
+        this.clientId = clientId;
+        this.pseudonym = pseudonym;
+        this.userId = userId;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private String pseudonym;
+        private String clientId;
+    }
+}
@@ -0,0 +1,31 @@
+package de.intension.protocol.oidc.jpa.entity;
+
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+
+import java.util.List;
+
+/**
+ * Provider so that the {@link PseudonymEntity} is recognized in keycloaks entity manager.
+ */
+public class PseudonymEntityProvider implements JpaEntityProvider {
+
+    @Override
+    public List<Class<?>> getEntities() {
+        return List.of(PseudonymEntity.class);
+    }
+
+    @Override
+    public String getChangelogLocation() {
+        return "META-INF/pseudonym-changelog.xml";
+    }
+
+    @Override
+    public String getFactoryId() {
+        return PseudonymEntityProviderFactory.ID;
+    }
+
+    @Override
+    public void close() {
+        //Nothing to do
+    }
+}
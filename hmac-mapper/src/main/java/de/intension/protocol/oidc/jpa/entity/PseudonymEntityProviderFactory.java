@@ -0,0 +1,36 @@
+package de.intension.protocol.oidc.jpa.entity;
+
+import org.keycloak.Config;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+public class PseudonymEntityProviderFactory implements JpaEntityProviderFactory {
+    protected static final String ID = "hmac-pseudonym-entity";
+
+    @Override
+    public JpaEntityProvider create(KeycloakSession keycloakSession) {
+        return new PseudonymEntityProvider();
+    }
+
+    @Override
+    public void init(Config.Scope scope) {
+        //Nothing to do
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
+        // Nothing to do
+    }
+
+    @Override
+    public void close() {
+        // Nothing to do
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
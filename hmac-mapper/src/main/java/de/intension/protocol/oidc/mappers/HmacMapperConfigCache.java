@@ -0,0 +1,194 @@
+package de.intension.protocol.oidc.mappers;
+
+import de.intension.protocol.oidc.cache.LruCache;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Realm scoped cache of the {@link HmacPairwiseSubMapper} config per client and of the parsed client lists of
+ * {@link HmacPairwisePseudonymListMapper}, so a token listing many clients does not look up every client and scan
+ * its protocol mappers on each login. The HMAC mapping resource resolves the mapper of a client with it as well.
+ * <p>
+ * Only the IDs of a client and its mappers are cached, the mappers themselves are resolved by ID on every read, so
+ * updated and removed mappers take effect immediately. A client entry is invalidated when the client is created, updated,
+ * renamed or removed and after an HMAC mapper of the client was saved. A mapper added on other cluster nodes is picked
+ * up after {@link #TTL_MILLIS}.
+ */
+public final class HmacMapperConfigCache {
+
+    static final long TTL_MILLIS = 60_000;
+
+    static final int MAX_ENTRIES = 10_000;
+
+    private static final LruCache<ClientKey, Entry> MAPPERS = new LruCache<>(MAX_ENTRIES);
+    private static final LruCache<String, Set<String>> CLIENT_LISTS = new LruCache<>(MAX_ENTRIES);
+
+    private HmacMapperConfigCache() {
+    }
+
+    /**
+     * Get the config of the {@link HmacPairwiseSubMapper} of a client, empty if the client does not exist or has no
+     * such mapper.
+     */
+    static Optional<ProtocolMapperModel> getMapper(RealmModel realm, String clientId) {
+        return getMappers(realm, clientId).stream().findFirst();
+    }
+
+    /**
+     * Get all {@link HmacPairwiseSubMapper} configs of a client, empty if the client does not exist or has no such
+     * mapper.
+     */
+    public static List<ProtocolMapperModel> getMappers(RealmModel realm, String clientId) {
+        var key = new ClientKey(realm.getId(), clientId);
+        long now = System.currentTimeMillis();
+        Entry entry = MAPPERS.get(key);
+        if (entry != null && entry.expiresAt() >= now) {
+            List<ProtocolMapperModel> mappers = entry.resolve(realm, clientId);
+            if (mappers != null) {
+                return mappers;
+            }
+        }
+        ClientModel client = realm.getClientByClientId(clientId);
+        List<ProtocolMapperModel> mappers = findMappers(client);
+        MAPPERS.put(key, new Entry(client == null ? null : client.getId(), mappers.stream().map(ProtocolMapperModel::getId).toList(),
+                                   now + TTL_MILLIS));
+        return mappers;
+    }
+
+    /**
+     * Look up the {@link HmacPairwiseSubMapper} of a client without the cache.
+     */
+    static Optional<ProtocolMapperModel> loadMapper(RealmModel realm, String clientId) {
+        return findMappers(realm.getClientByClientId(clientId)).stream().findFirst();
+    }
+
+    private static List<ProtocolMapperModel> findMappers(ClientModel client) {
+        if (client == null) {
+            return List.of();
+        }
+        return client.getProtocolMappersStream()
+                .filter(HmacMapperConfigCache::isSubMapper)
+                .toList();
+    }
+
+    private static boolean isSubMapper(ProtocolMapperModel mapper) {
+        return HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID.equals(mapper.getProtocolMapper());
+    }
+
+    /**
+     * Get the client IDs of a client list config value separated by {@code ##} or {@code ,}, in configured order.
+     */
+    static Set<String> getClients(String clients) {
+        return CLIENT_LISTS.computeIfAbsent(clients, HmacMapperConfigCache::parseClients);
+    }
+
+    private static Set<String> parseClients(String clients) {
+        Set<String> clientIds = new LinkedHashSet<>();
+        for (String clientId : clients.split("#{2}|,")) {
+            clientIds.add(clientId.trim());
+        }
+        return Collections.unmodifiableSet(clientIds);
+    }
+
+    /**
+     * Invalidate the cached entries affected by a client or realm change.
+     */
+    static void onEvent(ProviderEvent event) {
+        if (event instanceof ClientModel.ClientUpdatedEvent updated) {
+            invalidate(updated.getUpdatedClient());
+        } else if (event instanceof ClientModel.ClientRemovedEvent removed) {
+            invalidate(removed.getClient());
+        } else if (event instanceof ClientModel.ClientCreationEvent created) {
+            invalidate(created.getCreatedClient());
+        } else if (event instanceof ClientModel.ClientIdChangeEvent changed) {
+            String realmId = changed.getUpdatedClient().getRealm().getId();
+            MAPPERS.remove(new ClientKey(realmId, changed.getPreviousClientId()));
+            MAPPERS.remove(new ClientKey(realmId, changed.getNewClientId()));
+        } else if (event instanceof RealmModel.RealmRemovedEvent realmRemoved) {
+            String realmId = realmRemoved.getRealm().getId();
+            MAPPERS.removeIf(key -> realmId.equals(key.realmId()));
+        }
+    }
+
+    private static void invalidate(ClientModel client) {
+        invalidate(client.getRealm(), client.getClientId());
+    }
+
+    static void invalidate(RealmModel realm, String clientId) {
+        if (realm != null) {
+            MAPPERS.remove(new ClientKey(realm.getId(), clientId));
+        }
+    }
+
+    /**
+     * Invalidate the entry of a client once the transaction of the session completed, so a concurrent token request
+     * cannot cache the config before the change is committed.
+     */
+    static void invalidateAfterCompletion(KeycloakSession session, RealmModel realm, String clientId) {
+        if (realm == null) {
+            return;
+        }
+        session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+
+            @Override
+            protected void commitImpl() {
+                invalidate(realm, clientId);
+            }
+
+            @Override
+            protected void rollbackImpl() {
+                invalidate(realm, clientId);
+            }
+        });
+    }
+
+    static void clear() {
+        MAPPERS.clear();
+        CLIENT_LISTS.clear();
+    }
+
+    private record ClientKey(String realmId, String clientId) {
+    }
+
+    /**
+     * IDs of a client and of its {@link HmacPairwiseSubMapper}s, the client ID is {@code null} if the client does not
+     * exist.
+     */
+    private record Entry(String clientUuid, List<String> mapperIds, long expiresAt) {
+
+        /**
+         * Resolve the mappers by their IDs from Keycloak's realm cache, which reflects the current config.
+         *
+         * @return the mappers, empty if none were found on load or {@code null} if the entry is stale
+         */
+        List<ProtocolMapperModel> resolve(RealmModel realm, String clientId) {
+            if (clientUuid == null) {
+                return List.of();
+            }
+            ClientModel client = realm.getClientById(clientUuid);
+            if (client == null || !clientId.equals(client.getClientId())) {
+                return null;
+            }
+            List<ProtocolMapperModel> mappers = new ArrayList<>(mapperIds.size());
+            for (String mapperId : mapperIds) {
+                ProtocolMapperModel mapper = mapperId == null ? null : client.getProtocolMapperById(mapperId);
+                if (mapper == null || !isSubMapper(mapper)) {
+                    return null;
+                }
+                mappers.add(mapper);
+            }
+            return mappers;
+        }
+    }
+}
@@ -56,15 +56,13 @@ public class HmacPairwiseEmailMapper extends HmacPairwiseSubMapper
     public IDToken transformIDToken(IDToken token, ProtocolMapperModel mappingModel, KeycloakSession session,
                                     UserSessionModel userSession, ClientSessionContext clientSessionCtx)
     {
-        if (!OIDCAttributeMapperHelper.includeInIDToken(mappingModel)) {
+        if (!OIDCAttributeMapperHelper.includeInIDToken(mappingModel) || !isOverrideAllowed(mappingModel, token.getEmail())) {
             return token;
         }
-        UserModel user = userSession.getUser();
-        String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(user, mappingModel);
-        if (!checkPrerequisites(localSub, mappingModel, token.getEmail())) {
-            return token;
+        String pairwiseSub = getPairwiseIdentifier(mappingModel, session, userSession, clientSessionCtx);
+        if (pairwiseSub != null) {
+            token.setEmail(generateEmail(mappingModel, pairwiseSub, userSession.getUser().getEmail()));
         }
-        token.setEmail(generateEmail(mappingModel, localSub, user.getEmail()));
         return token;
     }
 
@@ -72,15 +70,13 @@ public class HmacPairwiseEmailMapper extends HmacPairwiseSubMapper
     public AccessToken transformAccessToken(AccessToken token, ProtocolMapperModel mappingModel,
                                             KeycloakSession session, UserSessionModel userSession, ClientSessionContext clientSessionCtx)
     {
-        if (!OIDCAttributeMapperHelper.includeInAccessToken(mappingModel)) {
+        if (!OIDCAttributeMapperHelper.includeInAccessToken(mappingModel) || !isOverrideAllowed(mappingModel, token.getEmail())) {
             return token;
         }
-        UserModel user = userSession.getUser();
-        String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(user, mappingModel);
-        if (!checkPrerequisites(localSub, mappingModel, token.getEmail())) {
-            return token;
+        String pairwiseSub = getPairwiseIdentifier(mappingModel, session, userSession, clientSessionCtx);
+        if (pairwiseSub != null) {
+            token.setEmail(generateEmail(mappingModel, pairwiseSub, userSession.getUser().getEmail()));
         }
-        token.setEmail(generateEmail(mappingModel, localSub, user.getEmail()));
         return token;
     }
 
@@ -88,38 +84,31 @@ public class HmacPairwiseEmailMapper extends HmacPairwiseSubMapper
     public AccessToken transformUserInfoToken(AccessToken token, ProtocolMapperModel mappingModel,
                                               KeycloakSession session, UserSessionModel userSession, ClientSessionContext clientSessionCtx)
     {
-        if (!OIDCAttributeMapperHelper.includeInUserInfo(mappingModel)) {
+        if (!OIDCAttributeMapperHelper.includeInUserInfo(mappingModel)
+            || !isOverrideAllowed(mappingModel, String.valueOf(token.getOtherClaims().get("email")))) {
             return token;
         }
-        UserModel user = userSession.getUser();
-        String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(user, mappingModel);
-        if (!checkPrerequisites(localSub, mappingModel,
-                                String.valueOf(token.getOtherClaims().get("email")))) {
-            return token;
+        String pairwiseSub = getPairwiseIdentifier(mappingModel, session, userSession, clientSessionCtx);
+        if (pairwiseSub != null) {
+            token.getOtherClaims().put("email", generateEmail(mappingModel, pairwiseSub, userSession.getUser().getEmail()));
         }
-        token.getOtherClaims().put("email", generateEmail(mappingModel, localSub, user.getEmail()));
         return token;
     }
 
     /**
      * Checks whether to execute the mapper.
      */
-    private boolean checkPrerequisites(String localSub, ProtocolMapperModel mappingModel, String email)
+    private boolean isOverrideAllowed(ProtocolMapperModel mappingModel, String email)
     {
-        if (localSub == null) {
-            return false;
-        }
         boolean overrideEmail = Boolean.parseBoolean(mappingModel.getConfig().get(OVERRIDE_PROP_NAME));
         return overrideEmail || email == null;
     }
 
     /**
-     * Generate the HMAC identifier like in {@link HmacPairwiseSubMapper} but add an
-     * email domain to it.
+     * Add an email domain to the HMAC identifier of {@link HmacPairwiseSubMapper}.
      */
-    private String generateEmail(ProtocolMapperModel mappingModel, String localSub, String email)
+    private String generateEmail(ProtocolMapperModel mappingModel, String pseudoEmail, String email)
     {
-        var pseudoEmail = HmacPairwiseSubMapperHelper.generateIdentifier(mappingModel, localSub);
         var emailDomain = mappingModel.getConfig().get(EMAIL_DOMAIN_PROP_NAME);
         if (StringUtil.isBlank(emailDomain)) {
             if (!ObjectUtil.isBlank(email)) {
@@ -141,6 +130,15 @@ public class HmacPairwiseEmailMapper extends HmacPairwiseSubMapper
         return configProperties;
     }
 
+    /**
+     * Pseudonymous emails are only issued with the current salt.
+     */
+    @Override
+    protected List<ProviderConfigProperty> getSaltRotationConfigProperties()
+    {
+        return List.of();
+    }
+
     private ProviderConfigProperty createOverrideConfig()
     {
         var property = new ProviderConfigProperty();
@@ -1,8 +1,6 @@
 package de.intension.protocol.oidc.mappers;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.jboss.logging.Logger;
 import org.keycloak.models.*;
@@ -39,6 +37,11 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
     protected static final String       CLIENTS_PROP_LABEL    = "Clients";
     protected static final String ACCEPTED_MAPPER_TYPE = "client mapper";
 
+    protected static final String       PARALLEL_THRESHOLD_PROP_NAME  = "parallelThreshold";
+    protected static final String       PARALLEL_THRESHOLD_PROP_HELP  = "Minimum number of clients from which the pseudonyms are calculated in parallel. Empty or 0 calculates them sequentially";
+    protected static final String       PARALLEL_THRESHOLD_PROP_LABEL = "Parallel threshold";
+    protected static final String INVALID_PARALLEL_THRESHOLD_MSG_KEY = "invalidParallelThreshold";
+
     private static final Logger LOG = Logger.getLogger(HmacPairwisePseudonymListMapper.class);
 
     @Override
@@ -71,6 +74,7 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
         List<ProviderConfigProperty> configProperties = new LinkedList<>();
         configProperties.add(createClientListConfig());
         configProperties.add(createClaimNameConfig());
+        configProperties.add(createParallelThresholdConfig());
         OIDCAttributeMapperHelper.addIncludeInTokensConfig(configProperties, this.getClass());
         return configProperties;
     }
@@ -100,6 +104,16 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
         return property;
     }
 
+    private ProviderConfigProperty createParallelThresholdConfig()
+    {
+        var property = new ProviderConfigProperty();
+        property.setName(PARALLEL_THRESHOLD_PROP_NAME);
+        property.setLabel(PARALLEL_THRESHOLD_PROP_LABEL);
+        property.setHelpText(PARALLEL_THRESHOLD_PROP_HELP);
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        return property;
+    }
+
     @Override
     public void validateConfig(KeycloakSession session, RealmModel realm, ProtocolMapperContainerModel mapperContainer,
                                ProtocolMapperModel mapperModel)
@@ -108,6 +122,7 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
         if (mapperContainer instanceof ClientModel) {
             validateAllClientConfigsExist(session, mapperModel);
             validateClaimIsConfigured(mapperModel);
+            validateParallelThreshold(mapperModel);
         } else {
             throw new ProtocolMapperConfigException(WRONG_MAPPER_TYPE_MSG_KEY, "PseudonymlistMapper can only work on Client Mappers.", ACCEPTED_MAPPER_TYPE);
         }
@@ -137,17 +152,44 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
 
     }
 
+    private void validateParallelThreshold(ProtocolMapperModel mapperModel) throws ProtocolMapperConfigException {
+        String threshold = mapperModel.getConfig().get(PARALLEL_THRESHOLD_PROP_NAME);
+        if (threshold != null && !threshold.isBlank() && !threshold.trim().matches("\\d{1,9}")) {
+            throw new ProtocolMapperConfigException(INVALID_PARALLEL_THRESHOLD_MSG_KEY, "PseudonymListMapper config not saved. Parallel threshold must be a number", threshold);
+        }
+    }
+
+    /**
+     * @return Configured parallel threshold or {@code 0} if pseudonyms are calculated sequentially
+     */
+    private static int getParallelThreshold(ProtocolMapperModel mapperModel)
+    {
+        String threshold = mapperModel.getConfig().get(PARALLEL_THRESHOLD_PROP_NAME);
+        if (threshold == null || threshold.isBlank()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(threshold.trim());
+        } catch (NumberFormatException e) {
+            LOG.warnf("Invalid parallel threshold '%s' of PseudonymListMapper(%s), calculating sequentially", threshold, mapperModel.getName());
+            return 0;
+        }
+    }
+
     private static Set<String> getClients(ProtocolMapperModel mapperModel)
     {
-        return Stream.of(mapperModel.getConfig().get(CLIENTS_PROP_NAME).split("#{2}|,")).map(String::trim).collect(Collectors.toSet());
+        return HmacMapperConfigCache.getClients(mapperModel.getConfig().get(CLIENTS_PROP_NAME));
     }
 
     private static Optional<ProtocolMapperModel> getProtocolMapperModelForClient(KeycloakSession session, String clientId)
     {
-        return Optional.ofNullable(session.getContext().getRealm().getClientByClientId(clientId))
-            .flatMap(clientModel -> clientModel.getProtocolMappersStream()
-                .filter(mapper -> mapper.getProtocolMapper().equals(HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID))
-                .findAny());
+        return HmacMapperConfigCache.loadMapper(session.getContext().getRealm(), clientId);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory)
+    {
+        factory.register(HmacMapperConfigCache::onEvent);
     }
 
     @Override
@@ -171,8 +213,10 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
      */
     private void generatePseudonymListClaim(IDToken token, ProtocolMapperModel mappingModel, KeycloakSession session, UserModel user)
     {
+        RealmModel realm = session.getContext().getRealm();
+        List<PseudonymRequest> requests = new ArrayList<>();
         for (String client : getClients(mappingModel)) {
-            Optional<ProtocolMapperModel> protocolMapperModelForClient = getProtocolMapperModelForClient(session, client);
+            Optional<ProtocolMapperModel> protocolMapperModelForClient = HmacMapperConfigCache.getMapper(realm, client);
             if (protocolMapperModelForClient.isEmpty()) {
                 LOG.warnf("Could not find HMACPairwiseSubMapperConfig for client %s of PseudonymListMapper(%s) Skipping Client", client, mappingModel.getName());
                 continue;
@@ -180,11 +224,37 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
 
             String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(user, protocolMapperModelForClient.get());
             if (localSub == null) {
-                return;
+                break;
             }
-            addPseudonymToTokenClaim(token, mappingModel.getConfig().get(CLAIM_PROP_NAME), client, HmacPairwiseSubMapperHelper
-                    .generateIdentifier(protocolMapperModelForClient.get(), localSub));
+            requests.add(new PseudonymRequest(client, protocolMapperModelForClient.get(), localSub));
+        }
+        String claim = mappingModel.getConfig().get(CLAIM_PROP_NAME);
+        generatePseudonyms(requests, getParallelThreshold(mappingModel))
+            .forEach((clientId, pseudonym) -> addPseudonymToTokenClaim(token, claim, clientId, pseudonym));
+    }
+
+    /**
+     * Calculate the pseudonyms of the given clients, in parallel if there are at least {@code parallelThreshold} of
+     * them.
+     *
+     * @param requests          clients with their HMAC mapper config and local sub value
+     * @param parallelThreshold minimum number of clients for parallel calculation, {@code 0} for sequential
+     * @return pseudonyms per clientId in the order of the requests
+     */
+    static Map<String, String> generatePseudonyms(List<PseudonymRequest> requests, int parallelThreshold)
+    {
+        List<String> pseudonyms;
+        if (parallelThreshold > 0 && requests.size() >= parallelThreshold) {
+            pseudonyms = HmacPairwiseSubMapperHelper.generateInParallel(requests, PseudonymRequest::generate);
         }
+        else {
+            pseudonyms = requests.stream().map(PseudonymRequest::generate).toList();
+        }
+        Map<String, String> pseudonymsByClient = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            pseudonymsByClient.put(requests.get(i).clientId(), pseudonyms.get(i));
+        }
+        return pseudonymsByClient;
     }
 
     /**
@@ -230,4 +300,16 @@ public class HmacPairwisePseudonymListMapper extends AbstractOIDCProtocolMapper
         generatePseudonymListClaim(token, mappingModel, session, userSession.getUser());
         return token;
     }
+
+    /**
+     * Pseudonym to calculate for a client.
+     */
+    record PseudonymRequest(String clientId, ProtocolMapperModel mapperModel, String localSub)
+    {
+
+        String generate()
+        {
+            return HmacPairwiseSubMapperHelper.generateIdentifier(mapperModel, localSub);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package de.intension.protocol.oidc.mappers;
 
+import de.intension.protocol.oidc.jpa.PseudonymIndexProvider;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.protocol.ProtocolMapperConfigException;
@@ -15,6 +16,9 @@ import javax.crypto.Mac;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -40,6 +44,10 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
     public static final String PAIRWISE_MISSING_SECTOR_IDENTIFIER = "pairwiseMissingSectorIdentifier";
     public static final String PROTOCOL_MAPPER_ID = "oidc-hmac-pairwise-subject-mapper";
 
+    public static final String INVALID_PREVIOUS_SALT_VALID_UNTIL = "invalidPreviousSaltValidUntil";
+
+    static final String IDENTIFIER_ATTRIBUTE_PREFIX = "hmacPairwiseIdentifier.";
+
     @Override
     public IDToken transformIDToken(IDToken token, ProtocolMapperModel mappingModel, KeycloakSession session,
                                     UserSessionModel userSession,
@@ -47,11 +55,12 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         if (!OIDCAttributeMapperHelper.includeInIDToken(mappingModel)) {
             return token;
         }
-        String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(userSession.getUser(), mappingModel);
-        if (localSub == null) {
+        PairwiseIdentifiers identifiers = getPairwiseIdentifiers(mappingModel, session, userSession, clientSessionCtx);
+        if (identifiers == null) {
             return token;
         }
-        setIDTokenValue(mappingModel, token, generateIdentifier(mappingModel, localSub));
+        setIDTokenValue(mappingModel, token, identifiers.current());
+        setPreviousValue(mappingModel, token, identifiers.previous());
         return token;
     }
 
@@ -62,11 +71,12 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         if (!OIDCAttributeMapperHelper.includeInAccessToken(mappingModel)) {
             return token;
         }
-        String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(userSession.getUser(), mappingModel);
-        if (localSub == null) {
+        PairwiseIdentifiers identifiers = getPairwiseIdentifiers(mappingModel, session, userSession, clientSessionCtx);
+        if (identifiers == null) {
             return token;
         }
-        setAccessTokenValue(mappingModel, token, generateIdentifier(mappingModel, localSub));
+        setAccessTokenValue(mappingModel, token, identifiers.current());
+        setPreviousValue(mappingModel, token, identifiers.previous());
         return token;
     }
 
@@ -77,14 +87,73 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         if (!OIDCAttributeMapperHelper.includeInUserInfo(mappingModel)) {
             return token;
         }
-        String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(userSession.getUser(), mappingModel);
-        if (localSub == null) {
+        PairwiseIdentifiers identifiers = getPairwiseIdentifiers(mappingModel, session, userSession, clientSessionCtx);
+        if (identifiers == null) {
             return token;
         }
-        setUserInfoTokenValue(mappingModel, token, generateIdentifier(mappingModel, localSub));
+        setUserInfoTokenValue(mappingModel, token, identifiers.current());
+        setPreviousValue(mappingModel, token, identifiers.previous());
         return token;
     }
 
+    /**
+     * Get the pairwise identifier of the user.
+     *
+     * @return Pairwise identifier or {@code null} if the user has no value for the local sub identifier
+     * @see #getPairwiseIdentifiers(ProtocolMapperModel, KeycloakSession, UserSessionModel, ClientSessionContext)
+     */
+    protected String getPairwiseIdentifier(ProtocolMapperModel mappingModel, KeycloakSession session,
+                                           UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        PairwiseIdentifiers identifiers = getPairwiseIdentifiers(mappingModel, session, userSession, clientSessionCtx);
+        return identifiers != null ? identifiers.current() : null;
+    }
+
+    /**
+     * Get the pairwise identifiers of the user with the current salt and, during the overlap window of a salt
+     * rotation, with the previous salt. They are calculated once per mapper and client session context, so the ID
+     * and access token of a token response share one HMAC calculation per salt.
+     *
+     * @return Pairwise identifiers or {@code null} if the user has no value for the local sub identifier
+     */
+    PairwiseIdentifiers getPairwiseIdentifiers(ProtocolMapperModel mappingModel, KeycloakSession session,
+                                               UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        String attributeName = clientSessionCtx != null && mappingModel.getId() != null
+                ? IDENTIFIER_ATTRIBUTE_PREFIX + mappingModel.getId() : null;
+        if (attributeName != null) {
+            PairwiseIdentifiers identifiers = clientSessionCtx.getAttribute(attributeName, PairwiseIdentifiers.class);
+            if (identifiers != null) {
+                return identifiers;
+            }
+        }
+        String localSub = HmacPairwiseSubMapperHelper.getLocalIdentifierValue(userSession.getUser(), mappingModel);
+        if (localSub == null) {
+            return null;
+        }
+        String previous = HmacPairwiseSubMapperHelper.isPreviousSaltIssued(mappingModel, Instant.now())
+                ? generatePreviousIdentifier(mappingModel, localSub) : null;
+        var identifiers = new PairwiseIdentifiers(generateIdentifier(mappingModel, localSub), previous);
+        if (attributeName != null) {
+            clientSessionCtx.setAttribute(attributeName, identifiers);
+        }
+        indexPseudonym(mappingModel, session, userSession, clientSessionCtx, identifiers.current());
+        return identifiers;
+    }
+
+    /**
+     * Record the subject in the pseudonym index if it is enabled, so it can be resolved without candidate values.
+     * Only subjects of this mapper are indexed, not those of derived mappers.
+     */
+    private static void indexPseudonym(ProtocolMapperModel mappingModel, KeycloakSession session, UserSessionModel userSession,
+                                       ClientSessionContext clientSessionCtx, String pairwiseSub) {
+        if (session == null || clientSessionCtx == null || !PROTOCOL_MAPPER_ID.equals(mappingModel.getProtocolMapper())) {
+            return;
+        }
+        PseudonymIndexProvider index = session.getProvider(PseudonymIndexProvider.class);
+        if (index != null && index.isEnabled()) {
+            index.record(clientSessionCtx.getClientSession().getClient(), pairwiseSub, userSession.getUser().getId());
+        }
+    }
+
     /**
      * Set pairwise sub to {@link IDToken} object.
      *
@@ -120,6 +189,25 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         return HmacPairwiseSubMapperHelper.generateIdentifier(mappingModel, localSub);
     }
 
+    /**
+     * Calculate the identifier with the salt used before the last salt rotation.
+     */
+    protected String generatePreviousIdentifier(ProtocolMapperModel mappingModel, String localSub) {
+        return HmacPairwiseSubMapperHelper.generatePreviousIdentifier(mappingModel, localSub);
+    }
+
+    /**
+     * Set the pairwise identifier calculated with the previous salt to the configured claim.
+     *
+     * @param token               Token to extend
+     * @param previousPairwiseSub Previous pairwise subject identifier, nothing is set if {@code null}
+     */
+    private static void setPreviousValue(ProtocolMapperModel mapperModel, IDToken token, String previousPairwiseSub) {
+        if (previousPairwiseSub != null) {
+            token.getOtherClaims().put(HmacPairwiseSubMapperHelper.getPreviousSubClaim(mapperModel), previousPairwiseSub);
+        }
+    }
+
     /**
      * Adds salt and hash algorithm to the mapper configuration properties.
      */
@@ -132,6 +220,13 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         return configProperties;
     }
 
+    /**
+     * Config properties for rotating the salt with an overlap window.
+     */
+    protected List<ProviderConfigProperty> getSaltRotationConfigProperties() {
+        return createSaltRotationConfig();
+    }
+
     /**
      * Creates a new salt if missing and checks whether the configured hash
      * algorithm is valid.
@@ -143,6 +238,7 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
             throws ProtocolMapperConfigException {
         validateSaltConfig(mapperModel);
         validateHashAlgorithmConfig(mapperModel);
+        validateSaltRotationConfig(mapperModel);
     }
 
 
@@ -155,6 +251,19 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         }
     }
 
+    protected static void validateSaltRotationConfig(ProtocolMapperModel mapperModel) throws ProtocolMapperConfigException {
+        String validUntil = mapperModel.getConfig().get(PREVIOUS_SALT_VALID_UNTIL_PROP_NAME);
+        if (validUntil == null || validUntil.isBlank()) {
+            return;
+        }
+        try {
+            LocalDate.parse(validUntil.trim());
+        } catch (DateTimeParseException e) {
+            throw new ProtocolMapperConfigException("Previous salt valid until must be a date like 2025-12-31",
+                    INVALID_PREVIOUS_SALT_VALID_UNTIL, e);
+        }
+    }
+
     protected static void validateHashAlgorithmConfig(ProtocolMapperModel mapperModel) throws ProtocolMapperConfigException {
         // Check that hash algorithm is set
         String algorithm = getHashAlgorithm(mapperModel);
@@ -187,6 +296,7 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         sectorIdentifierConfigProperty.setHelpText(SECTOR_IDENTIFIER_PROP_HELP);
         configProperties.add(sectorIdentifierConfigProperty);
         configProperties.addAll(getAdditionalConfigProperties());
+        configProperties.addAll(getSaltRotationConfigProperties());
         OIDCAttributeMapperHelper.addIncludeInTokensConfig(configProperties, this.getClass());
         return configProperties;
     }
@@ -204,6 +314,7 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
         if (mapperContainer instanceof ClientModel) {
             client = (ClientModel) mapperContainer;
             validateSectorIdentifier(session, client, mapperModel);
+            HmacMapperConfigCache.invalidateAfterCompletion(session, realm, client.getClientId());
         }
         validateAdditionalConfig(session, realm, client, mapperModel);
     }
@@ -242,4 +353,12 @@ public class HmacPairwiseSubMapper extends AbstractOIDCProtocolMapper
                     PAIRWISE_MISSING_SECTOR_IDENTIFIER);
         }
     }
+
+    /**
+     * Pairwise identifiers of a user with the current salt and with the previous salt.
+     *
+     * @param previous {@code null} outside of the overlap window of a salt rotation
+     */
+    record PairwiseIdentifiers(String current, String previous) {
+    }
 }
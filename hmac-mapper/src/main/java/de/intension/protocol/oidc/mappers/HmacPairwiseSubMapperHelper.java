@@ -1,5 +1,6 @@
 package de.intension.protocol.oidc.mappers;
 
+import de.intension.protocol.oidc.cache.LruCache;
 import org.keycloak.models.ProtocolMapperModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.protocol.oidc.mappers.PairwiseSubMapperHelper;
@@ -11,9 +12,15 @@ import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 public class HmacPairwiseSubMapperHelper {
 
@@ -25,6 +32,29 @@ public class HmacPairwiseSubMapperHelper {
     private static final String LOCAL_SUB_IDENTIFIER_PROP_LABEL = "Local sub identifier";
     private static final String LOCAL_SUB_IDENTIFIER_PROP_HELP = "Local sub identifier is used when calculating the pairwise subject identifier. The identifier should match the attribute name of the keycloak user.";
 
+    public static final String PREVIOUS_SALT_PROP_NAME = "pairwisePreviousSubAlgorithmSalt";
+    private static final String PREVIOUS_SALT_PROP_LABEL = "Previous salt";
+    private static final String PREVIOUS_SALT_PROP_HELP = "Salt used before the last salt rotation. Pseudonyms calculated with it are still resolved by the HMAC endpoints and issued in an additional claim until the date below.";
+
+    public static final String PREVIOUS_SALT_VALID_UNTIL_PROP_NAME = "pairwisePreviousSaltValidUntil";
+    private static final String PREVIOUS_SALT_VALID_UNTIL_PROP_LABEL = "Previous salt valid until";
+    private static final String PREVIOUS_SALT_VALID_UNTIL_PROP_HELP = "Last day (yyyy-MM-dd, UTC) on which the pseudonym calculated with the previous salt is issued in addition to the subject.";
+
+    public static final String PREVIOUS_SUB_CLAIM_PROP_NAME = "pairwisePreviousSubClaimName";
+    private static final String PREVIOUS_SUB_CLAIM_PROP_LABEL = "Previous subject claim";
+    private static final String PREVIOUS_SUB_CLAIM_PROP_HELP = "Claim which holds the pseudonym calculated with the previous salt during the overlap window.";
+    static final String DEFAULT_PREVIOUS_SUB_CLAIM = "previous_sub";
+
+    static final int MAX_CACHED_MACS = 1000;
+
+    private static final LruCache<MacKey, Mac> MAC_PROTOTYPES = new LruCache<>(MAX_CACHED_MACS);
+
+    /**
+     * Bounded pool for the identifiers of a token, one thread per CPU core. Other bulk calculations (e.g. exports) must
+     * not use it, so they cannot delay token issuance.
+     */
+    private static final ForkJoinPool IDENTIFIER_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     private HmacPairwiseSubMapperHelper() {
     }
 
@@ -37,19 +67,100 @@ public class HmacPairwiseSubMapperHelper {
         if (saltStr == null) {
             throw new IllegalStateException("Salt not available on mappingModel. Please update protocol mapper");
         }
+        return generateIdentifier(mappingModel, saltStr, localSub);
+    }
+
+    /**
+     * Calculate the identifier with the salt used before the last salt rotation. The key material of each salt is
+     * cached separately, so issuing both identifiers costs two HMAC calculations but no additional key setup.
+     *
+     * @return Identifier or {@code null} if no previous salt is configured
+     */
+    public static String generatePreviousIdentifier(ProtocolMapperModel mappingModel, String localSub) {
+        String previousSalt = getPreviousSalt(mappingModel);
+        return previousSalt != null ? generateIdentifier(mappingModel, previousSalt, localSub) : null;
+    }
+
+    private static String generateIdentifier(ProtocolMapperModel mappingModel, String saltStr, String localSub) {
         String algorithm = HmacPairwiseSubMapper.getHashAlgorithm(mappingModel);
-        var secretKeySpec = new SecretKeySpec(saltStr.getBytes(StandardCharsets.UTF_8), algorithm);
+        var key = new MacKey(algorithm, saltStr, PairwiseSubMapperHelper.getSectorIdentifierUri(mappingModel));
+        Mac mac = newMac(key);
+        mac.update(localSub.getBytes(StandardCharsets.UTF_8));
+        return UUID.nameUUIDFromBytes(mac.doFinal()).toString();
+    }
+
+    /**
+     * Calculate the identifiers of a token in parallel on a pool with one thread per CPU core. The generator must
+     * not access user or client models, they are bound to the request thread.
+     *
+     * @return identifiers in the order of the values
+     */
+    static <T> List<String> generateInParallel(List<T> values, Function<T, String> generator) {
+        return IDENTIFIER_POOL.submit(() -> values.parallelStream().map(generator).toList()).join();
+    }
+
+    /**
+     * Get a {@link Mac} which is initialized with the salt and has already processed the sector identifier.
+     * It is cloned from a cached prototype, so the provider lookup, key setup and sector identifier resolution
+     * happen only once per combination of algorithm, salt and sector identifier URI.
+     */
+    private static Mac newMac(MacKey key) {
+        Mac prototype = MAC_PROTOTYPES.computeIfAbsent(key, HmacPairwiseSubMapperHelper::createMac);
+        try {
+            // the prototype itself is never updated after creation, so it can be cloned concurrently
+            return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            // provider does not support cloning, fall back to a new instance
+            return createMac(key);
+        }
+    }
+
+    private static Mac createMac(MacKey key) {
+        var secretKeySpec = new SecretKeySpec(key.salt().getBytes(StandardCharsets.UTF_8), key.algorithm());
         try {
-            var mac = Mac.getInstance(algorithm);
+            var mac = Mac.getInstance(key.algorithm());
             mac.init(secretKeySpec);
-            mac.update(getSectorIdentifier(mappingModel).getBytes(StandardCharsets.UTF_8));
-            mac.update(localSub.getBytes(StandardCharsets.UTF_8));
-            return UUID.nameUUIDFromBytes(mac.doFinal()).toString();
+            mac.update(PairwiseSubMapperUtils.resolveValidSectorIdentifier(key.sectorIdentifierUri()).getBytes(StandardCharsets.UTF_8));
+            return mac;
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new IllegalStateException("Generating sub failed", e);
         }
     }
 
+    /**
+     * Get the salt used before the last salt rotation.
+     *
+     * @return Salt or {@code null} if none is configured
+     */
+    public static String getPreviousSalt(ProtocolMapperModel mappingModel) {
+        String previousSalt = mappingModel.getConfig().get(PREVIOUS_SALT_PROP_NAME);
+        return previousSalt == null || previousSalt.isBlank() ? null : previousSalt;
+    }
+
+    /**
+     * Check whether the identifier calculated with the previous salt is still issued at the given time. That is the
+     * case until the end of the configured day in UTC.
+     */
+    static boolean isPreviousSaltIssued(ProtocolMapperModel mappingModel, Instant now) {
+        String validUntil = mappingModel.getConfig().get(PREVIOUS_SALT_VALID_UNTIL_PROP_NAME);
+        if (getPreviousSalt(mappingModel) == null || validUntil == null || validUntil.isBlank()) {
+            return false;
+        }
+        try {
+            return now.isBefore(LocalDate.parse(validUntil.trim()).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant());
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the claim for the identifier calculated with the previous salt.
+     */
+    static String getPreviousSubClaim(ProtocolMapperModel mappingModel) {
+        String claim = mappingModel.getConfig().get(PREVIOUS_SUB_CLAIM_PROP_NAME);
+        return claim == null || claim.isBlank() ? DEFAULT_PREVIOUS_SUB_CLAIM : claim;
+    }
+
     /**
      * Get valid sector identifier from URI.
      */
@@ -105,4 +216,37 @@ public class HmacPairwiseSubMapperHelper {
         property.setDefaultValue("username");
         return property;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates the mapper's configuration properties for rotating the salt.
+     *
+     * @return Config property items
+     */
+    static List<ProviderConfigProperty> createSaltRotationConfig() {
+        var previousSalt = new ProviderConfigProperty();
+        previousSalt.setName(PREVIOUS_SALT_PROP_NAME);
+        previousSalt.setType(ProviderConfigProperty.STRING_TYPE);
+        previousSalt.setLabel(PREVIOUS_SALT_PROP_LABEL);
+        previousSalt.setHelpText(PREVIOUS_SALT_PROP_HELP);
+
+        var validUntil = new ProviderConfigProperty();
+        validUntil.setName(PREVIOUS_SALT_VALID_UNTIL_PROP_NAME);
+        validUntil.setType(ProviderConfigProperty.STRING_TYPE);
+        validUntil.setLabel(PREVIOUS_SALT_VALID_UNTIL_PROP_LABEL);
+        validUntil.setHelpText(PREVIOUS_SALT_VALID_UNTIL_PROP_HELP);
+
+        var claim = new ProviderConfigProperty();
+        claim.setName(PREVIOUS_SUB_CLAIM_PROP_NAME);
+        claim.setType(ProviderConfigProperty.STRING_TYPE);
+        claim.setLabel(PREVIOUS_SUB_CLAIM_PROP_LABEL);
+        claim.setHelpText(PREVIOUS_SUB_CLAIM_PROP_HELP);
+        claim.setDefaultValue(DEFAULT_PREVIOUS_SUB_CLAIM);
+        return List.of(previousSalt, validUntil, claim);
+    }
+
+    /**
+     * Everything a {@link Mac} prototype depends on.
+     */
+    private record MacKey(String algorithm, String salt, String sectorIdentifierUri) {
+    }
+}
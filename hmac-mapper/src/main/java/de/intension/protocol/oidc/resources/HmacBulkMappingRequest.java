@@ -0,0 +1,14 @@
+package de.intension.protocol.oidc.resources;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class HmacBulkMappingRequest {
+    private String clientId;
+    private List<String> originalValues;
+    private List<String> testValues;
+}
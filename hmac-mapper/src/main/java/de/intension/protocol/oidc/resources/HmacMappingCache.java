@@ -0,0 +1,56 @@
+package de.intension.protocol.oidc.resources;
+
+import de.intension.protocol.oidc.cache.LruCache;
+
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache of the realm IDs used by {@link HmacMappingResource}, so batch jobs calling the endpoints many
+ * times a minute do not look up the realms by name on every request. The realms are still loaded by ID in the session
+ * of the request. Authentication and authorization are never cached, the HMAC mappers are cached by
+ * {@link de.intension.protocol.oidc.mappers.HmacMapperConfigCache}.
+ * <p>
+ * Changes of a realm name are picked up after the TTL.
+ */
+class HmacMappingCache
+{
+
+    static final int                      MAX_ENTRIES = 10_000;
+
+    private final long                    ttlMillis;
+    private final LruCache<String, Entry> realmIds    = new LruCache<>(MAX_ENTRIES);
+
+    /**
+     * @param ttlMillis time to live of an entry, {@code 0} disables the cache
+     */
+    HmacMappingCache(long ttlMillis)
+    {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Get the ID of a realm by its name.
+     *
+     * @param loader loads the ID, {@code null} results are not cached
+     */
+    String getRealmId(String realmName, Supplier<String> loader)
+    {
+        if (ttlMillis <= 0) {
+            return loader.get();
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = realmIds.get(realmName);
+        if (entry != null && entry.expiresAt() >= now) {
+            return entry.realmId();
+        }
+        String realmId = loader.get();
+        if (realmId != null) {
+            realmIds.put(realmName, new Entry(realmId, now + ttlMillis));
+        }
+        return realmId;
+    }
+
+    private record Entry(String realmId, long expiresAt)
+    {
+    }
+}
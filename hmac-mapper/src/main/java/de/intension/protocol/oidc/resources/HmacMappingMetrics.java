@@ -0,0 +1,58 @@
+package de.intension.protocol.oidc.resources;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Time spent per request of {@link HmacMappingResource}, tagged with the endpoint.
+ * <ul>
+ * <li>{@value #AUTH_METRIC}: authentication, authorization and resolution of the client's HMAC mapper.</li>
+ * <li>{@value #HASHING_METRIC}: calculation and matching of the pseudonyms, not recorded for the streamed export.</li>
+ * </ul>
+ */
+class HmacMappingMetrics
+{
+
+    static final String AUTH_METRIC    = "fwu.hmac.mapping.auth";
+    static final String HASHING_METRIC = "fwu.hmac.mapping.hashing";
+
+    private final MeterRegistry registry;
+
+    /**
+     * Register the metrics with the global (Keycloak) meter registry.
+     */
+    HmacMappingMetrics()
+    {
+        this(Metrics.globalRegistry);
+    }
+
+    HmacMappingMetrics(MeterRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    /**
+     * Start timing a phase of a request.
+     */
+    Timer.Sample start()
+    {
+        return Timer.start(registry);
+    }
+
+    void authenticated(Timer.Sample sample, String endpoint)
+    {
+        sample.stop(Timer.builder(AUTH_METRIC)
+            .description("Time to authenticate and authorize a request and resolve the HMAC mapper")
+            .tag("endpoint", endpoint)
+            .register(registry));
+    }
+
+    void hashed(Timer.Sample sample, String endpoint)
+    {
+        sample.stop(Timer.builder(HASHING_METRIC)
+            .description("Time to calculate and match the pseudonyms of a request")
+            .tag("endpoint", endpoint)
+            .register(registry));
+    }
+}
@@ -1,19 +1,34 @@
 package de.intension.protocol.oidc.resources;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.intension.protocol.oidc.jpa.PseudonymIndexProvider;
+import de.intension.protocol.oidc.mappers.HmacMapperConfigCache;
 import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapper;
 import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapperHelper;
+import io.micrometer.core.instrument.Timer;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.jboss.logging.Logger;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.ProtocolMapperModel;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
 import org.keycloak.services.managers.AppAuthManager;
 import org.keycloak.services.resources.admin.AdminEventBuilder;
 import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
 import org.keycloak.services.resources.admin.fgap.AdminPermissionEvaluator;
+import org.keycloak.util.JsonSerialization;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 public class HmacMappingResource
     implements AdminRealmResourceProvider
@@ -24,15 +39,31 @@ public class HmacMappingResource
     private final String                verifierRealm;
     private final String                managementRealm;
 
-    private static final String   ATTRIBUTE_NAME = "hmac-clientId";
+    private static final String   ATTRIBUTE_NAME           = "hmac-clientId";
+
+    /**
+     * Upper bound of original values per bulk request, each of them is hashed once or twice.
+     */
+    static final int              MAX_BULK_ORIGINAL_VALUES = 10_000;
+
+    private final Logger          logger                   = Logger.getLogger(this.getClass());
 
-    private final Logger          logger         = Logger.getLogger(this.getClass());
+    private final HmacMappingCache   cache;
+    private final HmacMappingMetrics metrics;
 
     public HmacMappingResource(KeycloakSession session, String verifierRealm, String managementRealm)
+    {
+        this(session, verifierRealm, managementRealm, new HmacMappingCache(0), new HmacMappingMetrics());
+    }
+
+    HmacMappingResource(KeycloakSession session, String verifierRealm, String managementRealm, HmacMappingCache cache,
+                        HmacMappingMetrics metrics)
     {
         this.session = session;
         this.verifierRealm = verifierRealm;
         this.managementRealm = managementRealm;
+        this.cache = cache;
+        this.metrics = metrics;
     }
 
     @Override
@@ -52,19 +83,148 @@ public class HmacMappingResource
     @Produces(MediaType.TEXT_PLAIN)
     public Response getUserId(final HmacMappingRequest request)
     {
+        Timer.Sample auth = metrics.start();
         var client = checkAccess(request.getClientId());
-
         var hmacMapper = getHmacMapper(client);
+        metrics.authenticated(auth, "lookup");
 
-        String testValue = request.getTestValue();
-        for (String value : request.getOriginalValues()) {
+        Timer.Sample hashing = metrics.start();
+        String originalValue = findOriginalValue(hmacMapper, request.getOriginalValues(), request.getTestValue());
+        metrics.hashed(hashing, "lookup");
+        if (originalValue == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(originalValue).build();
+    }
+
+    private String findOriginalValue(ProtocolMapperModel hmacMapper, List<String> originalValues, String testValue)
+    {
+        for (String value : originalValues) {
             var encryptedId = HmacPairwiseSubMapperHelper.generateIdentifier(hmacMapper, value);
             logger.debugf("Encrypted value for original value '%s' is '%s'", testValue, encryptedId);
             if (encryptedId.equals(testValue)) {
-                return Response.ok(value).build();
+                return value;
+            }
+        }
+        // pseudonyms issued before the last salt rotation
+        if (HmacPairwiseSubMapperHelper.getPreviousSalt(hmacMapper) != null) {
+            for (String value : originalValues) {
+                if (testValue.equals(HmacPairwiseSubMapperHelper.generatePreviousIdentifier(hmacMapper, value))) {
+                    logger.debugf("Test value '%s' matches previous salt", testValue);
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolve a pseudonym with the pseudonym index, which must be enabled.
+     *
+     * @return ID of the user the pseudonym was issued for
+     */
+    @GET
+    @Path("index/{clientId}/{pseudonym}")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getIndexedUserId(@PathParam("clientId") String clientId, @PathParam("pseudonym") String pseudonym)
+    {
+        Timer.Sample auth = metrics.start();
+        var client = checkAccess(clientId);
+        metrics.authenticated(auth, "index");
+
+        var index = session.getProvider(PseudonymIndexProvider.class);
+        if (index == null || !index.isEnabled()) {
+            logger.warn("Request to disabled pseudonym index");
+            throw new BadRequestException("Pseudonym index is not enabled");
+        }
+        String userId = index.getUserId(client, pseudonym);
+        if (userId == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(userId).build();
+    }
+
+    /**
+     * Resolve many pseudonyms of one client at once. The pseudonym of each original value is calculated once per salt,
+     * then all test values are looked up in a single pass. At most {@link #MAX_BULK_ORIGINAL_VALUES} original values
+     * are accepted, the request is validated after the caller was authorized.
+     *
+     * @return JSON object streamed with each test value mapped to its original value or {@code null} if not found
+     */
+    @POST
+    @Path("bulk")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getUserIds(final HmacBulkMappingRequest request)
+    {
+        Timer.Sample auth = metrics.start();
+        var user = authenticate();
+        if (request == null) {
+            throw new BadRequestException("Request body is missing");
+        }
+        var client = checkAccess(user, request.getClientId());
+        if (request.getOriginalValues() != null && request.getOriginalValues().size() > MAX_BULK_ORIGINAL_VALUES) {
+            logger.warnf("Bulk request for client '%s' with %d original values rejected", client.getClientId(), request.getOriginalValues().size());
+            throw new BadRequestException("At most " + MAX_BULK_ORIGINAL_VALUES + " original values are allowed per request");
+        }
+        var hmacMapper = getHmacMapper(client);
+        metrics.authenticated(auth, "bulk");
+
+        Timer.Sample hashing = metrics.start();
+        List<String> originalValues = Optional.ofNullable(request.getOriginalValues()).orElse(List.of());
+        Map<String, String> originalsByPseudonym = HashMap.newHashMap(originalValues.size());
+        for (String value : originalValues) {
+            originalsByPseudonym.putIfAbsent(HmacPairwiseSubMapperHelper.generateIdentifier(hmacMapper, value), value);
+        }
+        // pseudonyms issued before the last salt rotation, current pseudonyms take precedence
+        if (HmacPairwiseSubMapperHelper.getPreviousSalt(hmacMapper) != null) {
+            for (String value : originalValues) {
+                originalsByPseudonym.putIfAbsent(HmacPairwiseSubMapperHelper.generatePreviousIdentifier(hmacMapper, value), value);
             }
         }
-        return Response.status(Response.Status.NOT_FOUND).build();
+        Set<String> testValues = new LinkedHashSet<>(Optional.ofNullable(request.getTestValues()).orElse(List.of()));
+        metrics.hashed(hashing, "bulk");
+        logger.debugf("Resolving %d test values against %d original values for client '%s'", testValues.size(), originalValues.size(),
+                      client.getClientId());
+        StreamingOutput output = out -> {
+            try (JsonGenerator generator = JsonSerialization.mapper.getFactory().createGenerator(out)) {
+                generator.writeStartObject();
+                for (String testValue : testValues) {
+                    generator.writeStringField(testValue, originalsByPseudonym.get(testValue));
+                }
+                generator.writeEndObject();
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    /**
+     * Export the pseudonyms of all users of the verifier realm for the HMAC mapper of the client, e.g. when a new
+     * service provider is connected.
+     *
+     * @param format {@code csv} (default) or {@code ndjson}
+     * @return Streamed rows of user ID and pseudonym
+     */
+    @GET
+    @Path("export/{clientId}")
+    @Produces({"text/csv", "application/x-ndjson"})
+    public Response exportPseudonyms(@PathParam("clientId") String clientId, @QueryParam("format") @DefaultValue("csv") String format)
+    {
+        Timer.Sample auth = metrics.start();
+        var client = checkAccess(clientId);
+        var hmacMapper = getHmacMapper(client);
+        metrics.authenticated(auth, "export");
+
+        PseudonymExport.Format exportFormat;
+        try {
+            exportFormat = PseudonymExport.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unsupported export format '" + format + "'");
+        }
+        logger.infof("Exporting pseudonyms of client '%s' as %s", client.getClientId(), exportFormat);
+        var export = new PseudonymExport(session.getKeycloakSessionFactory(), client.getRealm().getId(), hmacMapper, exportFormat,
+                                         PseudonymExport.PAGE_SIZE);
+        return Response.ok(export, exportFormat.mediaType).build();
     }
 
     /**
@@ -75,14 +235,12 @@ public class HmacMappingResource
      */
     private ClientModel checkAccess(String clientId)
     {
-        RealmModel managementRealm = this.session.realms().getRealmByName(this.managementRealm);
-        var authenticate = new AppAuthManager.BearerTokenAuthenticator(session).setRealm(managementRealm).authenticate();
-        if (authenticate == null) {
-            logger.warn("Unauthorized request to resource");
-            throw new ClientErrorException(Response.Status.UNAUTHORIZED);
-        }
-        var user = authenticate.getSession().getUser();
-        var realm = session.realms().getRealmByName(this.verifierRealm);
+        return checkAccess(authenticate(), clientId);
+    }
+
+    private ClientModel checkAccess(UserModel user, String clientId)
+    {
+        var realm = getRealm(this.verifierRealm);
         var client = realm.getClientByClientId(clientId);
         if (client == null) {
             logger.warnf("Request from user '%s' for unknown client '%s'", user.getUsername(), clientId);
@@ -97,11 +255,37 @@ public class HmacMappingResource
     }
 
     /**
-     * Get the mapper with id "oidc-hmac-pairwise-subject-mapper" from the client's configuration.
+     * Authenticate the bearer token of the request in the management realm.
+     *
+     * @return User the token was issued for
+     */
+    private UserModel authenticate()
+    {
+        RealmModel managementRealm = getRealm(this.managementRealm);
+        var authenticate = new AppAuthManager.BearerTokenAuthenticator(session).setRealm(managementRealm).authenticate();
+        if (authenticate == null) {
+            logger.warn("Unauthorized request to resource");
+            throw new ClientErrorException(Response.Status.UNAUTHORIZED);
+        }
+        return authenticate.getSession().getUser();
+    }
+
+    /**
+     * Get a realm by name, its ID is cached.
+     */
+    private RealmModel getRealm(String name)
+    {
+        String realmId = cache.getRealmId(name, () -> Optional.ofNullable(session.realms().getRealmByName(name)).map(RealmModel::getId).orElse(null));
+        return realmId != null ? session.realms().getRealm(realmId) : null;
+    }
+
+    /**
+     * Get the mapper with id "oidc-hmac-pairwise-subject-mapper" from the client's configuration. The mapper is
+     * resolved with the {@link HmacMapperConfigCache}, so a changed or removed mapper takes effect immediately.
      */
     private ProtocolMapperModel getHmacMapper(ClientModel client)
     {
-        var mappers = client.getProtocolMappersStream().filter(m -> HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID.equals(m.getProtocolMapper())).toList();
+        var mappers = HmacMapperConfigCache.getMappers(client.getRealm(), client.getClientId());
         if (mappers.size() != 1) {
             String error = mappers.isEmpty() ? "Client does not have protocol mapper '" + HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID + "' configured"
                     : "Client has more than one protocol mapper '" + HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID + "' configured";
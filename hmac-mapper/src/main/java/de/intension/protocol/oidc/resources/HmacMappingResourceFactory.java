@@ -15,18 +15,24 @@ public class HmacMappingResourceFactory
     public static final String PROVIDER_ID = "hmac";
     public static final String VERIFIER_REALM = "verifier-realm";
     public static final String MANAGEMENT_REALM = "management-realm";
+    public static final String CACHE_TTL_MILLIS = "cache-ttl-millis";
+    private static final long DEFAULT_CACHE_TTL_MILLIS = 10_000;
     private String verifierRealm;
     private String managementRealm;
+    private HmacMappingCache cache;
+    private HmacMappingMetrics metrics;
 
     @Override
     public AdminRealmResourceProvider create(KeycloakSession session) {
-        return new HmacMappingResource(session, this.verifierRealm, this.managementRealm);
+        return new HmacMappingResource(session, this.verifierRealm, this.managementRealm, this.cache, this.metrics);
     }
 
     @Override
     public void init(Scope config) {
         this.verifierRealm = config.get(VERIFIER_REALM);
         this.managementRealm = config.get(MANAGEMENT_REALM);
+        this.cache = new HmacMappingCache(config.getLong(CACHE_TTL_MILLIS, DEFAULT_CACHE_TTL_MILLIS));
+        this.metrics = new HmacMappingMetrics();
     }
 
     @Override
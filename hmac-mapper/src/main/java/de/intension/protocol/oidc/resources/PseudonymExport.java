@@ -0,0 +1,175 @@
+package de.intension.protocol.oidc.resources;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapperHelper;
+import jakarta.persistence.EntityManager;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Export of the pseudonyms of all users of a realm for the HMAC mapper of a client.
+ * <p>
+ * Users are read page by page with a keyset query on their ID, each page in its own short transaction, and the
+ * pseudonyms of a page are calculated in parallel on a pool of the exports. Only one page is held in memory, whatever
+ * the size of the realm.
+ * Users which are not stored in the Keycloak database (e.g. not imported from a user federation) are not exported.
+ */
+class PseudonymExport
+    implements StreamingOutput
+{
+
+    enum Format
+    {
+        CSV("text/csv"), NDJSON("application/x-ndjson");
+
+        final String mediaType;
+
+        Format(String mediaType)
+        {
+            this.mediaType = mediaType;
+        }
+    }
+
+    static final int                         PAGE_SIZE    = 1000;
+
+    /**
+     * Pool shared by all exports, separate from the pool of token issuance and limited to half of the CPU cores, so a
+     * running export does not delay logins.
+     */
+    private static final ForkJoinPool        EXPORT_POOL  = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    /** User properties which are columns of the user table, every other local sub identifier is a user attribute. */
+    private static final Map<String, String> USER_COLUMNS = Map.of("id", "u.id", "username", "u.username", "email", "u.email",
+                                                                   "firstName", "u.firstName", "lastName", "u.lastName");
+
+    private final KeycloakSessionFactory     sessionFactory;
+    private final String                     realmId;
+    private final ProtocolMapperModel        hmacMapper;
+    private final Format                     format;
+    private final int                        pageSize;
+
+    PseudonymExport(KeycloakSessionFactory sessionFactory, String realmId, ProtocolMapperModel hmacMapper, Format format, int pageSize)
+    {
+        this.sessionFactory = sessionFactory;
+        this.realmId = realmId;
+        this.hmacMapper = hmacMapper;
+        this.format = format;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void write(OutputStream output)
+        throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (format == Format.CSV) {
+            writer.write("userId,pseudonym\n");
+        }
+        String localSubIdentifier = hmacMapper.getConfig().get(HmacPairwiseSubMapperHelper.LOCAL_SUB_IDENTIFIER_PROP_NAME);
+        Page page = new Page(List.of(), "", false);
+        while (!page.last()) {
+            String afterUserId = page.lastUserId();
+            page = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> loadPage(
+                session.getProvider(JpaConnectionProvider.class).getEntityManager(), localSubIdentifier, afterUserId));
+            List<String[]> users = page.users();
+            List<String> pseudonyms = EXPORT_POOL.submit(() -> users.parallelStream()
+                .map(user -> HmacPairwiseSubMapperHelper.generateIdentifier(hmacMapper, user[1]))
+                .toList()).join();
+            for (int i = 0; i < users.size(); i++) {
+                writeRow(writer, users.get(i)[0], pseudonyms.get(i));
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * Users of a page as pairs of user ID and local sub value.
+     *
+     * @param lastUserId key to continue with on the next page
+     * @param last       whether there are no further pages
+     */
+    record Page(List<String[]> users, String lastUserId, boolean last)
+    {
+    }
+
+    /**
+     * Load the next page of users with their local sub value, ordered by user ID. Users without local sub value are
+     * left out.
+     */
+    Page loadPage(EntityManager em, String localSubIdentifier, String afterUserId)
+    {
+        List<Object[]> rows;
+        String column = USER_COLUMNS.get(localSubIdentifier);
+        if (column != null) {
+            rows = em.createQuery("SELECT u.id, " + column + " FROM UserEntity u"
+                                      + " WHERE u.realmId = :realmId AND u.serviceAccountClientLink IS NULL AND u.id > :afterUserId"
+                                      + " ORDER BY u.id", Object[].class)
+                .setParameter("realmId", realmId)
+                .setParameter("afterUserId", afterUserId)
+                .setMaxResults(pageSize)
+                .getResultList();
+        }
+        else {
+            rows = em.createQuery("SELECT u.id, a.value, a.longValue FROM UserAttributeEntity a JOIN a.user u"
+                                      + " WHERE u.realmId = :realmId AND u.serviceAccountClientLink IS NULL AND a.name = :name AND u.id > :afterUserId"
+                                      + " ORDER BY u.id", Object[].class)
+                .setParameter("realmId", realmId)
+                .setParameter("name", localSubIdentifier)
+                .setParameter("afterUserId", afterUserId)
+                .setMaxResults(pageSize)
+                .getResultList();
+        }
+        List<String[]> users = new ArrayList<>(rows.size());
+        String lastUserId = afterUserId;
+        for (Object[] row : rows) {
+            String userId = (String)row[0];
+            String localSub = row[1] != null ? (String)row[1] : row.length > 2 ? (String)row[2] : null;
+            // multivalued attributes: the first value is used like in the mapper
+            if (localSub != null && !userId.equals(lastUserId)) {
+                users.add(new String[] {userId, localSub});
+            }
+            lastUserId = userId;
+        }
+        return new Page(users, lastUserId, rows.size() < pageSize);
+    }
+
+    private void writeRow(Writer writer, String userId, String pseudonym)
+        throws IOException
+    {
+        if (format == Format.CSV) {
+            writer.write(csvValue(userId));
+            writer.write(',');
+            writer.write(pseudonym);
+        }
+        else {
+            writer.write("{\"userId\":\"");
+            writer.write(JsonStringEncoder.getInstance().quoteAsString(userId));
+            writer.write("\",\"pseudonym\":\"");
+            writer.write(pseudonym);
+            writer.write("\"}");
+        }
+        writer.write('\n');
+    }
+
+    private static String csvValue(String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
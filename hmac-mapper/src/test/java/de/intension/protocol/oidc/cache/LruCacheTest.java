@@ -0,0 +1,77 @@
+package de.intension.protocol.oidc.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class LruCacheTest
+{
+
+    /**
+     * GIVEN: a full cache whose oldest entry was used recently
+     * WHEN: another entry is added
+     * THEN: only the least recently used entry is evicted
+     */
+    @Test
+    void should_evict_least_recently_used_entry()
+    {
+        LruCache<String, String> cache = new LruCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * GIVEN: an empty cache
+     * WHEN: a key is requested repeatedly and another key cannot be loaded
+     * THEN: the value is loaded once and the missing value is not cached
+     */
+    @Test
+    void should_load_once_and_not_cache_null()
+    {
+        LruCache<String, String> cache = new LruCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("value", cache.computeIfAbsent("key", key -> {
+                loads.incrementAndGet();
+                return "value";
+            }));
+            assertNull(cache.computeIfAbsent("missing", key -> null));
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * GIVEN: cached entries
+     * WHEN: entries are removed by key and by filter
+     * THEN: only the matching entries are removed
+     */
+    @Test
+    void should_remove_matching_entries()
+    {
+        LruCache<String, String> cache = new LruCache<>(10);
+        cache.put("realm-1/a", "1");
+        cache.put("realm-1/b", "2");
+        cache.put("realm-2/a", "3");
+
+        cache.remove("realm-1/a");
+        cache.removeIf(key -> key.startsWith("realm-2/"));
+
+        assertNull(cache.get("realm-1/a"));
+        assertEquals("2", cache.get("realm-1/b"));
+        assertNull(cache.get("realm-2/a"));
+    }
+}
@@ -0,0 +1,78 @@
+package de.intension.protocol.oidc.jpa;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.ProviderEventListener;
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PseudonymIndexProviderFactoryTest
+{
+
+    /**
+     * GIVEN: an enabled pseudonym index
+     * WHEN: a user is removed
+     * THEN: the pseudonyms of the user are deleted from the index
+     */
+    @Test
+    void should_delete_pseudonyms_of_removed_user()
+    {
+        PseudonymIndexProviderFactory factory = new PseudonymIndexProviderFactory();
+        KeycloakSessionFactory sessionFactory = mock(KeycloakSessionFactory.class);
+        factory.init(scope(true));
+        factory.postInit(sessionFactory);
+        ArgumentCaptor<ProviderEventListener> listener = ArgumentCaptor.forClass(ProviderEventListener.class);
+        verify(sessionFactory).register(listener.capture());
+
+        PseudonymIndexProvider index = mock(PseudonymIndexProvider.class);
+        KeycloakSession session = mock(KeycloakSession.class);
+        when(session.getProvider(PseudonymIndexProvider.class)).thenReturn(index);
+        UserModel user = mock(UserModel.class);
+        when(user.getId()).thenReturn("user-id");
+        UserModel.UserRemovedEvent event = mock(UserModel.UserRemovedEvent.class);
+        when(event.getKeycloakSession()).thenReturn(session);
+        when(event.getUser()).thenReturn(user);
+        listener.getValue().onEvent(event);
+        factory.close();
+
+        verify(index).deletePseudonyms("user-id");
+    }
+
+    /**
+     * GIVEN: a disabled pseudonym index
+     * WHEN: the factory is initialized
+     * THEN: no listener for removed users is registered
+     */
+    @Test
+    void should_not_register_listener_when_disabled()
+    {
+        PseudonymIndexProviderFactory factory = new PseudonymIndexProviderFactory();
+        KeycloakSessionFactory sessionFactory = mock(KeycloakSessionFactory.class);
+
+        factory.init(scope(false));
+        factory.postInit(sessionFactory);
+
+        verify(sessionFactory, never()).register(any());
+    }
+
+    private static Config.Scope scope(boolean enabled)
+    {
+        Config.Scope scope = mock(Config.Scope.class);
+        when(scope.getBoolean(eq(PseudonymIndexProviderFactory.ENABLED), any())).thenReturn(enabled);
+        when(scope.getInt(eq(PseudonymIndexProviderFactory.BATCH_SIZE), anyInt())).thenReturn(100);
+        when(scope.getInt(eq(PseudonymIndexProviderFactory.QUEUE_CAPACITY), anyInt())).thenReturn(10);
+        when(scope.getLong(eq(PseudonymIndexProviderFactory.FLUSH_INTERVAL), anyLong())).thenReturn(60_000L);
+        return scope;
+    }
+}
@@ -0,0 +1,143 @@
+package de.intension.protocol.oidc.jpa;
+
+import de.intension.protocol.oidc.jpa.entity.PseudonymEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakSessionTask;
+import org.keycloak.models.KeycloakSessionTaskWithResult;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.mockito.MockedStatic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PseudonymIndexWriterTest
+{
+
+    private final KeycloakSessionFactory      sessionFactory = mock(KeycloakSessionFactory.class);
+    private final EntityManager               em             = mock(EntityManager.class);
+    private MockedStatic<KeycloakModelUtils> modelUtils;
+
+    @BeforeEach
+    void setUp()
+    {
+        JpaConnectionProvider jpa = mock(JpaConnectionProvider.class);
+        when(jpa.getEntityManager()).thenReturn(em);
+        KeycloakSession session = mock(KeycloakSession.class);
+        when(session.getProvider(JpaConnectionProvider.class)).thenReturn(jpa);
+        // every job runs in the mocked session, an exception rolls back the transaction of the job
+        modelUtils = mockStatic(KeycloakModelUtils.class);
+        modelUtils.when(() -> KeycloakModelUtils.runJobInTransaction(any(KeycloakSessionFactory.class), any(KeycloakSessionTask.class)))
+            .thenAnswer(invocation -> {
+                invocation.<KeycloakSessionTask>getArgument(1).run(session);
+                return null;
+            });
+        modelUtils.when(() -> KeycloakModelUtils.runJobInTransactionWithResult(any(KeycloakSessionFactory.class), any(KeycloakSessionTaskWithResult.class)))
+            .thenAnswer(invocation -> invocation.<KeycloakSessionTaskWithResult<?>>getArgument(1).run(session));
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        modelUtils.close();
+    }
+
+    /**
+     * GIVEN: a pseudonym recorded for every token of a user
+     * WHEN: the same pseudonym is recorded again
+     * THEN: it is queued only once
+     */
+    @Test
+    void should_queue_pseudonym_only_once()
+    {
+        PseudonymIndexWriter writer = new PseudonymIndexWriter(10, 10);
+
+        assertTrue(writer.enqueue(new PseudonymEntity("client", "pseudonym", "user")));
+        assertFalse(writer.enqueue(new PseudonymEntity("client", "pseudonym", "user")));
+        assertTrue(writer.enqueue(new PseudonymEntity("other-client", "pseudonym", "user")));
+
+        assertEquals(2, writer.getQueueSize());
+    }
+
+    /**
+     * GIVEN: a full queue
+     * WHEN: another pseudonym is recorded
+     * THEN: it is dropped and can be recorded again once there is space
+     */
+    @Test
+    void should_drop_pseudonym_when_queue_is_full()
+    {
+        PseudonymIndexWriter writer = new PseudonymIndexWriter(10, 1);
+        writer.enqueue(new PseudonymEntity("client", "first", "user"));
+
+        assertFalse(writer.enqueue(new PseudonymEntity("client", "second", "user")));
+        assertFalse(writer.enqueue(new PseudonymEntity("client", "second", "user")));
+        assertEquals(1, writer.getQueueSize());
+    }
+
+    /**
+     * GIVEN: a queued pseudonym which is not yet in the index and one which is
+     * WHEN: the queue is flushed
+     * THEN: only the new pseudonym is persisted and the queue is empty
+     */
+    @Test
+    void should_persist_new_and_skip_existing_pseudonyms()
+    {
+        PseudonymIndexWriter writer = new PseudonymIndexWriter(10, 10);
+        PseudonymEntity created = new PseudonymEntity("client", "new", "user");
+        PseudonymEntity existing = new PseudonymEntity("client", "existing", "user");
+        when(em.find(PseudonymEntity.class, new PseudonymEntity.Key("existing", "client"))).thenReturn(existing);
+        writer.enqueue(created);
+        writer.enqueue(existing);
+
+        writer.flush(sessionFactory);
+
+        verify(em).persist(created);
+        verify(em, never()).persist(existing);
+        assertEquals(0, writer.getQueueSize());
+    }
+
+    /**
+     * GIVEN: a batch with a pseudonym written concurrently by another node and one which cannot be written at all
+     * WHEN: the queue is flushed
+     * THEN: the batch is written again row by row, so the other pseudonyms are still persisted, and only the pseudonym
+     * which could not be written is recorded again with the next token
+     */
+    @Test
+    void should_write_failed_batch_row_by_row()
+    {
+        PseudonymIndexWriter writer = new PseudonymIndexWriter(10, 10);
+        PseudonymEntity valid = new PseudonymEntity("client", "valid", "user");
+        PseudonymEntity duplicate = new PseudonymEntity("client", "duplicate", "other-user");
+        PseudonymEntity failing = new PseudonymEntity("client", "failing", "third-user");
+        // not found by the batch and by its own transaction, but once the insert of the other node is committed
+        when(em.find(PseudonymEntity.class, new PseudonymEntity.Key("duplicate", "client"))).thenReturn(null, null, duplicate);
+        doThrow(new PersistenceException("duplicate key")).when(em).persist(duplicate);
+        doThrow(new PersistenceException("value too long")).when(em).persist(failing);
+        writer.enqueue(valid);
+        writer.enqueue(duplicate);
+        writer.enqueue(failing);
+
+        writer.flush(sessionFactory);
+
+        verify(em, times(2)).persist(valid);
+        assertFalse(writer.enqueue(new PseudonymEntity("client", "valid", "user")));
+        assertFalse(writer.enqueue(new PseudonymEntity("client", "duplicate", "other-user")));
+        assertTrue(writer.enqueue(new PseudonymEntity("client", "failing", "third-user")));
+    }
+}
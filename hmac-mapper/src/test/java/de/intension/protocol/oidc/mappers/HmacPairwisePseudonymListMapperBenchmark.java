@@ -0,0 +1,66 @@
+package de.intension.protocol.oidc.mappers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the latency of sequential and parallel pseudonym calculation of {@link HmacPairwisePseudonymListMapper}
+ * per number of clients, to find the crossover for the parallel threshold on the target machine. Run
+ * {@link #main(String[])} from the IDE or after {@code mvn test-compile} with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacPairwisePseudonymListMapperBenchmark
+{
+
+    @Param({"4", "16", "64", "256"})
+    private int                                                    clientCount;
+
+    private List<HmacPairwisePseudonymListMapper.PseudonymRequest> requests;
+
+    @Setup
+    public void setUp()
+    {
+        requests = HmacPairwisePseudonymListMapperTest.createPseudonymRequests(clientCount);
+    }
+
+    @Benchmark
+    public Map<String, String> sequential()
+    {
+        return HmacPairwisePseudonymListMapper.generatePseudonyms(requests, 0);
+    }
+
+    @Benchmark
+    public Map<String, String> parallel()
+    {
+        return HmacPairwisePseudonymListMapper.generatePseudonyms(requests, 1);
+    }
+
+    public static void main(String[] args)
+        throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(HmacPairwisePseudonymListMapperBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -1,6 +1,7 @@
 package de.intension.protocol.oidc.mappers;
 
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -17,6 +18,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +30,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -47,6 +51,12 @@ class HmacPairwisePseudonymListMapperTest
     @Mock
     private KeycloakContext                 contextMock;
 
+    @BeforeEach
+    void clearCache()
+    {
+        HmacMapperConfigCache.clear();
+    }
+
     @Test
     void shouldFail_whenValidateConfig_givenClientNotExists()
     {
@@ -359,6 +369,154 @@ class HmacPairwisePseudonymListMapperTest
         assertThat(actualClaim, Matchers.hasKey(differentClient));
     }
 
+    @Test
+    void shouldLookUpClientOnce_whenTransformTokens_untilClientUpdated()
+    {
+        //given
+        UserSessionModel userSession = mock(UserSessionModel.class);
+        UserModel userMock = mock(UserModel.class);
+        when(userSession.getUser()).thenReturn(userMock);
+        when(userMock.getId()).thenReturn("userId");
+
+        String additionalClaim = "otherPseudonyms";
+        HashMap<String, String> configMap = new HashMap<>();
+        configMap.put(HmacPairwisePseudonymListMapper.CLAIM_PROP_NAME, additionalClaim);
+        configMap.put(CLIENTS_PROP_NAME, EXISTING_CLIENT);
+        configMap.put(INCLUDE_IN_ID_TOKEN, "true");
+        configMap.put(INCLUDE_IN_ACCESS_TOKEN, "true");
+        when(mapperMock.getConfig()).thenReturn(configMap);
+        when(sessionMock.getContext()).thenReturn(contextMock);
+        when(contextMock.getRealm()).thenReturn(realmMock);
+        when(realmMock.getId()).thenReturn("realm-id");
+
+        ClientModel existingClient = mock(ClientModel.class);
+        ProtocolMapperModel referencedClientMapper = mock(ProtocolMapperModel.class);
+        when(referencedClientMapper.getProtocolMapper()).thenReturn(HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID);
+        Map<String, String> referencedClientConfig = new HashMap<>();
+        referencedClientConfig.put(HmacPairwiseSubMapperHelper.LOCAL_SUB_IDENTIFIER_PROP_NAME, "id");
+        referencedClientConfig.put(PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT, "123456");
+        referencedClientConfig.put(HmacPairwiseSubMapperHelper.HASH_ALGORITHM_PROP_NAME, "HmacSHA384");
+        referencedClientConfig.put(PairwiseSubMapperHelper.SECTOR_IDENTIFIER_URI, "https://example.com");
+        when(referencedClientMapper.getConfig()).thenReturn(referencedClientConfig);
+        when(existingClient.getProtocolMappersStream()).thenAnswer(invocation -> Stream.of(referencedClientMapper));
+        when(existingClient.getRealm()).thenReturn(realmMock);
+        when(existingClient.getClientId()).thenReturn(EXISTING_CLIENT);
+        when(existingClient.getId()).thenReturn("client-uuid");
+        when(referencedClientMapper.getId()).thenReturn("mapper-id");
+        when(existingClient.getProtocolMapperById("mapper-id")).thenReturn(referencedClientMapper);
+        when(realmMock.getClientById("client-uuid")).thenReturn(existingClient);
+        when(realmMock.getClientByClientId(EXISTING_CLIENT)).thenReturn(existingClient);
+
+        //when
+        IDToken idToken = classUnderTest.transformIDToken(new IDToken(), mapperMock, sessionMock, userSession, null);
+        AccessToken accessToken = classUnderTest.transformAccessToken(new AccessToken(), mapperMock, sessionMock, userSession, null);
+        ClientModel.ClientUpdatedEvent updatedEvent = mock(ClientModel.ClientUpdatedEvent.class);
+        when(updatedEvent.getUpdatedClient()).thenReturn(existingClient);
+        HmacMapperConfigCache.onEvent(updatedEvent);
+        classUnderTest.transformAccessToken(new AccessToken(), mapperMock, sessionMock, userSession, null);
+
+        //then
+        assertThat(accessToken.getOtherClaims().get(additionalClaim), Matchers.equalTo(idToken.getOtherClaims().get(additionalClaim)));
+        verify(realmMock, times(2)).getClientByClientId(EXISTING_CLIENT);
+    }
+
+    @Test
+    void shouldSkipClient_whenTransformTokens_givenCachedMapperRemoved()
+    {
+        //given
+        UserSessionModel userSession = mock(UserSessionModel.class);
+        UserModel userMock = mock(UserModel.class);
+        when(userSession.getUser()).thenReturn(userMock);
+        when(userMock.getId()).thenReturn("userId");
+
+        String additionalClaim = "otherPseudonyms";
+        HashMap<String, String> configMap = new HashMap<>();
+        configMap.put(HmacPairwisePseudonymListMapper.CLAIM_PROP_NAME, additionalClaim);
+        configMap.put(CLIENTS_PROP_NAME, EXISTING_CLIENT);
+        configMap.put(INCLUDE_IN_ACCESS_TOKEN, "true");
+        when(mapperMock.getConfig()).thenReturn(configMap);
+        when(sessionMock.getContext()).thenReturn(contextMock);
+        when(contextMock.getRealm()).thenReturn(realmMock);
+        when(realmMock.getId()).thenReturn("realm-id");
+
+        ClientModel existingClient = mock(ClientModel.class);
+        ProtocolMapperModel referencedClientMapper = mock(ProtocolMapperModel.class);
+        when(referencedClientMapper.getProtocolMapper()).thenReturn(HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID);
+        Map<String, String> referencedClientConfig = new HashMap<>();
+        referencedClientConfig.put(HmacPairwiseSubMapperHelper.LOCAL_SUB_IDENTIFIER_PROP_NAME, "id");
+        referencedClientConfig.put(PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT, "123456");
+        referencedClientConfig.put(HmacPairwiseSubMapperHelper.HASH_ALGORITHM_PROP_NAME, "HmacSHA384");
+        referencedClientConfig.put(PairwiseSubMapperHelper.SECTOR_IDENTIFIER_URI, "https://example.com");
+        when(referencedClientMapper.getConfig()).thenReturn(referencedClientConfig);
+        when(referencedClientMapper.getId()).thenReturn("mapper-id");
+        when(existingClient.getId()).thenReturn("client-uuid");
+        when(existingClient.getClientId()).thenReturn(EXISTING_CLIENT);
+        when(existingClient.getProtocolMappersStream()).thenReturn(Stream.of(referencedClientMapper), Stream.empty());
+        when(realmMock.getClientById("client-uuid")).thenReturn(existingClient);
+        when(realmMock.getClientByClientId(EXISTING_CLIENT)).thenReturn(existingClient);
+
+        //when
+        AccessToken accessToken = classUnderTest.transformAccessToken(new AccessToken(), mapperMock, sessionMock, userSession, null);
+        when(existingClient.getProtocolMapperById("mapper-id")).thenReturn(null);
+        AccessToken nextAccessToken = classUnderTest.transformAccessToken(new AccessToken(), mapperMock, sessionMock, userSession, null);
+
+        //then
+        assertThat(accessToken.getOtherClaims(), Matchers.hasKey(additionalClaim));
+        assertThat(nextAccessToken.getOtherClaims(), Matchers.not(Matchers.hasKey(additionalClaim)));
+    }
+
+    @Test
+    void shouldGenerateSamePseudonyms_whenGeneratePseudonyms_givenParallelThresholdReached()
+    {
+        //given
+        List<PseudonymRequest> requests = createPseudonymRequests(50);
+        //when
+        Map<String, String> sequential = HmacPairwisePseudonymListMapper.generatePseudonyms(requests, 0);
+        Map<String, String> parallel = HmacPairwisePseudonymListMapper.generatePseudonyms(requests, 10);
+        //then
+        assertThat(sequential, Matchers.aMapWithSize(50));
+        assertThat(List.copyOf(parallel.entrySet()), Matchers.equalTo(List.copyOf(sequential.entrySet())));
+    }
+
+    @Test
+    void shouldFail_whenValidateConfig_givenInvalidParallelThreshold()
+    {
+        //given
+        Map<String, String> configMap = new HashMap<>();
+        configMap.put(CLIENTS_PROP_NAME, EXISTING_CLIENT);
+        configMap.put(CLAIM_PROP_NAME, "otherPseudonyms");
+        configMap.put(PARALLEL_THRESHOLD_PROP_NAME, "many");
+        when(mapperMock.getConfig()).thenReturn(configMap);
+
+        ClientModel existingClient = mock(ClientModel.class);
+        ProtocolMapperModel referencedClientMapper = mock(ProtocolMapperModel.class);
+        when(referencedClientMapper.getProtocolMapper()).thenReturn(HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID);
+        when(existingClient.getProtocolMappersStream()).thenReturn(Stream.of(referencedClientMapper));
+
+        when(sessionMock.getContext()).thenReturn(contextMock);
+        when(contextMock.getRealm()).thenReturn(realmMock);
+        when(realmMock.getClientByClientId(EXISTING_CLIENT)).thenReturn(existingClient);
+        //when
+        ProtocolMapperContainerModel clientModel = mock(ClientModel.class);
+        ProtocolMapperConfigException exception = assertThrows(ProtocolMapperConfigException.class,
+                                                               () -> classUnderTest.validateConfig(sessionMock, realmMock, clientModel, mapperMock));
+        //then
+        assertThat(exception.getMessageKey(), Matchers.equalTo(INVALID_PARALLEL_THRESHOLD_MSG_KEY));
+    }
+
+    static List<PseudonymRequest> createPseudonymRequests(int clientCount)
+    {
+        List<PseudonymRequest> requests = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            ProtocolMapperModel clientMapper = new ProtocolMapperModel();
+            clientMapper.setConfig(Map.of(PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT, "salt-" + i,
+                                          HmacPairwiseSubMapperHelper.HASH_ALGORITHM_PROP_NAME, "HmacSHA256",
+                                          PairwiseSubMapperHelper.SECTOR_IDENTIFIER_URI, "https://sector-" + i + ".example.org"));
+            requests.add(new PseudonymRequest("client-" + i, clientMapper, "608b8580-9bcd-4723-be12-1affd60bcc3a"));
+        }
+        return requests;
+    }
+
     private static Stream<Arguments> provideTokenTransformMethodAndTokenType()
     {
         return Stream.of(
@@ -375,7 +533,7 @@ class HmacPairwisePseudonymListMapperTest
         List<ProviderConfigProperty> configProperties = classUnderTest.getConfigProperties();
         //then
         assertThat(configProperties.stream().map(ProviderConfigProperty::getName).collect(Collectors.toList()),
-                   Matchers.containsInAnyOrder(CLIENTS_PROP_NAME, CLAIM_PROP_NAME, INCLUDE_IN_ACCESS_TOKEN, INCLUDE_IN_ID_TOKEN,
+                   Matchers.containsInAnyOrder(CLIENTS_PROP_NAME, CLAIM_PROP_NAME, PARALLEL_THRESHOLD_PROP_NAME, INCLUDE_IN_ACCESS_TOKEN, INCLUDE_IN_ID_TOKEN,
                                                INCLUDE_IN_USERINFO, INCLUDE_IN_LIGHTWEIGHT_ACCESS_TOKEN));
     }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package de.intension.protocol.oidc.mappers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.protocol.oidc.mappers.PairwiseSubMapperHelper;
+import org.keycloak.protocol.oidc.utils.PairwiseSubMapperUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the throughput of generating pairwise identifiers with a new {@link Mac} per call and with the cloned
+ * prototypes of {@link HmacPairwiseSubMapperHelper}. Run {@link #main(String[])} from the IDE or after
+ * {@code mvn test-compile} with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class HmacPairwiseSubMapperBenchmark
+{
+
+    @Param({"HmacSHA256", "HmacSHA3-512"})
+    private String              algorithm;
+
+    private ProtocolMapperModel mapperModel;
+
+    @Setup
+    public void setUp()
+    {
+        mapperModel = new ProtocolMapperModel();
+        mapperModel.setConfig(Map.of(HmacPairwiseSubMapperHelper.HASH_ALGORITHM_PROP_NAME, algorithm,
+                                     PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT, "P5ZD+fqPLDTW",
+                                     PairwiseSubMapperHelper.SECTOR_IDENTIFIER_URI, "https://sector.example.org/sector_identifiers.json"));
+    }
+
+    @Benchmark
+    public String newMacPerCall()
+        throws Exception
+    {
+        // implementation before the Mac prototypes were cached
+        String salt = PairwiseSubMapperHelper.getSalt(mapperModel);
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(salt.getBytes(StandardCharsets.UTF_8), algorithm));
+        String sectorIdentifier = PairwiseSubMapperUtils.resolveValidSectorIdentifier(PairwiseSubMapperHelper.getSectorIdentifierUri(mapperModel));
+        mac.update(sectorIdentifier.getBytes(StandardCharsets.UTF_8));
+        mac.update("608b8580-9bcd-4723-be12-1affd60bcc3a".getBytes(StandardCharsets.UTF_8));
+        return UUID.nameUUIDFromBytes(mac.doFinal()).toString();
+    }
+
+    @Benchmark
+    public String clonedMac()
+    {
+        return HmacPairwiseSubMapperHelper.generateIdentifier(mapperModel, "608b8580-9bcd-4723-be12-1affd60bcc3a");
+    }
+
+    public static void main(String[] args)
+        throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+            .include(HmacPairwiseSubMapperBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -1,7 +1,13 @@
 package de.intension.protocol.oidc.mappers;
 
+import de.intension.protocol.oidc.jpa.PseudonymIndexProvider;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.keycloak.models.AuthenticatedClientSessionModel;
 import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientSessionContext;
+import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.ProtocolMapperModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
@@ -12,13 +18,26 @@ import org.keycloak.protocol.oidc.mappers.PairwiseSubMapperHelper;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.IDToken;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.HashMap;
+import java.util.UUID;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.keycloak.protocol.oidc.mappers.PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class HmacPairwiseSubMapperTest
@@ -379,6 +398,155 @@ class HmacPairwiseSubMapperTest
                      mapper.getHelpText());
     }
 
+    /**
+     * GIVEN: a mapper with salt, hash algorithm and sector identifier
+     * WHEN: subs are created repeatedly from the cached Mac for different users
+     * THEN: they match a Mac which is created from scratch for every user
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {HMAC_SHA_256, "HmacSHA3-512"})
+    void should_generate_same_subject_value_as_uncached_mac(String algorithm)
+        throws Exception
+    {
+        ProtocolMapperModel mapperModel = createMapperModel(USERNAME, algorithm, SALT, SECTOR_IDENTIFIER);
+        for (String localSub : new String[]{"tim", "tom", "tim"}) {
+            Mac mac = Mac.getInstance(algorithm);
+            mac.init(new SecretKeySpec(SALT.getBytes(StandardCharsets.UTF_8), algorithm));
+            mac.update("a-static-url.de".getBytes(StandardCharsets.UTF_8));
+            mac.update(localSub.getBytes(StandardCharsets.UTF_8));
+            String expected = UUID.nameUUIDFromBytes(mac.doFinal()).toString();
+
+            assertEquals(expected, HmacPairwiseSubMapperHelper.generateIdentifier(mapperModel, localSub));
+        }
+    }
+
+    /**
+     * GIVEN: a persisted mapper and the client session context of a token request
+     * WHEN: ID, access and userinfo token are transformed
+     * THEN: the pairwise identifier is calculated only once and all tokens get the same subject value
+     */
+    @Test
+    void should_generate_identifier_once_per_client_session_context()
+    {
+        AtomicInteger calculations = new AtomicInteger();
+        HmacPairwiseSubMapper mapper = new HmacPairwiseSubMapper() {
+
+            @Override
+            public String generateIdentifier(ProtocolMapperModel mappingModel, String localSub)
+            {
+                calculations.incrementAndGet();
+                return super.generateIdentifier(mappingModel, localSub);
+            }
+        };
+        ProtocolMapperModel mapperModel = createMapperModel(USERNAME);
+        mapperModel.setId(ID);
+        UserSessionModel userSession = mockUserSessionModel(USER_ID, USERNAME, "tim");
+        ClientSessionContext clientSessionCtx = mockClientSessionContext();
+
+        IDToken idToken = mapper.transformIDToken(new IDToken(), mapperModel, null, userSession, clientSessionCtx);
+        AccessToken accessToken = mapper.transformAccessToken(new AccessToken(), mapperModel, null, userSession, clientSessionCtx);
+        AccessToken userInfo = mapper.transformUserInfoToken(new AccessToken(), mapperModel, null, userSession, clientSessionCtx);
+
+        assertEquals(1, calculations.get());
+        assertEquals(idToken.getSubject(), accessToken.getSubject());
+        assertEquals(idToken.getSubject(), userInfo.getOtherClaims().get("sub"));
+        mapper.transformAccessToken(new AccessToken(), mapperModel, null, mockUserSessionModel(USER_ID, USERNAME, "tim"),
+                                    mockClientSessionContext());
+        assertEquals(2, calculations.get());
+    }
+
+    /**
+     * GIVEN: an enabled pseudonym index, an HMAC sub mapper and a derived email mapper of the same client
+     * WHEN: both mappers transform the access token
+     * THEN: only the subject of the sub mapper is recorded in the index
+     */
+    @Test
+    void should_index_pseudonym_of_sub_mapper_only()
+    {
+        PseudonymIndexProvider index = mock(PseudonymIndexProvider.class);
+        when(index.isEnabled()).thenReturn(true);
+        KeycloakSession session = mock(KeycloakSession.class);
+        when(session.getProvider(PseudonymIndexProvider.class)).thenReturn(index);
+        ClientModel client = mock(ClientModel.class);
+        AuthenticatedClientSessionModel clientSession = mock(AuthenticatedClientSessionModel.class);
+        when(clientSession.getClient()).thenReturn(client);
+        ClientSessionContext clientSessionCtx = mockClientSessionContext();
+        when(clientSessionCtx.getClientSession()).thenReturn(clientSession);
+        ProtocolMapperModel subMapperModel = createMapperModel(USERNAME);
+        subMapperModel.setProtocolMapper(HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID);
+        ProtocolMapperModel emailMapperModel = createMapperModel(USERNAME);
+        emailMapperModel.setProtocolMapper(HmacPairwiseEmailMapper.PROVIDER_ID);
+
+        AccessToken accessToken = new HmacPairwiseSubMapper().transformAccessToken(new AccessToken(), subMapperModel, session,
+                                                                                   mockUserSessionModel(USER_ID, USERNAME, "tim"), clientSessionCtx);
+        new HmacPairwiseEmailMapper().transformAccessToken(new AccessToken(), emailMapperModel, session,
+                                                           mockUserSessionModel(USER_ID, USERNAME, "tim"), clientSessionCtx);
+
+        verify(index).record(client, accessToken.getSubject(), USER_ID);
+        verify(index, times(1)).record(any(), any(), any());
+    }
+
+    /**
+     * GIVEN: a mapper with a previous salt which is valid until tomorrow
+     * WHEN: access token is transformed
+     * THEN: sub is calculated with the current salt and the configured claim holds the pseudonym of the previous salt
+     */
+    @Test
+    void should_issue_previous_pseudonym_during_overlap_window()
+    {
+        HmacPairwiseSubMapper mapper = new HmacPairwiseSubMapper();
+        ProtocolMapperModel mapperModel = createMapperModel(USERNAME);
+        mapperModel.getConfig().put(HmacPairwiseSubMapperHelper.PREVIOUS_SALT_PROP_NAME, "previous-salt");
+        mapperModel.getConfig().put(HmacPairwiseSubMapperHelper.PREVIOUS_SALT_VALID_UNTIL_PROP_NAME, LocalDate.now(ZoneOffset.UTC).plusDays(1).toString());
+        mapperModel.getConfig().put(HmacPairwiseSubMapperHelper.PREVIOUS_SUB_CLAIM_PROP_NAME, "old_sub");
+
+        AccessToken accessToken = mapper.transformAccessToken(new AccessToken(), mapperModel, null,
+                                                              mockUserSessionModel(USER_ID, USERNAME, "tim"), null);
+
+        assertEquals(HmacPairwiseSubMapperHelper.generateIdentifier(createMapperModel(USERNAME), "tim"), accessToken.getSubject());
+        assertEquals(HmacPairwiseSubMapperHelper.generateIdentifier(createMapperModel(USERNAME, HMAC_SHA_256, "previous-salt", SECTOR_IDENTIFIER), "tim"),
+                     accessToken.getOtherClaims().get("old_sub"));
+        assertEquals(accessToken.getOtherClaims().get("old_sub"), HmacPairwiseSubMapperHelper.generatePreviousIdentifier(mapperModel, "tim"));
+    }
+
+    /**
+     * GIVEN: a mapper with a previous salt which was valid until yesterday
+     * WHEN: access token is transformed
+     * THEN: only the sub is set
+     */
+    @Test
+    void should_not_issue_previous_pseudonym_after_overlap_window()
+    {
+        HmacPairwiseSubMapper mapper = new HmacPairwiseSubMapper();
+        ProtocolMapperModel mapperModel = createMapperModel(USERNAME);
+        mapperModel.getConfig().put(HmacPairwiseSubMapperHelper.PREVIOUS_SALT_PROP_NAME, "previous-salt");
+        mapperModel.getConfig().put(HmacPairwiseSubMapperHelper.PREVIOUS_SALT_VALID_UNTIL_PROP_NAME, LocalDate.now(ZoneOffset.UTC).minusDays(1).toString());
+
+        AccessToken accessToken = mapper.transformAccessToken(new AccessToken(), mapperModel, null,
+                                                              mockUserSessionModel(USER_ID, USERNAME, "tim"), null);
+
+        assertNotNull(accessToken.getSubject());
+        assertFalse(accessToken.getOtherClaims().containsKey(HmacPairwiseSubMapperHelper.DEFAULT_PREVIOUS_SUB_CLAIM));
+    }
+
+    /**
+     * GIVEN: hmac pairwise sub mapper with a previous salt valid until date which is no date
+     * WHEN: mapper config is validated
+     * THEN: ProtocolMapperConfigException is thrown with expected message key
+     */
+    @Test
+    void should_throw_protocol_mapper_config_exception_when_invalid_previous_salt_valid_until_configured()
+    {
+        HmacPairwiseSubMapper mapper = new HmacPairwiseSubMapper();
+        ProtocolMapperModel mapperModel = createMapperModel(USERNAME);
+        mapperModel.getConfig().put(HmacPairwiseSubMapperHelper.PREVIOUS_SALT_VALID_UNTIL_PROP_NAME, "31.12.2025");
+
+        ProtocolMapperConfigException exception = assertThrows(ProtocolMapperConfigException.class,
+                                                               () -> mapper.validateConfig(null, null, null, mapperModel));
+
+        assertEquals(HmacPairwiseSubMapper.INVALID_PREVIOUS_SALT_VALID_UNTIL, exception.getMessageKey());
+    }
+
     /**
      * Create Protocol mapper model with the local sub identifier passed
      *
@@ -423,4 +591,15 @@ class HmacPairwiseSubMapperTest
         when(userSessionModel.getUser()).thenReturn(userModel);
         return userSessionModel;
     }
-}
\ No newline at end of file
+
+    static ClientSessionContext mockClientSessionContext()
+    {
+        Map<String, Object> attributes = new HashMap<>();
+        ClientSessionContext clientSessionCtx = mock(ClientSessionContext.class);
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(clientSessionCtx).setAttribute(anyString(), any());
+        when(clientSessionCtx.getAttribute(anyString(), any()))
+            .thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        return clientSessionCtx;
+    }
+}
@@ -0,0 +1,66 @@
+package de.intension.protocol.oidc.resources;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HmacMappingCacheTest
+{
+
+    /**
+     * GIVEN: a cache with a TTL
+     * WHEN: the same realm is requested repeatedly
+     * THEN: it is loaded only once
+     */
+    @Test
+    void should_load_once_within_ttl()
+    {
+        HmacMappingCache cache = new HmacMappingCache(60_000);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("realm-id", cache.getRealmId("fwu", () -> {
+                loads.incrementAndGet();
+                return "realm-id";
+            }));
+        }
+
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * GIVEN: a cache with a TTL
+     * WHEN: an unknown realm is requested and the realm is requested again
+     * THEN: the missing realm is not cached
+     */
+    @Test
+    void should_not_cache_missing_realm()
+    {
+        HmacMappingCache cache = new HmacMappingCache(60_000);
+
+        assertNull(cache.getRealmId("fwu", () -> null));
+
+        assertEquals("realm-id", cache.getRealmId("fwu", () -> "realm-id"));
+    }
+
+    /**
+     * GIVEN: a cache with TTL 0
+     * WHEN: the same realm is requested repeatedly
+     * THEN: it is loaded every time
+     */
+    @Test
+    void should_not_cache_when_disabled()
+    {
+        HmacMappingCache cache = new HmacMappingCache(0);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            cache.getRealmId("fwu", () -> "realm-id" + loads.incrementAndGet());
+        }
+
+        assertEquals(3, loads.get());
+    }
+}
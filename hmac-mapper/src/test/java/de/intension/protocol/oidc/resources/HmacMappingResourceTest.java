@@ -0,0 +1,315 @@
+package de.intension.protocol.oidc.resources;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import de.intension.protocol.oidc.jpa.PseudonymIndexProvider;
+import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapper;
+import de.intension.protocol.oidc.mappers.HmacPairwiseSubMapperHelper;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.protocol.oidc.mappers.PairwiseSubMapperHelper;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager.AuthResult;
+import org.keycloak.util.JsonSerialization;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.keycloak.protocol.oidc.mappers.PairwiseSubMapperHelper.PAIRWISE_SUB_ALGORITHM_SALT;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+class HmacMappingResourceTest
+{
+
+    private static final String CLIENT_ID = "bayerncloud";
+
+    private final UserModel                                            user   = mock(UserModel.class);
+    private final ClientModel                                          client = mock(ClientModel.class);
+    private final KeycloakSession                                      session = mock(KeycloakSession.class);
+    private final ProtocolMapperModel                                  mapper = createMapperModel("mapper-id", "P5ZD+fqPLDTW");
+    private MockedConstruction<AppAuthManager.BearerTokenAuthenticator> authenticator;
+    private AuthResult                                                 authResult;
+    private HmacMappingResource                                        resource;
+
+    @BeforeEach
+    void setUp()
+    {
+        authResult = mock(AuthResult.class);
+        UserSessionModel userSession = mock(UserSessionModel.class);
+        when(authResult.getSession()).thenReturn(userSession);
+        when(userSession.getUser()).thenReturn(user);
+        when(user.getAttributeStream("hmac-clientId")).thenAnswer(invocation -> Stream.of(CLIENT_ID));
+        authenticator = mockConstruction(AppAuthManager.BearerTokenAuthenticator.class, (bearer, context) -> {
+            when(bearer.setRealm(any())).thenReturn(bearer);
+            when(bearer.authenticate()).thenAnswer(invocation -> authResult);
+        });
+
+        // realm ID per test, as mappers are cached per realm and client across tests
+        String realmId = UUID.randomUUID().toString();
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn(realmId);
+        when(client.getClientId()).thenReturn(CLIENT_ID);
+        when(client.getRealm()).thenReturn(realm);
+        when(client.getId()).thenReturn("client-id");
+        when(client.getProtocolMappersStream()).thenAnswer(invocation -> Stream.of(mapper));
+        when(client.getProtocolMapperById(mapper.getId())).thenReturn(mapper);
+        when(realm.getClientByClientId(CLIENT_ID)).thenReturn(client);
+        when(realm.getClientById("client-id")).thenReturn(client);
+        RealmProvider realms = mock(RealmProvider.class);
+        when(realms.getRealmByName(any())).thenReturn(realm);
+        when(realms.getRealm(realmId)).thenReturn(realm);
+        when(session.realms()).thenReturn(realms);
+        resource = new HmacMappingResource(session, "verifier", "management");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        authenticator.close();
+    }
+
+    /**
+     * GIVEN: original values and pseudonyms calculated with the current and the previous salt
+     * WHEN: the pseudonyms and an unknown value are resolved in bulk
+     * THEN: each pseudonym is mapped to its original value and the unknown value to null
+     */
+    @Test
+    void should_map_test_values_to_original_values()
+        throws Exception
+    {
+        String current = HmacPairwiseSubMapperHelper.generateIdentifier(mapper, "user-1");
+        String previous = HmacPairwiseSubMapperHelper.generatePreviousIdentifier(mapper, "user-2");
+
+        Map<String, String> result = getUserIds(request(List.of("user-1", "user-2", "user-3"), List.of(current, previous, "unknown")));
+
+        assertEquals(List.of(current, previous, "unknown"), new ArrayList<>(result.keySet()));
+        assertEquals("user-1", result.get(current));
+        assertEquals("user-2", result.get(previous));
+        assertTrue(result.containsKey("unknown"));
+        assertNull(result.get("unknown"));
+    }
+
+    /**
+     * GIVEN: a pseudonym calculated with the previous salt of the HMAC mapper
+     * WHEN: the pseudonym is looked up
+     * THEN: it is mapped to its original value
+     */
+    @Test
+    void should_find_original_value_of_previous_salt()
+    {
+        String previous = HmacPairwiseSubMapperHelper.generatePreviousIdentifier(mapper, "user-2");
+
+        Response response = resource.getUserId(lookupRequest(List.of("user-1", "user-2"), previous));
+
+        assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        assertEquals("user-2", response.getEntity());
+    }
+
+    /**
+     * GIVEN: a pseudonym matching one original value with the current salt and another one with the previous salt
+     * WHEN: the pseudonym is looked up on its own and in bulk
+     * THEN: the match of the current salt takes precedence, whatever the order of the original values
+     */
+    @Test
+    void should_prefer_match_of_current_salt()
+        throws Exception
+    {
+        String current = HmacPairwiseSubMapperHelper.generateIdentifier(mapper, "user-1");
+        try (MockedStatic<HmacPairwiseSubMapperHelper> helper = mockStatic(HmacPairwiseSubMapperHelper.class, CALLS_REAL_METHODS)) {
+            helper.when(() -> HmacPairwiseSubMapperHelper.generatePreviousIdentifier(any(), eq("user-2"))).thenReturn(current);
+
+            Response response = resource.getUserId(lookupRequest(List.of("user-2", "user-1"), current));
+            Map<String, String> result = getUserIds(request(List.of("user-2", "user-1"), List.of(current)));
+
+            assertEquals("user-1", response.getEntity());
+            assertEquals("user-1", result.get(current));
+        }
+    }
+
+    /**
+     * GIVEN: a pseudonym resolved with the HMAC mapper of the client
+     * WHEN: the salt of the mapper is changed and the pseudonym is resolved again
+     * THEN: the changed mapper is used immediately
+     */
+    @Test
+    void should_use_changed_mapper_immediately()
+    {
+        String pseudonym = HmacPairwiseSubMapperHelper.generateIdentifier(mapper, "user-1");
+        assertEquals("user-1", resource.getUserId(lookupRequest(List.of("user-1"), pseudonym)).getEntity());
+
+        ProtocolMapperModel changed = createMapperModel(mapper.getId(), "changed-salt");
+        when(client.getProtocolMapperById(mapper.getId())).thenReturn(changed);
+
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), resource.getUserId(lookupRequest(List.of("user-1"), pseudonym)).getStatus());
+        String changedPseudonym = HmacPairwiseSubMapperHelper.generateIdentifier(changed, "user-1");
+        assertEquals("user-1", resource.getUserId(lookupRequest(List.of("user-1"), changedPseudonym)).getEntity());
+    }
+
+    /**
+     * GIVEN: a client with two HMAC mappers
+     * WHEN: a pseudonym of the client is resolved
+     * THEN: the request is rejected as bad request
+     */
+    @Test
+    void should_reject_client_with_more_than_one_mapper()
+    {
+        ProtocolMapperModel second = createMapperModel("second-mapper-id", "P5ZD+fqPLDTW");
+        when(client.getProtocolMappersStream()).thenAnswer(invocation -> Stream.of(mapper, second));
+        when(client.getProtocolMapperById(second.getId())).thenReturn(second);
+
+        assertThrows(BadRequestException.class, () -> resource.getUserId(lookupRequest(List.of("user-1"), "pseudonym")));
+    }
+
+    /**
+     * GIVEN: an enabled pseudonym index
+     * WHEN: an indexed and an unknown pseudonym are resolved
+     * THEN: the user ID of the indexed pseudonym is returned and the unknown pseudonym is not found
+     */
+    @Test
+    void should_resolve_indexed_pseudonym()
+    {
+        PseudonymIndexProvider index = mock(PseudonymIndexProvider.class);
+        when(index.isEnabled()).thenReturn(true);
+        when(index.getUserId(client, "pseudonym")).thenReturn("user-id");
+        when(session.getProvider(PseudonymIndexProvider.class)).thenReturn(index);
+
+        Response indexed = resource.getIndexedUserId(CLIENT_ID, "pseudonym");
+        Response unknown = resource.getIndexedUserId(CLIENT_ID, "unknown");
+
+        assertEquals("user-id", indexed.getEntity());
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), unknown.getStatus());
+    }
+
+    /**
+     * GIVEN: a disabled pseudonym index
+     * WHEN: a pseudonym is resolved with the index
+     * THEN: the request is rejected as bad request
+     */
+    @Test
+    void should_reject_index_request_when_disabled()
+    {
+        when(session.getProvider(PseudonymIndexProvider.class)).thenReturn(mock(PseudonymIndexProvider.class));
+
+        assertThrows(BadRequestException.class, () -> resource.getIndexedUserId(CLIENT_ID, "pseudonym"));
+    }
+
+    /**
+     * GIVEN: a user without the client in its attribute "hmac-clientId"
+     * WHEN: pseudonyms of the client are resolved in bulk
+     * THEN: the request is forbidden
+     */
+    @Test
+    void should_forbid_unauthorized_client()
+    {
+        when(user.getAttributeStream("hmac-clientId")).thenAnswer(invocation -> Stream.of("another-client"));
+
+        assertThrows(ForbiddenException.class, () -> resource.getUserIds(request(List.of("user-1"), List.of("pseudonym"))));
+    }
+
+    /**
+     * GIVEN: a request without body and a request with too many original values
+     * WHEN: pseudonyms are resolved in bulk
+     * THEN: both requests are rejected as bad requests
+     */
+    @Test
+    void should_reject_invalid_bulk_request()
+    {
+        List<String> originalValues = Collections.nCopies(HmacMappingResource.MAX_BULK_ORIGINAL_VALUES + 1, "user-1");
+
+        assertThrows(BadRequestException.class, () -> resource.getUserIds(null));
+        assertThrows(BadRequestException.class, () -> resource.getUserIds(request(originalValues, List.of("pseudonym"))));
+    }
+
+    /**
+     * GIVEN: a request without valid bearer token
+     * WHEN: too many original values or no body are sent
+     * THEN: the request is rejected as unauthorized before the body is validated
+     */
+    @Test
+    void should_reject_unauthorized_bulk_request_before_validation()
+    {
+        authResult = null;
+        List<String> originalValues = Collections.nCopies(HmacMappingResource.MAX_BULK_ORIGINAL_VALUES + 1, "user-1");
+
+        ClientErrorException oversized = assertThrows(ClientErrorException.class, () -> resource.getUserIds(request(originalValues, List.of("pseudonym"))));
+        ClientErrorException missing = assertThrows(ClientErrorException.class, () -> resource.getUserIds(null));
+
+        assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), oversized.getResponse().getStatus());
+        assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), missing.getResponse().getStatus());
+    }
+
+    private Map<String, String> getUserIds(HmacBulkMappingRequest request)
+        throws Exception
+    {
+        Response response = resource.getUserIds(request);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput)response.getEntity()).write(out);
+        return JsonSerialization.readValue(new ByteArrayInputStream(out.toByteArray()), new TypeReference<LinkedHashMap<String, String>>() {});
+    }
+
+    private static HmacMappingRequest lookupRequest(List<String> originalValues, String testValue)
+    {
+        HmacMappingRequest request = new HmacMappingRequest();
+        request.setClientId(CLIENT_ID);
+        request.setOriginalValues(originalValues);
+        request.setTestValue(testValue);
+        return request;
+    }
+
+    private static HmacBulkMappingRequest request(List<String> originalValues, List<String> testValues)
+    {
+        HmacBulkMappingRequest request = new HmacBulkMappingRequest();
+        request.setClientId(CLIENT_ID);
+        request.setOriginalValues(originalValues);
+        request.setTestValues(testValues);
+        return request;
+    }
+
+    private static ProtocolMapperModel createMapperModel(String id, String salt)
+    {
+        ProtocolMapperModel protocolMapperModel = new ProtocolMapperModel();
+        protocolMapperModel.setId(id);
+        protocolMapperModel.setName("HMAC Mapper");
+        protocolMapperModel.setProtocolMapper(HmacPairwiseSubMapper.PROTOCOL_MAPPER_ID);
+        Map<String, String> config = new HashMap<>();
+        config.put(HmacPairwiseSubMapperHelper.HASH_ALGORITHM_PROP_NAME, "HmacSHA256");
+        config.put(PAIRWISE_SUB_ALGORITHM_SALT, salt);
+        config.put(HmacPairwiseSubMapperHelper.PREVIOUS_SALT_PROP_NAME, "Azhdfopek");
+        config.put(HmacPairwiseSubMapperHelper.LOCAL_SUB_IDENTIFIER_PROP_NAME, "username");
+        config.put(PairwiseSubMapperHelper.SECTOR_IDENTIFIER_URI, "http://a-static-url.de/sector_identifiers.json");
+        protocolMapperModel.setConfig(config);
+        return protocolMapperModel;
+    }
+}
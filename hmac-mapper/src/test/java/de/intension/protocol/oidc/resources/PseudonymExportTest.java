@@ -0,0 +1,73 @@
+package de.intension.protocol.oidc.resources;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ProtocolMapperModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PseudonymExportTest
+{
+
+    /**
+     * GIVEN: a full page of attribute rows with a multivalued attribute and a value stored as long value
+     * WHEN: the page is loaded
+     * THEN: each user is returned once with the first value, and the next page continues after the last row
+     */
+    @Test
+    void should_load_page_of_attribute_values()
+    {
+        EntityManager em = mockQuery(List.of(new Object[] {"a", "a-1", null},
+                                             new Object[] {"a", "a-2", null},
+                                             new Object[] {"b", null, "b-long"}));
+        var export = new PseudonymExport(null, "realm", new ProtocolMapperModel(), PseudonymExport.Format.CSV, 3);
+
+        PseudonymExport.Page page = export.loadPage(em, "schoolId", "");
+
+        assertEquals(2, page.users().size());
+        assertArrayEquals(new String[] {"a", "a-1"}, page.users().get(0));
+        assertArrayEquals(new String[] {"b", "b-long"}, page.users().get(1));
+        assertEquals("b", page.lastUserId());
+        assertFalse(page.last());
+    }
+
+    /**
+     * GIVEN: fewer rows than the page size
+     * WHEN: the page is loaded by username
+     * THEN: it is the last page
+     */
+    @Test
+    void should_detect_last_page()
+    {
+        EntityManager em = mockQuery(List.<Object[]>of(new Object[] {"c", "carl"}));
+        var export = new PseudonymExport(null, "realm", new ProtocolMapperModel(), PseudonymExport.Format.NDJSON, 3);
+
+        PseudonymExport.Page page = export.loadPage(em, "username", "b");
+
+        assertEquals(1, page.users().size());
+        assertTrue(page.last());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EntityManager mockQuery(List<Object[]> rows)
+    {
+        EntityManager em = mock(EntityManager.class);
+        TypedQuery<Object[]> query = mock(TypedQuery.class);
+        when(em.createQuery(contains("ORDER BY u.id"), eq(Object[].class))).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        when(query.setMaxResults(anyInt())).thenReturn(query);
+        when(query.getResultList()).thenReturn(new ArrayList<>(rows));
+        return em;
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import de.intension.api.UserInfoAttributeNames;
 import de.intension.util.JsonSerialization;
 import lombok.Getter;
@@ -14,6 +15,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 @Getter
 @Setter
@@ -38,25 +40,51 @@ public class UserInfo {
         return JsonSerialization.writeValueAsString(this);
     }
 
+    /**
+     * JSON tree of the userInfo, mapped into JSON claims as is instead of serializing and parsing it again.
+     */
+    @JsonIgnore
+    public JsonNode getJsonTree() {
+        return JsonSerialization.valueToTree(this);
+    }
+
     @JsonIgnore
     public Map<ProtocolMapperModel, String> getChildJsonRepresentations(boolean accessToken, boolean idToken, boolean userInfo)
             throws JsonProcessingException {
         HashMap<ProtocolMapperModel, String> representations = new HashMap<>();
-        representations.put(getDynamicMapperModel(VERSION_ATTRIBUTE, "String", accessToken, idToken, userInfo), getVersion());
-        representations.put(getDynamicMapperModel(UserInfoAttributeNames.PID, "String", accessToken, idToken, userInfo), getPid());
+        addChildRepresentations((mapper, value) -> representations.put(mapper, (String) value), JsonSerialization::writeValueAsString,
+                accessToken, idToken, userInfo);
+        return representations;
+    }
+
+    /**
+     * Child claims like {@link #getChildJsonRepresentations(boolean, boolean, boolean)} with JSON trees instead of
+     * serialized JSON.
+     */
+    @JsonIgnore
+    public Map<ProtocolMapperModel, Object> getChildJsonTrees(boolean accessToken, boolean idToken, boolean userInfo) {
+        HashMap<ProtocolMapperModel, Object> representations = new HashMap<>();
+        addChildRepresentations(representations::put, JsonSerialization::valueToTree, accessToken, idToken, userInfo);
+        return representations;
+    }
+
+    private <E extends Exception> void addChildRepresentations(BiConsumer<ProtocolMapperModel, Object> representations, JsonConverter<E> converter,
+                                                               boolean accessToken, boolean idToken, boolean userInfo)
+            throws E {
+        representations.accept(getDynamicMapperModel(VERSION_ATTRIBUTE, "String", accessToken, idToken, userInfo), getVersion());
+        representations.accept(getDynamicMapperModel(UserInfoAttributeNames.PID, "String", accessToken, idToken, userInfo), getPid());
         if (heimatOrganisation != null && !heimatOrganisation.isEmpty()) {
-            representations.put(getDynamicMapperModel(UserInfoAttributeNames.HEIMATORGANISATION, "JSON", accessToken, idToken, userInfo),
-                    JsonSerialization.writeValueAsString(getHeimatOrganisation()));
+            representations.accept(getDynamicMapperModel(UserInfoAttributeNames.HEIMATORGANISATION, "JSON", accessToken, idToken, userInfo),
+                    converter.convert(getHeimatOrganisation()));
         }
         if (person != null && !person.isEmpty()) {
-            representations.put(getDynamicMapperModel(UserInfoAttributeNames.PERSON, "JSON", accessToken, idToken, userInfo),
-                    JsonSerialization.writeValueAsString(getPerson()));
+            representations.accept(getDynamicMapperModel(UserInfoAttributeNames.PERSON, "JSON", accessToken, idToken, userInfo),
+                    converter.convert(getPerson()));
         }
         if (personenKontexte != null && !personenKontexte.isEmpty()) {
-            representations.put(getDynamicMapperModel(UserInfoAttributeNames.PERSONENKONTEXTE, "JSON", accessToken, idToken, userInfo),
-                    JsonSerialization.writeValueAsString(getPersonenKontexte()));
+            representations.accept(getDynamicMapperModel(UserInfoAttributeNames.PERSONENKONTEXTE, "JSON", accessToken, idToken, userInfo),
+                    converter.convert(getPersonenKontexte()));
         }
-        return representations;
     }
 
     @JsonIgnore
@@ -99,4 +127,10 @@ public class UserInfo {
             person.setPersonName(null);
         }
     }
+
+    @FunctionalInterface
+    private interface JsonConverter<E extends Exception> {
+
+        Object convert(Object value) throws E;
+    }
 }
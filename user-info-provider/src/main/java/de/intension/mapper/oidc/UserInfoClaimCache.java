@@ -0,0 +1,101 @@
+package de.intension.mapper.oidc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.IDToken;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import de.intension.mapper.user.UserAttributeSnapshot;
+
+/**
+ * Serialized userInfo claims kept as notes of the user session, so token refreshes inject the JSON built on login
+ * instead of building and serializing the claim again.
+ * <p>
+ * A note is only used while its fingerprint matches: the attributes of the user, the subject of the token, the config
+ * of the mapper and the current date, which the age of a person depends on. Any change of the user attributes, e.g. by
+ * an update of a brokered user or an admin, builds the claim again. Changes of group attributes and identity providers
+ * are picked up with a new user session.
+ * <p>
+ * The notes contain personal data and are persisted with the user session by Keycloak, due to the date in the
+ * fingerprint they are written again on the first refresh of every day.
+ */
+final class UserInfoClaimCache
+{
+
+    static final String       NOTE_PREFIX = "vidisInfo.";
+    private static final char SEPARATOR   = ':';
+
+    private UserInfoClaimCache()
+    {
+    }
+
+    /**
+     * Fingerprint of everything the claim of a mapper is built from.
+     */
+    static String fingerprint(UserInfoMapperPlan plan, UserAttributeSnapshot attributes, IDToken token)
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, plan.getConfigKey());
+        putString(hasher, token.getSubject());
+        putString(hasher, String.valueOf(token.getOtherClaims().get("sub")));
+        putString(hasher, attributes.getUser().getId());
+        putString(hasher, attributes.getUser().getFirstName());
+        putString(hasher, attributes.getUser().getLastName());
+        putString(hasher, LocalDate.now().toString());
+        for (Map.Entry<String, List<String>> attribute : new TreeMap<>(attributes.getUserAttributes()).entrySet()) {
+            putString(hasher, attribute.getKey());
+            List<String> values = attribute.getValue();
+            hasher.putInt(values == null ? -1 : values.size());
+            if (values != null) {
+                values.forEach(value -> putString(hasher, value));
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Get the cached claim of a mapper.
+     *
+     * @return Serialized claim, an empty string if no claim is added for the user or {@code null} if nothing is cached
+     *         for the fingerprint
+     */
+    static String get(UserSessionModel userSession, String mapperId, String fingerprint)
+    {
+        String note = userSession.getNote(NOTE_PREFIX + mapperId);
+        if (note == null || note.length() <= fingerprint.length() || !note.startsWith(fingerprint) || note.charAt(fingerprint.length()) != SEPARATOR) {
+            return null;
+        }
+        return note.substring(fingerprint.length() + 1);
+    }
+
+    /**
+     * Cache the claim of a mapper.
+     *
+     * @param json serialized claim or an empty string if no claim is added for the user
+     */
+    static void put(UserSessionModel userSession, String mapperId, String fingerprint, String json)
+    {
+        userSession.setNote(NOTE_PREFIX + mapperId, fingerprint + SEPARATOR + json);
+    }
+
+    /**
+     * Hash a string with its length, so neighbouring values cannot be shifted into each other.
+     */
+    private static void putString(Hasher hasher, String value)
+    {
+        if (value == null) {
+            hasher.putInt(-1);
+        }
+        else {
+            hasher.putInt(value.length());
+            hasher.putString(value, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package de.intension.mapper.oidc;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+
+import de.intension.cache.LruCache;
+import de.intension.mapper.user.UserInfoHelper;
+import de.intension.mapper.user.UserInfoProjection;
+
+/**
+ * Config of a {@link UserInfoProviderMapper} compiled once: the enabled fields, the professional roles and the flags.
+ * Plans are cached by mapper ID and replaced as soon as the config of the mapper changes.
+ */
+final class UserInfoMapperPlan
+{
+
+    static final int                                          MAX_ENTRIES = 1_000;
+
+    private static final LruCache<String, UserInfoMapperPlan> plans       = new LruCache<>(MAX_ENTRIES);
+
+    private final Map<String, String>                        config;
+    private final int                                        configHash;
+    private final UserInfoProjection                         projection;
+    private final List<String>                               roles;
+    private final boolean                                    childrenOnly;
+    private final boolean                                    negateOutput;
+    private final boolean                                    cacheClaim;
+    private final boolean                                    jsonClaim;
+    private final String                                     configKey;
+
+    private UserInfoMapperPlan(Map<String, String> config)
+    {
+        this.config = config;
+        this.configHash = config.hashCode();
+        ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setConfig(config);
+        this.projection = UserInfoProjection.of(model);
+        String rolesToCheck = config.get(UserInfoProviderMapper.PROFESSIONAL_ROLES);
+        this.roles = rolesToCheck != null && !rolesToCheck.trim().isEmpty() ? List.copyOf(UserInfoHelper.splitRoles(rolesToCheck)) : null;
+        this.childrenOnly = Boolean.parseBoolean(config.get(UserInfoProviderMapper.ONLY_CHILDREN_ATTR_NAME));
+        this.negateOutput = Boolean.parseBoolean(config.get(UserInfoProviderMapper.NEGATE_OUTPUT_NAME));
+        this.cacheClaim = Boolean.parseBoolean(config.get(UserInfoProviderMapper.CACHE_CLAIM_NAME));
+        this.configKey = new TreeMap<>(config).toString();
+        this.jsonClaim = "JSON".equals(config.get(OIDCAttributeMapperHelper.JSON_TYPE));
+    }
+
+    /**
+     * Get the plan of a mapper, compiling its config if it is not cached or has changed.
+     */
+    static UserInfoMapperPlan of(ProtocolMapperModel mappingModel)
+    {
+        Map<String, String> config = mappingModel.getConfig() == null ? Map.of() : mappingModel.getConfig();
+        String id = mappingModel.getId();
+        if (id == null) {
+            return new UserInfoMapperPlan(new HashMap<>(config));
+        }
+        UserInfoMapperPlan plan = plans.get(id);
+        if (plan == null || !plan.isCompiledFrom(config)) {
+            plan = new UserInfoMapperPlan(new HashMap<>(config));
+            plans.put(id, plan);
+        }
+        return plan;
+    }
+
+    private boolean isCompiledFrom(Map<String, String> config)
+    {
+        return configHash == config.hashCode() && this.config.equals(config);
+    }
+
+    UserInfoProjection getProjection()
+    {
+        return projection;
+    }
+
+    /**
+     * Professional roles or {@code null} if none are configured.
+     */
+    List<String> getRoles()
+    {
+        return roles;
+    }
+
+    boolean isChildrenOnly()
+    {
+        return childrenOnly;
+    }
+
+    boolean isNegateOutput()
+    {
+        return negateOutput;
+    }
+
+    boolean isCacheClaim()
+    {
+        return cacheClaim;
+    }
+
+    /**
+     * Is the claim of JSON type, so it can be mapped as JSON tree.
+     */
+    boolean isJsonClaim()
+    {
+        return jsonClaim;
+    }
+
+    /**
+     * Config the plan was compiled from with sorted entries, equal for equal configs.
+     */
+    String getConfigKey()
+    {
+        return configKey;
+    }
+}
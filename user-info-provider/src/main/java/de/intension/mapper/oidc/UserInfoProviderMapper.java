@@ -46,6 +46,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 
 import de.intension.api.UserInfoAttribute;
 import de.intension.api.json.UserInfo;
+import de.intension.mapper.user.UserAttributeSnapshot;
 import de.intension.mapper.user.UserInfoHelper;
 
 public class UserInfoProviderMapper extends AbstractOIDCProtocolMapper
@@ -57,10 +58,11 @@ public class UserInfoProviderMapper extends AbstractOIDCProtocolMapper
     public static final String                        USER_INFO_ATTRIBUTE_NAME = "vidisInfo";
     protected static final Logger                     logger                   = Logger.getLogger(UserInfoProviderMapper.class);
     private static final String                       CATEGORY                 = "Vidis Info Mapper";
-    private static final String                       ONLY_CHILDREN_ATTR_NAME  = "childrenOnly";
-    private static final String                       PROFESSIONAL_ROLES       = "professionalRoles";
+    static final String                               ONLY_CHILDREN_ATTR_NAME  = "childrenOnly";
+    static final String                               PROFESSIONAL_ROLES       = "professionalRoles";
     public static final String                        NEGATE_OUTPUT_NAME       = "negateOutput";
     public static final String                        NEGATE_OUTPUT_LABEL_NAME = "Negate output";
+    static final String                               CACHE_CLAIM_NAME         = "cacheClaim";
 
     private static final List<ProviderConfigProperty> configProperties         = new ArrayList<>();
 
@@ -92,6 +94,7 @@ public class UserInfoProviderMapper extends AbstractOIDCProtocolMapper
         addConfigEntry(PERSON_KONTEXT_LOESCHUNG);
         addOnlyChildrenClaims();
         addAttributesBasedOnRole();
+        addCacheClaim();
         OIDCAttributeMapperHelper.addAttributeConfig(configProperties, UserInfoProviderMapper.class);
         setDefaultTokenClaimNameValue();
         setDefaultTokenClaimType();
@@ -173,40 +176,87 @@ public class UserInfoProviderMapper extends AbstractOIDCProtocolMapper
         configProperties.add(negateOutput);
     }
 
+    private static void addCacheClaim()
+    {
+        ProviderConfigProperty property = new ProviderConfigProperty();
+        property.setName(CACHE_CLAIM_NAME);
+        property.setLabel("Cache claim");
+        property.setDefaultValue("false");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property
+            .setHelpText("Keep the serialized claim in the user session and reuse it on token refresh as long as the user attributes and the mapper config are unchanged. Changes of group attributes are picked up with the next login. Not used with 'Add only child attributes'. The claim contains personal data (e.g. names, date of birth, school contexts), which is persisted with the user session in the database. The note is written again at least once a day, as the current date is part of its fingerprint.");
+        configProperties.add(property);
+    }
+
     @Override
     protected void setClaim(IDToken token, ProtocolMapperModel mappingModel, UserSessionModel userSession, KeycloakSession keycloakSession,
                             ClientSessionContext clientSessionCtx)
     {
-        UserInfo userInfo = userInfoHelper.getUserInfoFromKeycloakUser(keycloakSession, userSession, token, mappingModel);
+        UserInfoMapperPlan plan = UserInfoMapperPlan.of(mappingModel);
+        UserAttributeSnapshot attributes = UserAttributeSnapshot.of(userSession.getUser());
+        if (plan.isCacheClaim() && !plan.isChildrenOnly() && mappingModel.getId() != null) {
+            setCachedClaim(token, mappingModel, plan, attributes, userSession, keycloakSession);
+            return;
+        }
+        UserInfo userInfo = getUserInfo(token, plan, attributes, userSession, keycloakSession);
         if (!userInfo.isEmpty()) {
-            String onlyChildren = mappingModel.getConfig().get(ONLY_CHILDREN_ATTR_NAME);
-
-            String rolesToCheck = mappingModel.getConfig().get(PROFESSIONAL_ROLES);
-            boolean negateOutput = Boolean.parseBoolean(mappingModel.getConfig().get(NEGATE_OUTPUT_NAME));
-            if (rolesToCheck != null && !rolesToCheck.trim().isEmpty()) {
-                boolean showPersonDetails = userInfoHelper.checkUserAttributeRoles(rolesToCheck, null, userSession.getUser(), negateOutput);
-                if (!showPersonDetails) {
-                    userInfo.removePersonNameTag();
-                }
-            }
-
             try {
-                if (!Boolean.parseBoolean(onlyChildren)) {
-                    OIDCAttributeMapperHelper.mapClaim(token, mappingModel, userInfo.getJsonRepresentation());
+                if (!plan.isChildrenOnly()) {
+                    // JSON claims take the tree as is, serializing it to a String would only have it parsed again
+                    OIDCAttributeMapperHelper.mapClaim(token, mappingModel, plan.isJsonClaim() ? userInfo.getJsonTree() : userInfo.getJsonRepresentation());
                 }
                 else {
-                    for (Map.Entry<ProtocolMapperModel, String> entry : userInfo
-                        .getChildJsonRepresentations(OIDCAttributeMapperHelper.includeInAccessToken(mappingModel),
-                                                     OIDCAttributeMapperHelper.includeInIDToken(mappingModel),
-                                                     OIDCAttributeMapperHelper.includeInUserInfo(mappingModel))
+                    for (Map.Entry<ProtocolMapperModel, Object> entry : userInfo
+                        .getChildJsonTrees(OIDCAttributeMapperHelper.includeInAccessToken(mappingModel),
+                                           OIDCAttributeMapperHelper.includeInIDToken(mappingModel),
+                                           OIDCAttributeMapperHelper.includeInUserInfo(mappingModel))
                         .entrySet()) {
                         OIDCAttributeMapperHelper.mapClaim(token, entry.getKey(), entry.getValue());
                     }
                 }
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                logger.error("Error while creating userInfo claim", e);
+            }
+        }
+    }
+
+    /**
+     * Map the claim cached in the user session, building and caching it if the user or the mapper have changed.
+     */
+    private void setCachedClaim(IDToken token, ProtocolMapperModel mappingModel, UserInfoMapperPlan plan, UserAttributeSnapshot attributes,
+                                UserSessionModel userSession, KeycloakSession keycloakSession)
+    {
+        String fingerprint = UserInfoClaimCache.fingerprint(plan, attributes, token);
+        String json = UserInfoClaimCache.get(userSession, mappingModel.getId(), fingerprint);
+        if (json == null) {
+            UserInfo userInfo = getUserInfo(token, plan, attributes, userSession, keycloakSession);
+            try {
+                json = userInfo.isEmpty() ? "" : userInfo.getJsonRepresentation();
             } catch (JsonProcessingException e) {
                 logger.error("Error while creating userInfo claim", e);
+                return;
+            }
+            UserInfoClaimCache.put(userSession, mappingModel.getId(), fingerprint, json);
+        }
+        if (!json.isEmpty()) {
+            OIDCAttributeMapperHelper.mapClaim(token, mappingModel, json);
+        }
+    }
+
+    /**
+     * Build the userInfo of the user, without the person name if the professional roles do not match.
+     */
+    private UserInfo getUserInfo(IDToken token, UserInfoMapperPlan plan, UserAttributeSnapshot attributes, UserSessionModel userSession,
+                                 KeycloakSession keycloakSession)
+    {
+        UserInfo userInfo = userInfoHelper.getUserInfoFromKeycloakUser(keycloakSession, userSession, attributes, token, plan.getProjection());
+        if (!userInfo.isEmpty() && plan.getRoles() != null) {
+            boolean showPersonDetails = userInfoHelper.checkUserAttributeRoles(plan.getRoles(), null, attributes, plan.isNegateOutput());
+            if (!showPersonDetails) {
+                userInfo.removePersonNameTag();
             }
         }
+        return userInfo;
     }
 
     @Override
@@ -0,0 +1,163 @@
+package de.intension.mapper.user;
+
+import java.util.*;
+
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Immutable snapshot of the attributes of a user, taken once per token instead of walking the user attributes and
+ * groups for every resolved attribute.
+ * <p>
+ * Attributes resolve like {@link KeycloakModelUtils#resolveAttribute(UserModel, String, boolean)} without
+ * aggregation: the values of the user if there are any, otherwise those of the first group of the user which has the
+ * attribute itself or on one of its parents. The attributes of the groups are read once, on the first attribute the
+ * user does not have. A snapshot is meant to be used by the thread which took it.
+ */
+public final class UserAttributeSnapshot
+{
+
+    private static final String             KONTEXT_PREFIX   = "person.kontext[";
+    /**
+     * Digits of an index which always fit into an int.
+     */
+    private static final int                MAX_INDEX_DIGITS = 9;
+
+    private final UserModel                 user;
+    private final Map<String, List<String>> userAttributes;
+    private Map<String, List<String>>       groupAttributes;
+    private SortedSet<Integer>              personenKontextIndizes;
+
+    private UserAttributeSnapshot(UserModel user, Map<String, List<String>> userAttributes)
+    {
+        this.user = user;
+        this.userAttributes = userAttributes;
+    }
+
+    /**
+     * Take a snapshot of the current attributes of the user.
+     */
+    public static UserAttributeSnapshot of(UserModel user)
+    {
+        Map<String, List<String>> attributes = user.getAttributes();
+        return new UserAttributeSnapshot(user, attributes == null ? Map.of() : Collections.unmodifiableMap(new HashMap<>(attributes)));
+    }
+
+    /**
+     * User the snapshot was taken of, for properties which are not attributes.
+     */
+    public UserModel getUser()
+    {
+        return user;
+    }
+
+    /**
+     * Attributes of the user itself, without those inherited from groups.
+     */
+    public Map<String, List<String>> getUserAttributes()
+    {
+        return userAttributes;
+    }
+
+    /**
+     * Names of the attributes of the user itself, without those inherited from groups.
+     */
+    public Set<String> getUserAttributeNames()
+    {
+        return userAttributes.keySet();
+    }
+
+    /**
+     * Indices of the Personenkontexte of the user, found in the names of its {@code person.kontext[<index>].*}
+     * attributes. Parsed on the first call and shared by everything reading the snapshot.
+     */
+    public SortedSet<Integer> getPersonenKontextIndizes()
+    {
+        if (personenKontextIndizes == null) {
+            SortedSet<Integer> indices = new TreeSet<>();
+            for (String name : userAttributes.keySet()) {
+                int index = parsePersonenKontextIndex(name);
+                if (index >= 0) {
+                    indices.add(index);
+                }
+            }
+            personenKontextIndizes = Collections.unmodifiableSortedSet(indices);
+        }
+        return personenKontextIndizes;
+    }
+
+    /**
+     * Parse the index of an attribute name like {@code person.kontext[<index>].<field>}.
+     *
+     * @return Index or {@code -1} if the name does not belong to a Personenkontext
+     */
+    static int parsePersonenKontextIndex(String name)
+    {
+        if (!name.startsWith(KONTEXT_PREFIX)) {
+            return -1;
+        }
+        int index = 0;
+        int position = KONTEXT_PREFIX.length();
+        // only ASCII digits, Character.isDigit also accepts e.g. Arabic-Indic digits that are no valid index
+        while (position < name.length() && name.charAt(position) >= '0' && name.charAt(position) <= '9') {
+            if (position - KONTEXT_PREFIX.length() == MAX_INDEX_DIGITS) {
+                return -1;
+            }
+            index = index * 10 + (name.charAt(position) - '0');
+            position++;
+        }
+        boolean closed = position > KONTEXT_PREFIX.length() && position + 1 < name.length()
+                && name.charAt(position) == ']' && name.charAt(position + 1) == '.';
+        return closed ? index : -1;
+    }
+
+    /**
+     * Resolve the values of an attribute of the user or its groups.
+     *
+     * @return Values or an empty collection if neither the user nor one of its groups has the attribute
+     */
+    public Collection<String> resolve(String name)
+    {
+        List<String> values = userAttributes.get(name);
+        if (values != null && !values.isEmpty()) {
+            return values;
+        }
+        if (groupAttributes == null) {
+            groupAttributes = loadGroupAttributes(user);
+        }
+        return groupAttributes.getOrDefault(name, List.of());
+    }
+
+    /**
+     * Resolve the first value of an attribute of the user or its groups.
+     *
+     * @return First value or {@code null}
+     */
+    public String resolveFirst(String name)
+    {
+        Collection<String> values = resolve(name);
+        return values.isEmpty() ? null : values.iterator().next();
+    }
+
+    /**
+     * Attributes of all groups of the user, the first group in order which has an attribute itself or on a parent
+     * wins.
+     */
+    private static Map<String, List<String>> loadGroupAttributes(UserModel user)
+    {
+        Map<String, List<String>> attributes = new HashMap<>();
+        user.getGroupsStream().forEach(group -> {
+            Map<String, List<String>> ofGroup = new HashMap<>();
+            for (GroupModel current = group; current != null; current = current.getParentId() != null ? current.getParent() : null) {
+                current.getAttributes().forEach((name, values) -> {
+                    if (values != null && !values.isEmpty()) {
+                        ofGroup.putIfAbsent(name, Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(values))));
+                    }
+                });
+            }
+            ofGroup.forEach(attributes::putIfAbsent);
+        });
+        return attributes;
+    }
+}
@@ -8,14 +8,11 @@ import de.intension.api.json.*;
 import de.intension.util.JsonSerialization;
 import org.jboss.logging.Logger;
 import org.keycloak.models.*;
-import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.representations.IDToken;
 import org.keycloak.utils.StringUtil;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static de.intension.api.UserInfoAttribute.*;
@@ -35,13 +32,31 @@ public class UserInfoHelper
      * Create userInfo attribute from users attributes.
      */
     public UserInfo getUserInfoFromKeycloakUser(KeycloakSession keycloakSession, UserSessionModel session, IDToken token, ProtocolMapperModel mappingModel)
+    {
+        return getUserInfoFromKeycloakUser(keycloakSession, session, UserAttributeSnapshot.of(session.getUser()), token, mappingModel);
+    }
+
+    /**
+     * Create userInfo attribute from a snapshot of the users attributes.
+     */
+    public UserInfo getUserInfoFromKeycloakUser(KeycloakSession keycloakSession, UserSessionModel session, UserAttributeSnapshot attributes, IDToken token,
+                                                ProtocolMapperModel mappingModel)
+    {
+        return getUserInfoFromKeycloakUser(keycloakSession, session, attributes, token, UserInfoProjection.of(mappingModel));
+    }
+
+    /**
+     * Create userInfo attribute with the fields of a compiled mapper config from a snapshot of the users attributes.
+     */
+    public UserInfo getUserInfoFromKeycloakUser(KeycloakSession keycloakSession, UserSessionModel session, UserAttributeSnapshot attributes, IDToken token,
+                                                UserInfoProjection projection)
     {
         UserInfo userInfo = new UserInfo();
         userInfo.setPid(getSubject(token, session));
-        String heimatOrgId = addHeimatOrganisation(keycloakSession, session, userInfo, mappingModel);
-        addPerson(userInfo, mappingModel, session.getUser());
-        addDefaultPersonKontext(userInfo, mappingModel, session.getUser(), heimatOrgId);
-        addPersonenKontextArray(userInfo, mappingModel, session.getUser(), heimatOrgId);
+        String heimatOrgId = addHeimatOrganisation(keycloakSession, session, attributes, userInfo, projection);
+        addPerson(userInfo, projection, attributes);
+        addDefaultPersonKontext(userInfo, projection, attributes, heimatOrgId);
+        addPersonenKontextArray(userInfo, projection, attributes, heimatOrgId);
         return userInfo;
     }
 
@@ -67,16 +82,16 @@ public class UserInfoHelper
     /**
      * Add {@link Personenkontext} json structure to userInfo claim.
      */
-    private void addDefaultPersonKontext(UserInfo userInfo, ProtocolMapperModel mappingModel, UserModel user, String heimatOrgId)
+    private void addDefaultPersonKontext(UserInfo userInfo, UserInfoProjection projection, UserAttributeSnapshot attributes, String heimatOrgId)
     {
         Personenkontext kontext = new Personenkontext();
-        Rolle rolle = getRolle(user, -1);
-        kontext.setId(getKit(user, heimatOrgId, rolle, -1));
-        if (isActive(PERSON_KONTEXT_ROLLE, mappingModel)) {
+        Rolle rolle = getRolle(attributes, -1);
+        kontext.setId(getKit(attributes, heimatOrgId, rolle, -1));
+        if (projection.isActive(PERSON_KONTEXT_ROLLE)) {
             kontext.setRolle(rolle);
         }
-        if (isActive(PERSON_KONTEXT_STATUS, mappingModel)) {
-            String status = resolveSingleAttributeValue(user, PERSON_KONTEXT_STATUS);
+        if (projection.isActive(PERSON_KONTEXT_STATUS)) {
+            String status = resolveSingleAttributeValue(attributes, PERSON_KONTEXT_STATUS);
             if (status != null) {
                 try {
                     kontext.setPersonenstatus(PersonenStatus.valueOf(status));
@@ -85,15 +100,15 @@ public class UserInfoHelper
                 }
             }
         }
-        Organisation organisation = getOrganisation(mappingModel, user, heimatOrgId, rolle, userInfo);
+        Organisation organisation = getOrganisation(projection, attributes, heimatOrgId, rolle, userInfo);
         if (!organisation.isEmpty()) {
             kontext.setOrganisation(organisation);
         }
-        if (isActive(PERSON_KONTEXT_GRUPPEN, mappingModel)) {
-            addGruppenToKontext(user, kontext, PERSON_KONTEXT_GRUPPEN.getAttributeName());
+        if (projection.isActive(PERSON_KONTEXT_GRUPPEN)) {
+            addGruppenToKontext(attributes, kontext, PERSON_KONTEXT_GRUPPEN.getAttributeName());
         }
-        if (isActive(PERSON_KONTEXT_LOESCHUNG, mappingModel)) {
-            addLoeschungToPersonenkontext(user, kontext);
+        if (projection.isActive(PERSON_KONTEXT_LOESCHUNG)) {
+            addLoeschungToPersonenkontext(attributes, kontext);
         }
         if (!kontext.isEmpty()) {
             userInfo.getPersonenKontexte().add(kontext);
@@ -103,19 +118,19 @@ public class UserInfoHelper
     /**
      * Add {@link Organisation} json structure to userInfo claim.
      */
-    private Organisation getOrganisation(ProtocolMapperModel mappingModel, UserModel user, String heimatOrgId, Rolle rolle, UserInfo userInfo)
+    private Organisation getOrganisation(UserInfoProjection projection, UserAttributeSnapshot attributes, String heimatOrgId, Rolle rolle, UserInfo userInfo)
     {
         Organisation organisation = new Organisation();
-        String kennung = resolveSingleAttributeValue(user, PERSON_KONTEXT_ORG_KENNUNG);
-        organisation.setOrgid(getOrgId(user, heimatOrgId, rolle, kennung, -1));
-        if (isActive(PERSON_KONTEXT_ORG_NAME, mappingModel)) {
-            organisation.setName(resolveSingleAttributeValue(user, PERSON_KONTEXT_ORG_NAME));
+        String kennung = resolveSingleAttributeValue(attributes, PERSON_KONTEXT_ORG_KENNUNG);
+        organisation.setOrgid(getOrgId(attributes, heimatOrgId, rolle, kennung, -1));
+        if (projection.isActive(PERSON_KONTEXT_ORG_NAME)) {
+            organisation.setName(resolveSingleAttributeValue(attributes, PERSON_KONTEXT_ORG_NAME));
         }
-        if (isActive(PERSON_KONTEXT_ORG_KENNUNG, mappingModel)) {
+        if (projection.isActive(PERSON_KONTEXT_ORG_KENNUNG)) {
             organisation.setKennung(kennung);
         }
-        if (isActive(PERSON_KONTEXT_ORG_TYP, mappingModel)) {
-            String orgTyp = resolveSingleAttributeValue(user, PERSON_KONTEXT_ORG_TYP);
+        if (projection.isActive(PERSON_KONTEXT_ORG_TYP)) {
+            String orgTyp = resolveSingleAttributeValue(attributes, PERSON_KONTEXT_ORG_TYP);
             if (orgTyp != null) {
                 try {
                     organisation.setTyp(OrganisationsTyp.valueOf(orgTyp));
@@ -124,8 +139,8 @@ public class UserInfoHelper
                 }
             }
         }
-        if (isActive(PERSON_KONTEXT_ORG_VIDIS_ID, mappingModel)) {
-            addVidisSchulIdentifikator(mappingModel, user, userInfo, organisation, kennung, -1);
+        if (projection.isActive(PERSON_KONTEXT_ORG_VIDIS_ID)) {
+            addVidisSchulIdentifikator(projection, attributes, userInfo, organisation, kennung, -1);
         }
         return organisation;
     }
@@ -133,18 +148,19 @@ public class UserInfoHelper
     /**
      * Add @{@link HeimatOrganisation} json structure to userInfo claim.
      */
-    private String addHeimatOrganisation(KeycloakSession keycloakSession, UserSessionModel session, UserInfo userInfo, ProtocolMapperModel mappingModel)
+    private String addHeimatOrganisation(KeycloakSession keycloakSession, UserSessionModel session, UserAttributeSnapshot attributes, UserInfo userInfo,
+                                         UserInfoProjection projection)
     {
         HeimatOrganisation heimatOrganisation = new HeimatOrganisation();
         IdentityProviderModel idpProviderModel = idpHelper.getIdpAlias(keycloakSession, session);
         if (idpProviderModel != null) {
             heimatOrganisation.setId(idpProviderModel.getAlias());
-            if (isActive(HEIMATORGANISATION_NAME, mappingModel)) {
+            if (projection.isActive(HEIMATORGANISATION_NAME)) {
                 heimatOrganisation.setName(idpProviderModel.getDisplayName());
             }
         }
-        if (isActive(HEIMATORGANISATION_BUNDESLAND, mappingModel)) {
-            heimatOrganisation.setBundesland(resolveSingleAttributeValue(session.getUser(), HEIMATORGANISATION_BUNDESLAND));
+        if (projection.isActive(HEIMATORGANISATION_BUNDESLAND)) {
+            heimatOrganisation.setBundesland(resolveSingleAttributeValue(attributes, HEIMATORGANISATION_BUNDESLAND));
         }
         if (!heimatOrganisation.isEmpty()) {
             userInfo.setHeimatOrganisation(heimatOrganisation);
@@ -155,17 +171,17 @@ public class UserInfoHelper
     /**
      * Add {@link Person} json structure to userInfo claim.
      */
-    private void addPerson(UserInfo userInfo, ProtocolMapperModel mappingModel, UserModel user)
+    private void addPerson(UserInfo userInfo, UserInfoProjection projection, UserAttributeSnapshot attributes)
     {
         Person person = new Person();
-        addPersonName(person, mappingModel, user);
-        addGeschlecht(person, mappingModel, user);
-        addGeburt(person, mappingModel, user);
-        if (isActive(PERSON_LOKALISIERUNG, mappingModel)) {
-            person.setLokalisierung(resolveSingleAttributeValue(user, PERSON_LOKALISIERUNG));
-        }
-        if (isActive(PERSON_VERTRAUENSSTUFE, mappingModel)) {
-            String vertrauensstufe = resolveSingleAttributeValue(user, PERSON_VERTRAUENSSTUFE);
+        addPersonName(person, projection, attributes);
+        addGeschlecht(person, projection, attributes);
+        addGeburt(person, projection, attributes);
+        if (projection.isActive(PERSON_LOKALISIERUNG)) {
+            person.setLokalisierung(resolveSingleAttributeValue(attributes, PERSON_LOKALISIERUNG));
+        }
+        if (projection.isActive(PERSON_VERTRAUENSSTUFE)) {
+            String vertrauensstufe = resolveSingleAttributeValue(attributes, PERSON_VERTRAUENSSTUFE);
             if (vertrauensstufe != null) {
                 try {
                     person.setVertrauensstufe(Vertrauensstufe.valueOf(vertrauensstufe));
@@ -179,33 +195,33 @@ public class UserInfoHelper
         }
     }
 
-    private void addLoeschungToPersonenkontext(UserModel user, Personenkontext personenkontext)
+    private void addLoeschungToPersonenkontext(UserAttributeSnapshot attributes, Personenkontext personenkontext)
     {
-        addLoeschungToPersonenkontext(user, personenkontext, null);
+        addLoeschungToPersonenkontext(attributes, personenkontext, null);
     }
 
     /**
      * Add {@link PersonName} json structure to userInfo claim.
      */
-    private void addPersonName(Person person, ProtocolMapperModel mappingModel, UserModel user)
+    private void addPersonName(Person person, UserInfoProjection projection, UserAttributeSnapshot attributes)
     {
         PersonName personName = new PersonName();
-        String familienName = getFamilienname(user);
-        String vorname = getVorname(user);
-        if (isActive(PERSON_FAMILIENNAME, mappingModel)) {
+        String familienName = getFamilienname(attributes);
+        String vorname = getVorname(attributes);
+        if (projection.isActive(PERSON_FAMILIENNAME)) {
             personName.setFamilienname(familienName);
         }
-        if (isActive(PERSON_FAMILIENNAME_INITIALEN, mappingModel)) {
-            personName.setInitialenFamilienname(resolveSingleAttributeValue(user, PERSON_FAMILIENNAME_INITIALEN));
+        if (projection.isActive(PERSON_FAMILIENNAME_INITIALEN)) {
+            personName.setInitialenFamilienname(resolveSingleAttributeValue(attributes, PERSON_FAMILIENNAME_INITIALEN));
         }
-        if (isActive(PERSON_VORNAME, mappingModel)) {
+        if (projection.isActive(PERSON_VORNAME)) {
             personName.setVorname(vorname);
         }
-        if (isActive(PERSON_VORNAME_INITIALEN, mappingModel)) {
-            personName.setInitialenVorname(resolveSingleAttributeValue(user, PERSON_VORNAME_INITIALEN));
+        if (projection.isActive(PERSON_VORNAME_INITIALEN)) {
+            personName.setInitialenVorname(resolveSingleAttributeValue(attributes, PERSON_VORNAME_INITIALEN));
         }
-        if (isActive(PERSON_AKRONYM, mappingModel)) {
-            String akronym = resolveSingleAttributeValue(user, PERSON_AKRONYM);
+        if (projection.isActive(PERSON_AKRONYM)) {
+            String akronym = resolveSingleAttributeValue(attributes, PERSON_AKRONYM);
             if (StringUtil.isBlank(akronym) && vorname != null && vorname.length() >= 2 && familienName != null && familienName.length() >= 2) {
                 akronym = vorname.substring(0, 2).concat(familienName.substring(0, 2));
             }
@@ -221,11 +237,11 @@ public class UserInfoHelper
     /**
      * Get first name either from user attribute or user property (fallback).
      */
-    private String getVorname(UserModel user)
+    private String getVorname(UserAttributeSnapshot attributes)
     {
-        String vorname = resolveSingleAttributeValue(user, PERSON_VORNAME);
+        String vorname = resolveSingleAttributeValue(attributes, PERSON_VORNAME);
         if (vorname == null || vorname.isEmpty()) {
-            vorname = user.getFirstName();
+            vorname = attributes.getUser().getFirstName();
         }
         return vorname;
     }
@@ -233,11 +249,11 @@ public class UserInfoHelper
     /**
      * Get last name either from user attribute or user property (fallback).
      */
-    private String getFamilienname(UserModel user)
+    private String getFamilienname(UserAttributeSnapshot attributes)
     {
-        String familienname = resolveSingleAttributeValue(user, PERSON_FAMILIENNAME);
+        String familienname = resolveSingleAttributeValue(attributes, PERSON_FAMILIENNAME);
         if (familienname == null || familienname.isEmpty()) {
-            familienname = user.getLastName();
+            familienname = attributes.getUser().getLastName();
         }
         return familienname;
     }
@@ -245,10 +261,10 @@ public class UserInfoHelper
     /**
      * Add {@link Geschlecht} json structure to userInfo claim.
      */
-    private void addGeschlecht(Person person, ProtocolMapperModel mappingModel, UserModel user)
+    private void addGeschlecht(Person person, UserInfoProjection projection, UserAttributeSnapshot attributes)
     {
-        if (isActive(PERSON_GESCHLECHT, mappingModel)) {
-            String geschlecht = resolveSingleAttributeValue(user, PERSON_GESCHLECHT);
+        if (projection.isActive(PERSON_GESCHLECHT)) {
+            String geschlecht = resolveSingleAttributeValue(attributes, PERSON_GESCHLECHT);
             if (geschlecht != null) {
                 try {
                     person.setGeschlecht(Geschlecht.valueOf(geschlecht));
@@ -259,15 +275,15 @@ public class UserInfoHelper
         }
     }
 
-    private void addLoeschungToPersonenkontext(UserModel user, Personenkontext kontext, Integer indexOfPersonenkontext)
+    private void addLoeschungToPersonenkontext(UserAttributeSnapshot attributes, Personenkontext kontext, Integer indexOfPersonenkontext)
     {
         UserInfoAttribute attribute = indexOfPersonenkontext == null ? PERSON_KONTEXT_LOESCHUNG : PERSON_KONTEXT_ARRAY_LOESCHUNG;
-        String loeschungJson = resolveSingleAttributeValue(user, attribute, indexOfPersonenkontext);
+        String loeschungJson = resolveSingleAttributeValue(attributes, attribute, indexOfPersonenkontext);
         if (StringUtil.isNotBlank(loeschungJson)) {
             try {
                 kontext.setLoeschung(JsonSerialization.readValue(loeschungJson, Loeschung.class));
             } catch (JsonProcessingException e) {
-                logger.errorf(e, "Could not read Attribute %s from user %s", PERSON_KONTEXT_ARRAY_LOESCHUNG.getAttributeName(), user.getUsername());
+                logger.errorf(e, "Could not read Attribute %s from user %s", PERSON_KONTEXT_ARRAY_LOESCHUNG.getAttributeName(), attributes.getUser().getUsername());
             }
         }
     }
@@ -275,17 +291,11 @@ public class UserInfoHelper
     /**
      * Resolve single user attribute value with array support (index >= 0).
      */
-    private String resolveSingleAttributeValue(UserModel user, UserInfoAttribute attribute, Integer index)
+    private String resolveSingleAttributeValue(UserAttributeSnapshot attributes, UserInfoAttribute attribute, Integer index)
     {
-        Collection<String> values;
-        if (index == null) {
-            values = KeycloakModelUtils.resolveAttribute(user, attribute.getAttributeName(), false);
-        }
-        else {
-            values = KeycloakModelUtils.resolveAttribute(user, getIndexedAttributeName(attribute, index), false);
-        }
-        if (!values.isEmpty()) {
-            return values.stream().iterator().next();
+        String value = attributes.resolveFirst(index == null ? attribute.getAttributeName() : getIndexedAttributeName(attribute, index));
+        if (value != null) {
+            return value;
         }
         else if (attribute.getDefaultValue() != null) {
             return attribute.getDefaultValue().toString();
@@ -298,11 +308,11 @@ public class UserInfoHelper
         return attribute.getAttributeName().replace("#", String.valueOf(index));
     }
 
-    private void addGruppenToKontext(UserModel user, Personenkontext kontext, String attributeName)
+    private void addGruppenToKontext(UserAttributeSnapshot attributes, Personenkontext kontext, String attributeName)
     {
         int index = 0;
         String indexedAttribute = String.format(INDEXED_ATTR_FORMAT, attributeName, index);
-        String json = resolveSplittedAttribute(user, indexedAttribute);
+        String json = resolveSplittedAttribute(attributes, indexedAttribute);
         while (StringUtil.isNotBlank(json)) {
             try {
                 GruppeWithZugehoerigkeit gruppe = JsonSerialization.readValue(json, GruppeWithZugehoerigkeit.class);
@@ -311,37 +321,36 @@ public class UserInfoHelper
                 }
                 kontext.getGruppen().add(gruppe);
             } catch (JsonProcessingException e) {
-                logger.errorf(e, "Could not deserialize person.kontext.gruppen[%d] for user %s.", index, user.getUsername());
+                logger.errorf(e, "Could not deserialize person.kontext.gruppen[%d] for user %s.", index, attributes.getUser().getUsername());
             }
             indexedAttribute = String.format(INDEXED_ATTR_FORMAT, attributeName, ++index);
-            json = resolveSplittedAttribute(user, indexedAttribute);
+            json = resolveSplittedAttribute(attributes, indexedAttribute);
         }
     }
 
     /**
      * Add personenkontext arrays.
      */
-    private void addPersonenKontextArray(UserInfo userInfo, ProtocolMapperModel mappingModel, UserModel user, String heimatOrgId)
+    private void addPersonenKontextArray(UserInfo userInfo, UserInfoProjection projection, UserAttributeSnapshot attributes, String heimatOrgId)
     {
-        Set<Integer> indizes = getPersonenKontexteIndizes(user);
+        Set<Integer> indizes = attributes.getPersonenKontextIndizes();
         for (Integer i : indizes) {
-            Personenkontext kontext = getKontextArr(userInfo, mappingModel, user, heimatOrgId, i);
+            Personenkontext kontext = getKontextArr(userInfo, projection, attributes, heimatOrgId, i);
             if (!kontext.isEmpty()) {
                 userInfo.getPersonenKontexte().add(kontext);
             }
         }
     }
 
-    private String resolveSplittedAttribute(UserModel user, String attributeName)
+    private String resolveSplittedAttribute(UserAttributeSnapshot attributes, String attributeName)
     {
         StringBuilder jsonBuilder = new StringBuilder();
         int partialIndex = 0;
-        Optional<String> partial = KeycloakModelUtils.resolveAttribute(user, attributeName, false).stream()
-            .findFirst();
+        Optional<String> partial = Optional.ofNullable(attributes.resolveFirst(attributeName));
         while (partial.isPresent() && partial.get().length() == 255) {
             jsonBuilder.append(partial.get());
             partialIndex++;
-            partial = KeycloakModelUtils.resolveAttribute(user, attributeName + "_" + partialIndex, false).stream().findFirst();
+            partial = Optional.ofNullable(attributes.resolveFirst(attributeName + "_" + partialIndex));
         }
         partial.ifPresent(jsonBuilder::append);
         return jsonBuilder.toString();
@@ -350,19 +359,19 @@ public class UserInfoHelper
     /**
      * Add {@link Organisation} json structure to userInfo claim.
      */
-    private Organisation getOrganisationArray(ProtocolMapperModel mappingModel, UserModel user, String heimatOrgId, Rolle rolle, Integer i, UserInfo userInfo)
+    private Organisation getOrganisationArray(UserInfoProjection projection, UserAttributeSnapshot attributes, String heimatOrgId, Rolle rolle, Integer i, UserInfo userInfo)
     {
         Organisation organisation = new Organisation();
-        String kennung = resolveSingleAttributeValue(user, PERSON_KONTEXT_ARRAY_ORG_KENNUNG, i);
-        organisation.setOrgid(getOrgId(user, heimatOrgId, rolle, kennung, i));
-        if (isActive(PERSON_KONTEXT_ORG_NAME, mappingModel)) {
-            organisation.setName(resolveSingleAttributeValue(user, PERSON_KONTEXT_ARRAY_ORG_NAME, i));
+        String kennung = resolveSingleAttributeValue(attributes, PERSON_KONTEXT_ARRAY_ORG_KENNUNG, i);
+        organisation.setOrgid(getOrgId(attributes, heimatOrgId, rolle, kennung, i));
+        if (projection.isActive(PERSON_KONTEXT_ORG_NAME)) {
+            organisation.setName(resolveSingleAttributeValue(attributes, PERSON_KONTEXT_ARRAY_ORG_NAME, i));
         }
-        if (isActive(PERSON_KONTEXT_ORG_KENNUNG, mappingModel)) {
+        if (projection.isActive(PERSON_KONTEXT_ORG_KENNUNG)) {
             organisation.setKennung(kennung);
         }
-        if (isActive(PERSON_KONTEXT_ORG_TYP, mappingModel)) {
-            String orgTyp = resolveSingleAttributeValue(user, PERSON_KONTEXT_ARRAY_ORG_TYP, i);
+        if (projection.isActive(PERSON_KONTEXT_ORG_TYP)) {
+            String orgTyp = resolveSingleAttributeValue(attributes, PERSON_KONTEXT_ARRAY_ORG_TYP, i);
             if (orgTyp != null) {
                 try {
                     organisation.setTyp(OrganisationsTyp.valueOf(orgTyp));
@@ -371,8 +380,8 @@ public class UserInfoHelper
                 }
             }
         }
-        if (isActive(PERSON_KONTEXT_ORG_VIDIS_ID, mappingModel)) {
-            addVidisSchulIdentifikator(mappingModel, user, userInfo, organisation, kennung, i);
+        if (projection.isActive(PERSON_KONTEXT_ORG_VIDIS_ID)) {
+            addVidisSchulIdentifikator(projection, attributes, userInfo, organisation, kennung, i);
         }
         return organisation;
     }
@@ -380,15 +389,15 @@ public class UserInfoHelper
     /**
      * Add vidis schulidentifikator to Organisation
      */
-    private void addVidisSchulIdentifikator(ProtocolMapperModel mappingModel, UserModel user, UserInfo userInfo, Organisation org, String kennung,
+    private void addVidisSchulIdentifikator(UserInfoProjection projection, UserAttributeSnapshot attributes, UserInfo userInfo, Organisation org, String kennung,
                                             Integer index)
     {
         UserInfoAttribute attribute = PERSON_KONTEXT_ORG_VIDIS_ID;
         if (index != -1) {
             attribute = PERSON_KONTEXT_ARRAY_ORG_VIDIS_ID;
         }
-        if (isActive(PERSON_KONTEXT_ORG_VIDIS_ID, mappingModel)) {
-            String vidisId = resolveSingleAttributeValue(user, attribute, index);
+        if (projection.isActive(PERSON_KONTEXT_ORG_VIDIS_ID)) {
+            String vidisId = resolveSingleAttributeValue(attributes, attribute, index);
             if (StringUtil.isBlank(vidisId) && userInfo.getHeimatOrganisation() != null
                     && StringUtil.isNotBlank(userInfo.getHeimatOrganisation().getId()) && StringUtil.isNotBlank(kennung)) {
                 org.setVidisSchulidentifikator(String.format("%s.%s", userInfo.getHeimatOrganisation().getId(), kennung).toLowerCase());
@@ -399,54 +408,34 @@ public class UserInfoHelper
         }
     }
 
-    /**
-     * Get all personenkontext indices.
-     */
-    private Set<Integer> getPersonenKontexteIndizes(UserModel user)
-    {
-        Set<Integer> indices = new HashSet<>();
-        Map<String, List<String>> attributes = user.getAttributes();
-        if (attributes != null && !attributes.isEmpty()) {
-            Pattern pattern = Pattern.compile("^person\\.kontext\\[(\\d+)]\\..*");
-            for (String attributeKey : attributes.keySet()) {
-                Matcher matcher = pattern.matcher(attributeKey);
-                if (matcher.matches()) {
-                    String index = matcher.group(1);
-                    indices.add(Integer.valueOf(index));
-                }
-            }
-        }
-        return indices;
-    }
-
     /**
      * Resolve single user attribute value.
      */
-    private String resolveSingleAttributeValue(UserModel user, UserInfoAttribute attribute)
+    private String resolveSingleAttributeValue(UserAttributeSnapshot attributes, UserInfoAttribute attribute)
     {
-        return resolveSingleAttributeValue(user, attribute, null);
+        return resolveSingleAttributeValue(attributes, attribute, null);
     }
 
     /**
      * Add @{@link Geburt} to @{@link Person} json structure.
      */
-    private void addGeburt(Person person, ProtocolMapperModel mappingModel, UserModel user)
+    private void addGeburt(Person person, UserInfoProjection projection, UserAttributeSnapshot attributes)
     {
-        String geburtsdatum = resolveSingleAttributeValue(user, PERSON_GEBURTSDATUM);
+        String geburtsdatum = resolveSingleAttributeValue(attributes, PERSON_GEBURTSDATUM);
         Integer age = null;
         if (birthdayHelper.isValidBirthdayFormat(geburtsdatum)) {
             Geburt geburt = new Geburt();
-            if (isActive(PERSON_GEBURTSDATUM, mappingModel)) {
+            if (projection.isActive(PERSON_GEBURTSDATUM)) {
                 geburt.setDatum(geburtsdatum);
             }
-            if (isActive(PERSON_GEBURTSORT, mappingModel)) {
-                geburt.setGeburtsort(resolveSingleAttributeValue(user, PERSON_GEBURTSORT));
+            if (projection.isActive(PERSON_GEBURTSORT)) {
+                geburt.setGeburtsort(resolveSingleAttributeValue(attributes, PERSON_GEBURTSORT));
             }
-            if (isActive(PERSON_ALTER, mappingModel)) {
+            if (projection.isActive(PERSON_ALTER)) {
                 age = birthdayHelper.calculateAge(geburtsdatum);
                 geburt.setAlter(age);
             }
-            if (isActive(PERSON_VOLLJAEHRIG, mappingModel)) {
+            if (projection.isActive(PERSON_VOLLJAEHRIG)) {
                 age = age == null ? birthdayHelper.calculateAge(geburtsdatum) : age;
                 geburt.setVolljaehrig(volljaehrigkeitHelper.isVolljaehrig(age));
             }
@@ -459,17 +448,17 @@ public class UserInfoHelper
     /**
      * Get single Kontext from array structure.
      */
-    private Personenkontext getKontextArr(UserInfo userInfo, ProtocolMapperModel mappingModel, UserModel user, String heimatOrgId, Integer i)
+    private Personenkontext getKontextArr(UserInfo userInfo, UserInfoProjection projection, UserAttributeSnapshot attributes, String heimatOrgId, Integer i)
     {
-        Rolle rolle = getRolle(user, i);
+        Rolle rolle = getRolle(attributes, i);
         Personenkontext kontext = new Personenkontext();
-        kontext.setId(getKit(user, heimatOrgId, rolle, i));
-        Organisation organisation = getOrganisationArray(mappingModel, user, heimatOrgId, rolle, i, userInfo);
-        if (isActive(PERSON_KONTEXT_ROLLE, mappingModel)) {
+        kontext.setId(getKit(attributes, heimatOrgId, rolle, i));
+        Organisation organisation = getOrganisationArray(projection, attributes, heimatOrgId, rolle, i, userInfo);
+        if (projection.isActive(PERSON_KONTEXT_ROLLE)) {
             kontext.setRolle(rolle);
         }
-        if (isActive(PERSON_KONTEXT_STATUS, mappingModel)) {
-            String status = resolveSingleAttributeValue(user, PERSON_KONTEXT_ARRAY_STATUS, i);
+        if (projection.isActive(PERSON_KONTEXT_STATUS)) {
+            String status = resolveSingleAttributeValue(attributes, PERSON_KONTEXT_ARRAY_STATUS, i);
             if (status != null) {
                 try {
                     kontext.setPersonenstatus(PersonenStatus.valueOf(status));
@@ -478,11 +467,11 @@ public class UserInfoHelper
                 }
             }
         }
-        if (isActive(PERSON_KONTEXT_GRUPPEN, mappingModel)) {
-            addGruppenToKontext(user, kontext, getIndexedAttributeName(PERSON_KONTEXT_ARRAY_GRUPPEN, i));
+        if (projection.isActive(PERSON_KONTEXT_GRUPPEN)) {
+            addGruppenToKontext(attributes, kontext, getIndexedAttributeName(PERSON_KONTEXT_ARRAY_GRUPPEN, i));
         }
-        if (isActive(PERSON_KONTEXT_LOESCHUNG, mappingModel)) {
-            addLoeschungToPersonenkontext(user, kontext, i);
+        if (projection.isActive(PERSON_KONTEXT_LOESCHUNG)) {
+            addLoeschungToPersonenkontext(attributes, kontext, i);
         }
         if (!organisation.isEmpty()) {
             kontext.setOrganisation(organisation);
@@ -493,14 +482,14 @@ public class UserInfoHelper
     /**
      * Get role from person context.
      */
-    private Rolle getRolle(UserModel user, Integer index)
+    private Rolle getRolle(UserAttributeSnapshot attributes, Integer index)
     {
         UserInfoAttribute attribute = PERSON_KONTEXT_ROLLE;
         if (index != -1) {
             attribute = PERSON_KONTEXT_ARRAY_ROLLE;
         }
         Rolle rolle = null;
-        String sRolle = resolveSingleAttributeValue(user, attribute, index);
+        String sRolle = resolveSingleAttributeValue(attributes, attribute, index);
         if (sRolle != null) {
             try {
                 rolle = Rolle.valueOf(sRolle);
@@ -514,13 +503,13 @@ public class UserInfoHelper
     /**
      * Get generated context id hash.
      */
-    private String getKit(UserModel user, String heimatOrgId, Rolle rolle, Integer index)
+    private String getKit(UserAttributeSnapshot attributes, String heimatOrgId, Rolle rolle, Integer index)
     {
         UserInfoAttribute attribute = PERSON_KONTEXT_ID;
         if (index != null) {
             attribute = PERSON_KONTEXT_ARRAY_ID;
         }
-        String kontextId = resolveSingleAttributeValue(user, attribute, index);
+        String kontextId = resolveSingleAttributeValue(attributes, attribute, index);
         if (StringUtil.isBlank(kontextId) && rolle != null && StringUtil.isNotBlank(heimatOrgId)) {
             String builder = rolle.name() + heimatOrgId;
             kontextId = Hashing.sha256()
@@ -533,13 +522,13 @@ public class UserInfoHelper
     /**
      * Get generated organisation id hash.
      */
-    private String getOrgId(UserModel user, String heimatOrgId, Rolle rolle, String kennung, Integer index)
+    private String getOrgId(UserAttributeSnapshot attributes, String heimatOrgId, Rolle rolle, String kennung, Integer index)
     {
         UserInfoAttribute attribute = PERSON_KONTEXT_ORG_ID;
         if (index != -1) {
             attribute = PERSON_KONTEXT_ARRAY_ORG_ID;
         }
-        String orgId = resolveSingleAttributeValue(user, attribute, index);
+        String orgId = resolveSingleAttributeValue(attributes, attribute, index);
         if ((StringUtil.isBlank(orgId)) && rolle != null && StringUtil.isNotBlank(heimatOrgId) && StringUtil.isNotBlank(kennung)) {
             String builder = rolle.name() + heimatOrgId + kennung;
             orgId = Hashing.sha256()
@@ -549,23 +538,23 @@ public class UserInfoHelper
         return orgId;
     }
 
-    /**
-     * Is user attribute send to Service Provider by default.
-     */
-    private boolean isActive(UserInfoAttribute userInfoAttribute, ProtocolMapperModel mappingModel)
+    public boolean checkUserAttributeRoles(String rolesToCheck, List<String> multiValuedAttributes, UserModel user, boolean negateOutput)
     {
-        String value = mappingModel.getConfig().get(userInfoAttribute.getAttributeName());
-        return Boolean.parseBoolean(value);
+        return checkUserAttributeRoles(rolesToCheck, multiValuedAttributes, UserAttributeSnapshot.of(user), negateOutput);
     }
 
-    public boolean checkUserAttributeRoles(String rolesToCheck, List<String> multiValuedAttributes, UserModel user, boolean negateOutput)
+    public boolean checkUserAttributeRoles(String rolesToCheck, List<String> multiValuedAttributes, UserAttributeSnapshot attributes, boolean negateOutput)
+    {
+        return checkUserAttributeRoles(splitRoles(rolesToCheck), multiValuedAttributes, attributes, negateOutput);
+    }
+
+    public boolean checkUserAttributeRoles(List<String> roles, List<String> multiValuedAttributes, UserAttributeSnapshot attributes, boolean negateOutput)
     {
         boolean roleFound = true;
-        List<String> roles = splitAndTrimUsingStreams(rolesToCheck);
         if (multiValuedAttributes != null && !multiValuedAttributes.isEmpty()) {
             for (String multiValuedAttribute : multiValuedAttributes) {
                 Collection<String> values;
-                values = KeycloakModelUtils.resolveAttribute(user, multiValuedAttribute, false);
+                values = attributes.resolve(multiValuedAttribute);
                 if (!roles.isEmpty()) {
                     if (values.containsAll(roles)) {
                         return roleFound != negateOutput;
@@ -574,16 +563,16 @@ public class UserInfoHelper
             }
         }
 
-        Rolle rolle = getRolle(user, -1);
+        Rolle rolle = getRolle(attributes, -1);
         if (rolle != null) {
             if (roles.contains(rolle.name())) {
                 return roleFound != negateOutput;
             }
         }
 
-        Set<Integer> indizes = getPersonenKontexteIndizes(user);
+        Set<Integer> indizes = attributes.getPersonenKontextIndizes();
         for (Integer i : indizes) {
-            rolle = getRolle(user, i);
+            rolle = getRolle(attributes, i);
             if (rolle != null) {
                 if (roles.contains(rolle.name())) {
                     return roleFound != negateOutput;
@@ -593,7 +582,10 @@ public class UserInfoHelper
         return negateOutput;
     }
 
-    private static List<String> splitAndTrimUsingStreams(String inputString)
+    /**
+     * Split a comma separated list of roles.
+     */
+    public static List<String> splitRoles(String inputString)
     {
         return Arrays.stream(inputString.split(COMMA_DELIMITER))
             .map(String::trim)
@@ -0,0 +1,46 @@
+package de.intension.mapper.user;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.keycloak.models.ProtocolMapperModel;
+
+import de.intension.api.UserInfoAttribute;
+
+/**
+ * Fields of the userInfo claim enabled in the config of a mapper, parsed once instead of for every field and
+ * Personenkontext of every token.
+ */
+public final class UserInfoProjection
+{
+
+    private final Set<UserInfoAttribute> activeAttributes;
+
+    private UserInfoProjection(Set<UserInfoAttribute> activeAttributes)
+    {
+        this.activeAttributes = activeAttributes;
+    }
+
+    /**
+     * Compile the config of a mapper, an attribute is active if its config value is {@code true}.
+     */
+    public static UserInfoProjection of(ProtocolMapperModel mappingModel)
+    {
+        Map<String, String> config = mappingModel.getConfig();
+        Set<UserInfoAttribute> activeAttributes = EnumSet.noneOf(UserInfoAttribute.class);
+        if (config != null) {
+            for (UserInfoAttribute attribute : UserInfoAttribute.values()) {
+                if (Boolean.parseBoolean(config.get(attribute.getAttributeName()))) {
+                    activeAttributes.add(attribute);
+                }
+            }
+        }
+        return new UserInfoProjection(activeAttributes);
+    }
+
+    public boolean isActive(UserInfoAttribute attribute)
+    {
+        return activeAttributes.contains(attribute);
+    }
+}
@@ -0,0 +1,73 @@
+package de.intension.mapper.oidc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ProtocolMapperModel;
+
+import de.intension.api.UserInfoAttribute;
+
+class UserInfoMapperPlanTest
+{
+
+    /**
+     * GIVEN: a mapper config with fields, roles and flags
+     * WHEN: the config is compiled
+     * THEN: the plan has exactly the enabled fields and the parsed roles and flags
+     */
+    @Test
+    void should_compile_mapper_config()
+    {
+        ProtocolMapperModel model = createMapperModel("plan-compile", Map.of(UserInfoAttribute.PERSON_VORNAME.getAttributeName(), "true",
+                                                                            UserInfoAttribute.PERSON_FAMILIENNAME.getAttributeName(), "false",
+                                                                            UserInfoProviderMapper.PROFESSIONAL_ROLES, "LEHR, LEIT",
+                                                                            UserInfoProviderMapper.ONLY_CHILDREN_ATTR_NAME, "true"));
+
+        UserInfoMapperPlan plan = UserInfoMapperPlan.of(model);
+
+        assertTrue(plan.getProjection().isActive(UserInfoAttribute.PERSON_VORNAME));
+        assertFalse(plan.getProjection().isActive(UserInfoAttribute.PERSON_FAMILIENNAME));
+        assertFalse(plan.getProjection().isActive(UserInfoAttribute.PERSON_GESCHLECHT));
+        assertEquals(List.of("LEHR", "LEIT"), plan.getRoles());
+        assertTrue(plan.isChildrenOnly());
+        assertFalse(plan.isNegateOutput());
+    }
+
+    /**
+     * GIVEN: a compiled mapper
+     * WHEN: the plan of the mapper is requested again with the same config and after the config was updated
+     * THEN: the cached plan is reused until the config changes
+     */
+    @Test
+    void should_recompile_when_mapper_config_changes()
+    {
+        ProtocolMapperModel model = createMapperModel("plan-update", Map.of(UserInfoAttribute.PERSON_VORNAME.getAttributeName(), "true"));
+        UserInfoMapperPlan plan = UserInfoMapperPlan.of(model);
+
+        assertSame(plan, UserInfoMapperPlan.of(createMapperModel("plan-update", Map.of(UserInfoAttribute.PERSON_VORNAME.getAttributeName(), "true"))));
+
+        model.getConfig().put(UserInfoAttribute.PERSON_VORNAME.getAttributeName(), "false");
+        UserInfoMapperPlan updated = UserInfoMapperPlan.of(model);
+
+        assertNotSame(plan, updated);
+        assertFalse(updated.getProjection().isActive(UserInfoAttribute.PERSON_VORNAME));
+        assertTrue(plan.getProjection().isActive(UserInfoAttribute.PERSON_VORNAME));
+    }
+
+    private static ProtocolMapperModel createMapperModel(String id, Map<String, String> config)
+    {
+        ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setId(id);
+        model.setProtocolMapper(UserInfoProviderMapper.PROVIDER_ID);
+        model.setConfig(new HashMap<>(config));
+        return model;
+    }
+}
@@ -1,6 +1,7 @@
 package de.intension.mapper.oidc;
 
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -37,6 +38,7 @@ import org.skyscreamer.jsonassert.comparator.CustomComparator;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.common.base.Splitter;
@@ -113,6 +115,71 @@ class UserInfoProviderMapperTest
         JSONAssert.assertEquals(getJsonResourceAsString("de/intension/mapper/oidc/UserInfoDefault.json"), userInfo, JSONCompareMode.STRICT);
     }
 
+    /**
+     * GIVEN: a mapper with a claim of JSON type
+     * WHEN: the claim is mapped
+     * THEN: the claim is the JSON tree of the userInfo, equal to parsing its serialized form
+     */
+    @Test
+    void should_map_json_tree_to_json_claim()
+        throws IOException
+    {
+        UserInfoProviderMapper mapper = new UserInfoProviderMapper();
+        ProtocolMapperModel mapperModel = createMapperModel(mapper, false, null);
+        mapperModel.getConfig().put(OIDCAttributeMapperHelper.JSON_TYPE, "JSON");
+        IDToken idToken = new IDToken();
+        idToken.setSubject(SUB);
+        UserSessionModel userSession = createUserModel();
+        mapper.transformIDToken(idToken, mapperModel, mock(KeycloakSession.class), userSession, mock(ClientSessionContext.class));
+
+        Object claim = idToken.getOtherClaims().get("userInfo");
+        Assertions.assertInstanceOf(JsonNode.class, claim);
+        String expected = new UserInfoHelper().getUserInfoFromKeycloakUser(null, userSession, idToken, mapperModel).getJsonRepresentation();
+        Assertions.assertEquals(objectMapper.readTree(expected), claim);
+    }
+
+    /**
+     * GIVEN: a mapper caching its claim in the user session
+     * WHEN: tokens are created twice for the same user and again after an attribute of the user changed
+     * THEN: the second token gets the cached claim and the changed attribute builds the claim again
+     */
+    @Test
+    void should_reuse_cached_claim_until_user_attributes_change()
+        throws URISyntaxException, IOException, JSONException
+    {
+        UserInfoProviderMapper mapper = new UserInfoProviderMapper();
+        ProtocolMapperModel mapperModel = createMapperModel(mapper, false, null);
+        mapperModel.setId("cached-mapper");
+        mapperModel.getConfig().put(UserInfoProviderMapper.CACHE_CLAIM_NAME, "true");
+        KeycloakSession session = mock(KeycloakSession.class);
+        ClientSessionContext context = mock(ClientSessionContext.class);
+        UserSessionModel userSession = createDefaultUserModel();
+        Map<String, String> notes = new HashMap<>();
+        when(userSession.getNote(anyString())).thenAnswer(invocation -> notes.get(invocation.<String> getArgument(0)));
+        doAnswer(invocation -> notes.put(invocation.getArgument(0), invocation.getArgument(1))).when(userSession).setNote(anyString(), anyString());
+
+        IDToken idToken = new IDToken();
+        idToken.setSubject(SUB);
+        mapper.transformIDToken(idToken, mapperModel, session, userSession, context);
+        JSONAssert.assertEquals(getJsonResourceAsString("de/intension/mapper/oidc/UserInfoDefault.json"), (String)idToken.getOtherClaims().get("userInfo"),
+                                JSONCompareMode.STRICT);
+        String note = notes.get(UserInfoClaimCache.NOTE_PREFIX + "cached-mapper");
+        Assertions.assertNotNull(note);
+
+        String fingerprint = note.substring(0, note.indexOf(':'));
+        notes.put(UserInfoClaimCache.NOTE_PREFIX + "cached-mapper", fingerprint + ":{\"cached\":true}");
+        idToken = new IDToken();
+        idToken.setSubject(SUB);
+        mapper.transformIDToken(idToken, mapperModel, session, userSession, context);
+        Assertions.assertEquals("{\"cached\":true}", idToken.getOtherClaims().get("userInfo"));
+
+        ((TestUserModel)userSession.getUser()).setSingleAttribute(UserInfoAttribute.PERSON_KONTEXT_ORG_NAME.getAttributeName(), "Andere-Schule");
+        idToken = new IDToken();
+        idToken.setSubject(SUB);
+        mapper.transformIDToken(idToken, mapperModel, session, userSession, context);
+        Assertions.assertTrue(((String)idToken.getOtherClaims().get("userInfo")).contains("Andere-Schule"));
+    }
+
     private ProtocolMapperModel createMapperModel(UserInfoProviderMapper mapper, boolean negateOutput, String roles)
     {
         ProtocolMapperModel protocolMapperModel = new ProtocolMapperModel();
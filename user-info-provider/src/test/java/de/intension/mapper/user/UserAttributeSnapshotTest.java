@@ -0,0 +1,137 @@
+package de.intension.mapper.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.UserModel;
+
+class UserAttributeSnapshotTest
+{
+
+    /**
+     * GIVEN: a user with an attribute which is also set on its group
+     * WHEN: attributes are resolved from the snapshot
+     * THEN: the value of the user wins and the groups are never read
+     */
+    @Test
+    void should_resolve_user_attributes_without_reading_groups()
+    {
+        UserModel user = mockUser(Map.of("person.vorname", List.of("Max")));
+        GroupModel group = mockGroup(null, Map.of("person.vorname", List.of("Gruppe")));
+        when(user.getGroupsStream()).thenReturn(Stream.of(group));
+
+        UserAttributeSnapshot attributes = UserAttributeSnapshot.of(user);
+
+        assertEquals("Max", attributes.resolveFirst("person.vorname"));
+        assertEquals("Max", attributes.resolveFirst("person.vorname"));
+        verify(user, times(1)).getAttributes();
+        verify(user, never()).getGroupsStream();
+    }
+
+    /**
+     * GIVEN: a user without attributes in a sub group
+     * WHEN: attributes of the group and its parent are resolved from the snapshot
+     * THEN: the values are inherited, the sub group wins over its parent and the groups are read only once
+     */
+    @Test
+    void should_resolve_group_attributes_once()
+    {
+        UserModel user = mockUser(Map.of());
+        GroupModel parent = mockGroup(null, Map.of("person.kontext.org.name", List.of("Schule"),
+                                                   "person.kontext.rolle", List.of("LERN")));
+        GroupModel group = mockGroup(parent, Map.of("person.kontext.rolle", List.of("LEHR")));
+        when(user.getGroupsStream()).thenReturn(Stream.of(group));
+
+        UserAttributeSnapshot attributes = UserAttributeSnapshot.of(user);
+
+        assertEquals("LEHR", attributes.resolveFirst("person.kontext.rolle"));
+        assertEquals("Schule", attributes.resolveFirst("person.kontext.org.name"));
+        assertNull(attributes.resolveFirst("person.vorname"));
+        assertTrue(attributes.getUserAttributeNames().isEmpty());
+        verify(user, times(1)).getGroupsStream();
+    }
+
+    /**
+     * GIVEN: a snapshot of a user
+     * WHEN: the attributes of the user change afterwards
+     * THEN: the snapshot still resolves the values it was taken with
+     */
+    @Test
+    void should_not_reflect_later_changes()
+    {
+        Map<String, List<String>> userAttributes = new HashMap<>(Map.of("person.vorname", List.of("Max")));
+        UserModel user = mockUser(userAttributes);
+
+        UserAttributeSnapshot attributes = UserAttributeSnapshot.of(user);
+        userAttributes.put("person.familienname", List.of("Muster"));
+
+        assertEquals(List.of("Max"), attributes.resolve("person.vorname"));
+        assertEquals(1, attributes.getUserAttributeNames().size());
+    }
+
+    /**
+     * GIVEN: a user with attributes of several Personenkontexte and other attributes
+     * WHEN: the indices of the Personenkontexte are requested twice
+     * THEN: they are parsed once, sorted and without names which only look similar
+     */
+    @Test
+    void should_parse_personenkontext_indices_once()
+    {
+        UserModel user = mockUser(Map.of("person.kontext[10].org.kennung", List.of("NI_10"),
+                                         "person.kontext[2].rolle", List.of("LERN"),
+                                         "person.kontext[2].org.name", List.of("Schule"),
+                                         "person.kontext.rolle", List.of("LEHR"),
+                                         "person.kontext[x].rolle", List.of("LEHR"),
+                                         "person.kontext[3]", List.of("LEHR"),
+                                         "person.vorname", List.of("Max")));
+
+        UserAttributeSnapshot attributes = UserAttributeSnapshot.of(user);
+
+        assertEquals(List.of(2, 10), List.copyOf(attributes.getPersonenKontextIndizes()));
+        assertSame(attributes.getPersonenKontextIndizes(), attributes.getPersonenKontextIndizes());
+    }
+
+    @ParameterizedTest
+    @CsvSource({"person.kontext[0].rolle,0", "person.kontext[123].org.kennung,123", "person.kontext[7].,7", "person.kontext[].rolle,-1",
+            "person.kontext[1]rolle,-1", "person.kontext[1],-1", "person.kontext[1234567890].rolle,-1", "person.kontext[1].x,1", "kontext[1].rolle,-1",
+            "person.kontext[\u0661].rolle,-1"})
+    void should_parse_personenkontext_index(String name, int index)
+    {
+        assertEquals(index, UserAttributeSnapshot.parsePersonenKontextIndex(name));
+    }
+
+    private static UserModel mockUser(Map<String, List<String>> attributes)
+    {
+        UserModel user = mock(UserModel.class);
+        when(user.getAttributes()).thenReturn(attributes);
+        when(user.getGroupsStream()).thenReturn(Stream.empty());
+        return user;
+    }
+
+    private static GroupModel mockGroup(GroupModel parent, Map<String, List<String>> attributes)
+    {
+        GroupModel group = mock(GroupModel.class);
+        when(group.getAttributes()).thenReturn(attributes);
+        if (parent != null) {
+            when(group.getParentId()).thenReturn("parent");
+            when(group.getParent()).thenReturn(parent);
+        }
+        return group;
+    }
+}
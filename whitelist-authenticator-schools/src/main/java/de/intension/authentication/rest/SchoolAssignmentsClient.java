@@ -6,29 +6,31 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.http.HttpHeaders;
-import org.apache.http.NameValuePair;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.jboss.logging.Logger;
-import org.keycloak.OAuth2Constants;
-import org.keycloak.representations.AccessTokenResponse;
-import org.keycloak.utils.MediaType;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import de.intension.http.AccessTokenCache;
+import de.intension.http.ClientCredentialsClient;
+import de.intension.http.Futures;
+import de.intension.http.HttpClientPool;
+import de.intension.http.SingleFlight;
+import de.intension.metrics.WhitelistMetrics;
+import io.micrometer.core.instrument.Timer;
+
 public class SchoolAssignmentsClient
     implements Closeable
 {
@@ -36,15 +38,26 @@ public class SchoolAssignmentsClient
     private static final Logger LOG          = getLogger(SchoolAssignmentsClient.class);
     private final ObjectMapper  objectMapper = new ObjectMapper();
     private final String        restApiUrl;
-    private final String        kcAuthUrl;
 
-    private final CloseableHttpClient httpClient;
+    private final CloseableHttpClient                       httpClient;
+    private final ClientCredentialsClient                   apiClient;
+    private final SingleFlight<RequestKey, SchoolConfigDTO> requests = new SingleFlight<>();
+    private HttpClient                                      asyncClient;
+    private Duration                                        requestDeadline;
+    private WhitelistMetrics                                metrics  = WhitelistMetrics.DISABLED;
 
     public SchoolAssignmentsClient(String kcAuthUrl, String restApiUrl)
     {
         this.restApiUrl = restApiUrl;
-        this.kcAuthUrl = kcAuthUrl;
         httpClient = HttpClientBuilder.create().setDefaultRequestConfig(getRequestConfig()).build();
+        apiClient = new ClientCredentialsClient(kcAuthUrl, httpClient, new AccessTokenCache());
+    }
+
+    public SchoolAssignmentsClient(String kcAuthUrl, String restApiUrl, HttpClientPool httpClientPool, AccessTokenCache tokenCache)
+    {
+        this.restApiUrl = restApiUrl;
+        httpClient = httpClientPool.createClient(getRequestConfig());
+        apiClient = new ClientCredentialsClient(kcAuthUrl, httpClient, tokenCache);
     }
 
     /**
@@ -56,66 +69,137 @@ public class SchoolAssignmentsClient
     }
 
     /**
-     * Get list of allowed schools for a combination of Identity-Provider and Service-Provider
+     * Send token and assignment requests without blocking. {@link #getListOfAllowedSchools} then waits only once for
+     * the whole pipeline, limited by the given overall deadline.
      */
-    public SchoolConfigDTO getListOfAllowedSchools(String idp, String clientId, String apiRealm, String apiClientId, String apiClientSecret)
-            throws IOException, URISyntaxException
+    public SchoolAssignmentsClient withAsyncRequests(HttpClient asyncClient, Duration requestDeadline)
     {
-        SchoolConfigDTO schoolConfig = null;
-        HttpGet httpGet = new HttpGet(restApiUrl);
-        URI uri = new URIBuilder(httpGet.getURI())
-            .addParameter("serviceProvider", clientId)
-            .addParameter("idpId", idp)
-            .build();
-        httpGet.setURI(uri);
-
-        httpGet.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + getAccessToken(apiRealm, apiClientId, apiClientSecret));
-        httpGet.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+        this.asyncClient = asyncClient;
+        this.requestDeadline = requestDeadline;
+        apiClient.withAsyncRequests(asyncClient, requestDeadline);
+        return this;
+    }
 
-        CloseableHttpResponse response = httpClient.execute(httpGet);
+    /**
+     * Record token and assignment fetch times.
+     */
+    public SchoolAssignmentsClient withMetrics(WhitelistMetrics metrics)
+    {
+        this.metrics = metrics;
+        apiClient.withMetrics(metrics);
+        return this;
+    }
 
-        final int status = response.getStatusLine().getStatusCode();
-        if (status == 200) {
-            LOG.debugv("Whitelist entries found for clientId [{0}]", clientId);
+    /**
+     * Get list of allowed schools for a combination of Identity-Provider and Service-Provider.
+     * Concurrent calls for the same combination share one request.
+     */
+    public SchoolConfigDTO getListOfAllowedSchools(String idp, String clientId, String apiRealm, String apiClientId, String apiClientSecret)
+            throws IOException, URISyntaxException
+    {
+        URI uri = getUri(idp, clientId);
+        if (asyncClient != null) {
+            return Futures.await(getListOfAllowedSchoolsAsync(uri, idp, clientId, apiRealm, apiClientId, apiClientSecret));
+        }
+        return requests.execute(new RequestKey(idp, clientId), () -> {
+            Timer.Sample sample = metrics.start();
+            boolean success = false;
             try {
-                schoolConfig = objectMapper.readValue(EntityUtils.toString(response.getEntity()), SchoolConfigDTO.class);
-            } catch (JsonProcessingException e) {
-                LOG.error("Error while parsing whitelist entries for clientId [{0}]", clientId, e);
+                SchoolConfigDTO schoolConfig = fetchListOfAllowedSchools(uri, clientId, apiRealm, apiClientId, apiClientSecret);
+                success = true;
+                return schoolConfig;
+            } finally {
+                metrics.assignmentsFetched(sample, success);
             }
+        });
+    }
+
+    private SchoolConfigDTO fetchListOfAllowedSchools(URI uri, String clientId, String apiRealm, String apiClientId, String apiClientSecret)
+            throws IOException
+    {
+        try (CloseableHttpResponse response = apiClient.executeGet(uri, apiRealm, apiClientId, apiClientSecret)) {
+            final int status = response.getStatusLine().getStatusCode();
+            return parseSchoolConfig(status, status == HttpStatus.SC_OK ? EntityUtils.toString(response.getEntity()) : null, clientId);
         }
-        else {
-            LOG.debugv("No Whitelist entries found for clientId [{0}]", clientId);
-        }
-        response.close();
-        return schoolConfig;
     }
 
     /**
-     * Calls the token endpoint to get a valid token that can be used to send the events to IMS.
+     * Non-blocking variant of {@link #getListOfAllowedSchools}, requires {@link #withAsyncRequests}. The returned
+     * future fails with a {@link java.util.concurrent.TimeoutException} if the deadline is exceeded.
      */
-    private String getAccessToken(String realm, String clientId, String clientSecret)
-            throws IOException
+    public CompletableFuture<SchoolConfigDTO> getListOfAllowedSchoolsAsync(String idp, String clientId, String apiRealm, String apiClientId,
+                                                                           String apiClientSecret)
     {
-        String tokenUrl = String.format("%s/realms/%s/protocol/openid-connect/token", kcAuthUrl, realm);
+        if (asyncClient == null) {
+            throw new IllegalStateException("Asynchronous requests are not enabled");
+        }
+        try {
+            return getListOfAllowedSchoolsAsync(getUri(idp, clientId), idp, clientId, apiRealm, apiClientId, apiClientSecret);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        HttpPost httpPost = new HttpPost(tokenUrl);
-        httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED);
-        httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+    private CompletableFuture<SchoolConfigDTO> getListOfAllowedSchoolsAsync(URI uri, String idp, String clientId, String apiRealm,
+                                                                            String apiClientId, String apiClientSecret)
+    {
+        return requests.executeAsync(new RequestKey(idp, clientId),
+                                     () -> metrics.timeAssignmentFetch(() -> fetchListOfAllowedSchoolsAsync(uri, clientId, apiRealm, apiClientId,
+                                                                                                              apiClientSecret))
+                                         .orTimeout(requestDeadline.toMillis(), TimeUnit.MILLISECONDS));
+    }
 
-        List<NameValuePair> params = new ArrayList<>();
-        params.add(new BasicNameValuePair(OAuth2Constants.GRANT_TYPE, OAuth2Constants.CLIENT_CREDENTIALS));
-        params.add(new BasicNameValuePair(OAuth2Constants.CLIENT_ID, clientId));
-        params.add(new BasicNameValuePair(OAuth2Constants.CLIENT_SECRET, clientSecret));
+    private CompletableFuture<SchoolConfigDTO> fetchListOfAllowedSchoolsAsync(URI uri, String clientId, String apiRealm, String apiClientId,
+                                                                              String apiClientSecret)
+    {
+        return apiClient.sendGetAsync(uri, apiRealm, apiClientId, apiClientSecret).thenCompose(response -> {
+            try {
+                return CompletableFuture.completedFuture(parseSchoolConfig(response.statusCode(), response.body(), clientId));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+    }
 
-        httpPost.setEntity(new UrlEncodedFormEntity(params));
+    private URI getUri(String idp, String clientId)
+            throws URISyntaxException
+    {
+        return new URIBuilder(restApiUrl)
+            .addParameter("serviceProvider", clientId)
+            .addParameter("idpId", idp)
+            .build();
+    }
 
-        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+    /**
+     * Only {@code 200} and {@code 404} for combinations without a school config are answers. Any other status, e.g. a
+     * server error or a rejected token, fails the request, so the outage is neither cached nor taken for a denial.
+     */
+    private SchoolConfigDTO parseSchoolConfig(int status, String body, String clientId)
+            throws IOException
+    {
+        if (status == HttpStatus.SC_NOT_FOUND) {
+            LOG.debugv("No Whitelist entries found for clientId [{0}]", clientId);
+            return null;
+        }
+        if (status != HttpStatus.SC_OK) {
+            throw new IOException(String.format("REST-API responded with status %d for clientId %s", status, clientId));
+        }
+        LOG.debugv("Whitelist entries found for clientId [{0}]", clientId);
+        try {
+            return objectMapper.readValue(body, SchoolConfigDTO.class);
+        } catch (JsonProcessingException e) {
+            throw new IOException(String.format("Invalid whitelist entries for clientId %s", clientId), e);
+        }
+    }
 
-            LOG.debugv("Get access token. Status = {0, number, integer}", response.getStatusLine().getStatusCode());
+    public AccessTokenCache getTokenCache()
+    {
+        return apiClient.getTokenCache();
+    }
 
-            AccessTokenResponse accessTokenResponse = objectMapper.readValue(EntityUtils.toString(response.getEntity()), AccessTokenResponse.class);
-            return accessTokenResponse.getToken();
-        }
+    public SingleFlight<RequestKey, SchoolConfigDTO> getRequests()
+    {
+        return requests;
     }
 
     /**
@@ -136,4 +220,9 @@ public class SchoolAssignmentsClient
     {
         httpClient.close();
     }
+
+    /**
+     * Combination of Identity-Provider and Service-Provider a request is sent for.
+     */
+    public record RequestKey(String idp, String clientId) {}
 }
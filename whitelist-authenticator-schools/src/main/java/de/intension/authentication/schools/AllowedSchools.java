@@ -0,0 +1,57 @@
+package de.intension.authentication.schools;
+
+import java.util.Collection;
+import java.util.Set;
+
+import de.intension.authentication.rest.SchoolConfigDTO;
+
+/**
+ * Schools whitelisted for a combination of Identity-Provider and Service-Provider, indexed for fast lookups.
+ *
+ * @param allowAll All schools are allowed
+ * @param schoolIds Allowed school IDs, stored as {@link CompactStringSet}
+ */
+public record AllowedSchools(boolean allowAll, Set<String> schoolIds)
+{
+
+    /** No school is allowed, e.g. if the REST-API has no configuration. */
+    public static final AllowedSchools NONE = new AllowedSchools(false, Set.of());
+
+    public static AllowedSchools from(SchoolConfigDTO config)
+    {
+        if (config == null) {
+            return NONE;
+        }
+        if (config.isAllowAll()) {
+            return new AllowedSchools(true, Set.of());
+        }
+        if (config.getVidisSchoolIdentifiers() == null) {
+            return NONE;
+        }
+        return new AllowedSchools(false, CompactStringSet.of(config.getVidisSchoolIdentifiers()));
+    }
+
+    /**
+     * Check whether at least one of the given schools is allowed.
+     */
+    public boolean isAnyAllowed(Collection<String> userSchoolIds)
+    {
+        if (allowAll) {
+            return true;
+        }
+        for (String userSchoolId : userSchoolIds) {
+            if (schoolIds.contains(userSchoolId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Nothing is allowed, such results are cached for a shorter time.
+     */
+    public boolean isEmpty()
+    {
+        return !allowAll && schoolIds.isEmpty();
+    }
+}
@@ -0,0 +1,258 @@
+package de.intension.authentication.schools;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Immutable set of strings stored sorted and front-coded in a single byte array.
+ * <p>
+ * The strings are UTF-8 encoded and split into blocks of {@value #BLOCK_SIZE}. The first string of a block is stored
+ * completely, every following string only stores the length of the prefix shared with its predecessor and the
+ * remaining suffix. School IDs like {@code de-by.12345} share long prefixes, so the set needs a fraction of the
+ * memory of a {@link java.util.HashSet}. Lookups binary search the block heads and scan at most one block.
+ */
+public final class CompactStringSet
+    extends AbstractSet<String>
+{
+
+    static final int     BLOCK_SIZE = 16;
+
+    private final byte[] data;
+    private final int[]  blockOffsets;
+    private final int    size;
+
+    private CompactStringSet(byte[] data, int[] blockOffsets, int size)
+    {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.size = size;
+    }
+
+    /**
+     * Create a set of the given strings, {@code null} values and duplicates are ignored.
+     */
+    public static CompactStringSet of(Collection<String> values)
+    {
+        byte[][] encoded = values.stream().filter(Objects::nonNull)
+            .map(value -> value.getBytes(StandardCharsets.UTF_8))
+            .sorted(Arrays::compareUnsigned)
+            .toArray(byte[][]::new);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] offsets = new int[(encoded.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        byte[] previous = null;
+        int count = 0;
+        for (byte[] value : encoded) {
+            if (previous != null && Arrays.equals(previous, value)) {
+                continue;
+            }
+            if (count % BLOCK_SIZE == 0) {
+                offsets[count / BLOCK_SIZE] = out.size();
+                writeVarInt(out, value.length);
+                out.write(value, 0, value.length);
+            }
+            else {
+                int prefix = Arrays.mismatch(previous, value);
+                writeVarInt(out, prefix);
+                writeVarInt(out, value.length - prefix);
+                out.write(value, prefix, value.length - prefix);
+            }
+            previous = value;
+            count++;
+        }
+        return new CompactStringSet(out.toByteArray(), Arrays.copyOf(offsets, (count + BLOCK_SIZE - 1) / BLOCK_SIZE), count);
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if (!(o instanceof String) || size == 0) {
+            return false;
+        }
+        byte[] key = ((String)o).getBytes(StandardCharsets.UTF_8);
+        int block = findBlock(key);
+        if (block < 0) {
+            return false;
+        }
+        // the block head is less than or equal to the key, track how many leading bytes the current string shares
+        // with the key and only compare suffixes starting at that position
+        int pos = blockOffsets[block];
+        int headLength = readVarInt(pos);
+        pos += varIntSize(headLength);
+        int matched = Arrays.mismatch(data, pos, pos + headLength, key, 0, key.length);
+        if (matched < 0) {
+            return true;
+        }
+        pos += headLength;
+        int end = Math.min(size - block * BLOCK_SIZE, BLOCK_SIZE);
+        for (int i = 1; i < end; i++) {
+            int prefix = readVarInt(pos);
+            pos += varIntSize(prefix);
+            int suffix = readVarInt(pos);
+            pos += varIntSize(suffix);
+            if (prefix < matched) {
+                // differs from the predecessor at a position where the predecessor matched the key, so it is greater
+                return false;
+            }
+            if (prefix == matched) {
+                int mismatch = Arrays.mismatch(data, pos, pos + suffix, key, prefix, key.length);
+                if (mismatch < 0) {
+                    return true;
+                }
+                if (prefix + mismatch < key.length
+                    && (mismatch == suffix || Byte.toUnsignedInt(data[pos + mismatch]) < Byte.toUnsignedInt(key[prefix + mismatch]))) {
+                    matched = prefix + mismatch;
+                }
+                else {
+                    return false;
+                }
+            }
+            pos += suffix;
+        }
+        return false;
+    }
+
+    /**
+     * Find the last block whose head is less than or equal to the key.
+     */
+    private int findBlock(byte[] key)
+    {
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = blockOffsets[mid];
+            int length = readVarInt(pos);
+            pos += varIntSize(length);
+            int cmp = Arrays.compareUnsigned(data, pos, pos + length, key, 0, key.length);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp < 0) {
+                result = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<String> iterator()
+    {
+        return new Iterator<>() {
+
+            private int    index;
+            private Cursor cursor;
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < size;
+            }
+
+            @Override
+            public String next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (index % BLOCK_SIZE == 0) {
+                    cursor = new Cursor(index / BLOCK_SIZE);
+                }
+                cursor.next();
+                index++;
+                return new String(cursor.buffer, 0, cursor.length, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Number of bytes used to store the strings.
+     */
+    public int getEncodedSize()
+    {
+        return data.length + blockOffsets.length * Integer.BYTES;
+    }
+
+    private int readVarInt(int pos)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int varIntSize(int value)
+    {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Decodes the strings of a block one after another into a reusable buffer, used for iteration.
+     */
+    private final class Cursor
+    {
+
+        private int     pos;
+        private byte[]  buffer = new byte[32];
+        private int     length;
+        private boolean first  = true;
+
+        private Cursor(int block)
+        {
+            this.pos = blockOffsets[block];
+        }
+
+        private void next()
+        {
+            int prefix = 0;
+            if (!first) {
+                prefix = readVarInt(pos);
+                pos += varIntSize(prefix);
+            }
+            int suffix = readVarInt(pos);
+            pos += varIntSize(suffix);
+            first = false;
+            if (buffer.length < prefix + suffix) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, prefix + suffix));
+            }
+            System.arraycopy(data, pos, buffer, prefix, suffix);
+            pos += suffix;
+            length = prefix + suffix;
+        }
+    }
+}
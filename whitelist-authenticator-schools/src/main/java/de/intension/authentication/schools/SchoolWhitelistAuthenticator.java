@@ -20,7 +20,10 @@ import org.keycloak.services.resources.LoginActionsService;
 import org.keycloak.utils.StringUtil;
 
 import de.intension.authentication.rest.SchoolAssignmentsClient;
-import de.intension.authentication.rest.SchoolConfigDTO;
+import de.intension.cache.ExpiringCache;
+import de.intension.metrics.WhitelistMetrics;
+import de.intension.metrics.WhitelistMetrics.Outcome;
+import io.micrometer.core.instrument.Timer;
 import jakarta.ws.rs.core.Response;
 
 /**
@@ -33,19 +36,37 @@ public class SchoolWhitelistAuthenticator
     public static final String            IDP_ALIAS = "idpAlias";
     private static final Logger           logger    = Logger.getLogger(SchoolWhitelistAuthenticator.class);
     private final SchoolAssignmentsClient client;
+    private final ExpiringCache<CacheKey, AllowedSchools> allowedSchoolsCache;
+    private final WhitelistMetrics metrics;
 
     public SchoolWhitelistAuthenticator(SchoolAssignmentsClient client)
+    {
+        this(client, new ExpiringCache<>(SchoolWhitelistAuthenticatorFactory.PROVIDER_ID, 0, 0, 0));
+    }
+
+    public SchoolWhitelistAuthenticator(SchoolAssignmentsClient client, ExpiringCache<CacheKey, AllowedSchools> allowedSchoolsCache)
+    {
+        this(client, allowedSchoolsCache, WhitelistMetrics.DISABLED);
+    }
+
+    public SchoolWhitelistAuthenticator(SchoolAssignmentsClient client, ExpiringCache<CacheKey, AllowedSchools> allowedSchoolsCache,
+                                        WhitelistMetrics metrics)
     {
         this.client = client;
+        this.allowedSchoolsCache = allowedSchoolsCache;
+        this.metrics = metrics;
     }
 
     @Override
     public void authenticate(AuthenticationFlowContext context)
     {
+        Timer.Sample sample = metrics.start();
         String clientId = context.getAuthenticationSession().getClient().getClientId();
         List<String> schoolIds = getSchoolIdsFromUser(context);
         String identityProvider = getProviderIdFromContext(context);
-        if (isPermittedServiceRequest(context, clientId, schoolIds, identityProvider)) {
+        Outcome outcome = checkServiceRequest(context, clientId, schoolIds, identityProvider);
+        metrics.decision(sample, context.getRealm().getName(), context.getFlowPath(), outcome);
+        if (outcome == Outcome.ALLOWED) {
             context.success();
         }
         else {
@@ -85,34 +106,27 @@ public class SchoolWhitelistAuthenticator
 
     /**
      * Checks, whether the combination of Service Provider ID (clientID) and School ID is part of the
-     * whitelist.
+     * whitelist. If the whitelist is not available, the outcome is {@link Outcome#ERROR}, which denies access as well.
      */
-    private boolean isPermittedServiceRequest(AuthenticationFlowContext context, String clientId, List<String> schoolIds, String identityProvider)
+    private Outcome checkServiceRequest(AuthenticationFlowContext context, String clientId, List<String> schoolIds, String identityProvider)
     {
         String apiRealm = getConfigEntry(context, SchoolWhitelistAuthenticatorFactory.AUTH_WHITELIST_REALM, context.getRealm().getName());
         String apiClientId = getConfigEntry(context, SchoolWhitelistAuthenticatorFactory.AUTH_WHITELIST_CLIENT_ID, null);
         String apiClientSecret = getConfigEntry(context, SchoolWhitelistAuthenticatorFactory.AUTH_WHITELIST_CLIENT_SECRET, null);
 
-        boolean permitted = false;
+        Outcome outcome;
         try {
-            SchoolConfigDTO config = client.getListOfAllowedSchools(identityProvider, clientId, apiRealm, apiClientId, apiClientSecret);
-            if (config != null && config.isAllowAll()) {
-                permitted = true;
-            }
-            else if (config != null) {
-                for (String userSchoolId : schoolIds) {
-                    if (config.getVidisSchoolIdentifiers().contains(userSchoolId)) {
-                        permitted = true;
-                        break;
-                    }
-                }
-            }
+            AllowedSchools allowedSchools = allowedSchoolsCache.get(new CacheKey(identityProvider, clientId), () -> AllowedSchools
+                .from(client.getListOfAllowedSchools(identityProvider, clientId, apiRealm, apiClientId, apiClientSecret)));
+            outcome = allowedSchools.isAnyAllowed(schoolIds) ? Outcome.ALLOWED : Outcome.DENIED;
         } catch (IOException e) {
+            outcome = Outcome.ERROR;
             logger.errorf(e, "error %s", client.getUrl());
         } catch (URISyntaxException e) {
+            outcome = Outcome.ERROR;
             logger.errorf("Invalid syntax for URI %s", client.getUrl());
         }
-        return permitted;
+        return outcome;
     }
 
     @Override
@@ -175,24 +189,24 @@ public class SchoolWhitelistAuthenticator
     private String getProviderIdFromContext(AuthenticationFlowContext context)
     {
         String flowPath = context.getFlowPath();
-        logger.infof("getProviderId - flowPath=%s", flowPath);
+        logger.debugf("getProviderId - flowPath=%s", flowPath);
         String providerId = null;
         try {
             if (LoginActionsService.AUTHENTICATE_PATH.equals(flowPath)) {
                 providerId = getProviderIdFromFederatedIdentitesStream(context);
-                logger.infof("getProviderId - from FederatedIdentitesStream = %s", providerId);
+                logger.debugf("getProviderId - from FederatedIdentitesStream = %s", providerId);
             }
             else if (LoginActionsService.FIRST_BROKER_LOGIN_PATH.equals(flowPath)) {
                 providerId = getProviderIdFromBrokeredContextNote(context);
-                logger.infof("First Broker Login: getProviderId - from brokered context = %s", providerId);
+                logger.debugf("First Broker Login: getProviderId - from brokered context = %s", providerId);
             }
             else if (LoginActionsService.POST_BROKER_LOGIN_PATH.equals(flowPath)) {
                 providerId = getProviderIdFromPostBrokerLoginContext(context);
-                logger.infof("Post Broker Login: getProviderId - from brokered context = %s", providerId);
+                logger.debugf("Post Broker Login: getProviderId - from brokered context = %s", providerId);
             }
             if (StringUtil.isBlank(providerId)) {
                 providerId = getProviderIdFromUserAttributes(context);
-                logger.infof("getProviderId - from userattribute = %s", providerId);
+                logger.debugf("getProviderId - from userattribute = %s", providerId);
             }
         } catch (Exception e) {
             logger.warn(e.getLocalizedMessage());
@@ -241,4 +255,14 @@ public class SchoolWhitelistAuthenticator
     {
         return client;
     }
+
+    public ExpiringCache<CacheKey, AllowedSchools> getAllowedSchoolsCache()
+    {
+        return allowedSchoolsCache;
+    }
+
+    /**
+     * Cache key for the allowed schools of a combination of Identity-Provider and Service-Provider.
+     */
+    public record CacheKey(String idpId, String serviceProvider) {}
 }
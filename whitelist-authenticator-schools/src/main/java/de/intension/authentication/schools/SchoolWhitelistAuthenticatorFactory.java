@@ -1,6 +1,7 @@
 package de.intension.authentication.schools;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 
 import org.keycloak.Config;
@@ -13,6 +14,10 @@ import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.provider.ProviderConfigProperty;
 
 import de.intension.authentication.rest.SchoolAssignmentsClient;
+import de.intension.cache.ExpiringCache;
+import de.intension.http.AccessTokenCache;
+import de.intension.http.HttpClientPool;
+import de.intension.metrics.WhitelistMetrics;
 
 public class SchoolWhitelistAuthenticatorFactory
     implements AuthenticatorFactory, AdapterConstants
@@ -26,8 +31,21 @@ public class SchoolWhitelistAuthenticatorFactory
     public static final String AUTH_WHITELIST_CLIENT_SECRET = "authWhiteListClientIdSecret";
     private static final String CONF_KC_AUTH_URL = "kcAuthUrl";
     private static final String CONF_REST_URL = "restUrl";
+    private static final String CONF_TOKEN_EXPIRY_MARGIN = "tokenExpiryMargin";
+    private static final String CONF_CACHE_TTL = "cacheTtl";
+    private static final String CONF_CACHE_STALE_WHILE_REVALIDATE = "cacheStaleWhileRevalidate";
+    private static final String CONF_CACHE_MAX_SIZE = "cacheMaxSize";
+    private static final String CONF_NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+    private static final String CONF_ASYNC_REQUESTS = "asyncRequests";
+    private static final String CONF_REQUEST_DEADLINE = "requestDeadline";
+    private static final long DEFAULT_CACHE_TTL = 300;
+    private static final long DEFAULT_CACHE_STALE_WHILE_REVALIDATE = 60;
+    private static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+    private static final long DEFAULT_NEGATIVE_CACHE_TTL = 30;
+    private static final long DEFAULT_REQUEST_DEADLINE = 5000;
 
     private SchoolWhitelistAuthenticator whitelistAuthenticator;
+    private HttpClientPool httpClientPool;
 
     @Override
     public Authenticator create(KeycloakSession keycloakSession)
@@ -99,10 +117,29 @@ public class SchoolWhitelistAuthenticatorFactory
     @Override
     public void init(Config.Scope scope)
     {
-        whitelistAuthenticator = new SchoolWhitelistAuthenticator(
-                new SchoolAssignmentsClient(
-                        scope.get(CONF_KC_AUTH_URL),
-                        scope.get(CONF_REST_URL)));
+        httpClientPool = HttpClientPool.acquire(scope);
+        AccessTokenCache tokenCache = new AccessTokenCache(
+                scope.getLong(CONF_TOKEN_EXPIRY_MARGIN, AccessTokenCache.DEFAULT_EXPIRY_MARGIN_SECS))
+                .registerMetrics(PROVIDER_ID);
+        ExpiringCache<SchoolWhitelistAuthenticator.CacheKey, AllowedSchools> allowedSchoolsCache = new ExpiringCache<SchoolWhitelistAuthenticator.CacheKey, AllowedSchools>(
+                PROVIDER_ID,
+                scope.getLong(CONF_CACHE_TTL, DEFAULT_CACHE_TTL),
+                scope.getLong(CONF_CACHE_STALE_WHILE_REVALIDATE, DEFAULT_CACHE_STALE_WHILE_REVALIDATE),
+                scope.getInt(CONF_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE))
+                .withNegativeTtl(scope.getLong(CONF_NEGATIVE_CACHE_TTL, DEFAULT_NEGATIVE_CACHE_TTL), AllowedSchools::isEmpty)
+                .registerMetrics();
+        SchoolAssignmentsClient client = new SchoolAssignmentsClient(
+                scope.get(CONF_KC_AUTH_URL),
+                scope.get(CONF_REST_URL),
+                httpClientPool,
+                tokenCache);
+        client.getRequests().registerMetrics(PROVIDER_ID);
+        WhitelistMetrics metrics = new WhitelistMetrics(PROVIDER_ID);
+        client.withMetrics(metrics);
+        if (scope.getBoolean(CONF_ASYNC_REQUESTS, false)) {
+            client.withAsyncRequests(httpClientPool.getAsyncClient(), Duration.ofMillis(scope.getLong(CONF_REQUEST_DEADLINE, DEFAULT_REQUEST_DEADLINE)));
+        }
+        whitelistAuthenticator = new SchoolWhitelistAuthenticator(client, allowedSchoolsCache, metrics);
     }
 
     @Override
@@ -115,12 +152,16 @@ public class SchoolWhitelistAuthenticatorFactory
     public void close()
     {
         if (whitelistAuthenticator != null) {
+            whitelistAuthenticator.getAllowedSchoolsCache().close();
             try {
                 whitelistAuthenticator.getClient().close();
             } catch (IOException e) {
                 //do nothing
             }
         }
+        if (httpClientPool != null) {
+            httpClientPool.release();
+        }
     }
 
 }
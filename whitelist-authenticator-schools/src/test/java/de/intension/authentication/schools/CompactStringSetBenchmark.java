@@ -0,0 +1,114 @@
+package de.intension.authentication.schools;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Compares lookup latency and footprint of the school ID list from the REST-API, a {@link HashSet} and the
+ * {@link CompactStringSet}.
+ * <p>
+ * {@link #main(String[])} prints the retained size of each structure before the benchmarks are run. Run it from the
+ * IDE or after {@code mvn test-compile} with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactStringSetBenchmark
+{
+
+    @Param({"100", "10000", "50000"})
+    private int          schools;
+
+    private List<String> list;
+    private Set<String>  hashSet;
+    private Set<String>  compactSet;
+    private String[]     lookups;
+    private int          next;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        list = new ArrayList<>();
+        for (int i = 0; i < schools; i++) {
+            list.add(String.format("de-by.%05d", random.nextInt(100000)));
+        }
+        hashSet = new HashSet<>(list);
+        compactSet = CompactStringSet.of(list);
+        // half of the lookups hit, half miss
+        lookups = new String[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = i % 2 == 0 ? list.get(random.nextInt(schools)) : String.format("de-bw.%05d", random.nextInt(100000));
+        }
+    }
+
+    private String nextLookup()
+    {
+        next = (next + 1) & (lookups.length - 1);
+        return lookups[next];
+    }
+
+    @Benchmark
+    public boolean lookupList()
+    {
+        return list.contains(nextLookup());
+    }
+
+    @Benchmark
+    public boolean lookupHashSet()
+    {
+        return hashSet.contains(nextLookup());
+    }
+
+    @Benchmark
+    public boolean lookupCompactSet()
+    {
+        return compactSet.contains(nextLookup());
+    }
+
+    @Benchmark
+    public Set<String> buildCompactSet()
+    {
+        return CompactStringSet.of(list);
+    }
+
+    public static void main(String[] args)
+        throws RunnerException
+    {
+        for (int schools : new int[]{100, 10000, 50000}) {
+            CompactStringSetBenchmark benchmark = new CompactStringSetBenchmark();
+            benchmark.schools = schools;
+            benchmark.setUp();
+            System.out.printf("%6d schools: list %,10d bytes, hash set %,10d bytes, compact set %,10d bytes%n", schools,
+                              GraphLayout.parseInstance(benchmark.list).totalSize(),
+                              GraphLayout.parseInstance(benchmark.hashSet).totalSize(),
+                              GraphLayout.parseInstance(benchmark.compactSet).totalSize());
+        }
+        new Runner(new OptionsBuilder()
+            .include(CompactStringSetBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
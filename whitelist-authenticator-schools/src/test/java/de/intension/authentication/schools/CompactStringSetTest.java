@@ -0,0 +1,73 @@
+package de.intension.authentication.schools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+class CompactStringSetTest
+{
+
+    /**
+     * GIVEN: thousands of school IDs sharing long prefixes
+     * WHEN: a compact set is created
+     * THEN: every contained ID is found, others are not
+     */
+    @Test
+    void should_contain_all_school_ids()
+    {
+        List<String> schoolIds = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            schoolIds.add("de-by." + (10000 + i * 3));
+        }
+        CompactStringSet set = CompactStringSet.of(schoolIds);
+
+        assertEquals(5000, set.size());
+        for (String schoolId : schoolIds) {
+            assertTrue(set.contains(schoolId), schoolId);
+        }
+        assertFalse(set.contains("de-by.10001"));
+        assertFalse(set.contains("de-by."));
+        assertFalse(set.contains("a"));
+        assertFalse(set.contains("z"));
+        assertFalse(set.contains(null));
+    }
+
+    /**
+     * GIVEN: unsorted IDs with duplicates, nulls and non-ASCII characters
+     * WHEN: a compact set is created
+     * THEN: it iterates the distinct IDs in sorted order
+     */
+    @Test
+    void should_iterate_distinct_values_sorted()
+    {
+        CompactStringSet set = CompactStringSet.of(Arrays.asList("b", "ä", null, "a", "ab", "b", ""));
+
+        assertEquals(Set.of("", "a", "ab", "b", "ä"), set);
+        assertEquals(new ArrayList<>(new TreeSet<>(set)), new ArrayList<>(set));
+        assertTrue(set.contains("ä"));
+        assertTrue(set.contains(""));
+    }
+
+    /**
+     * GIVEN: no values
+     * WHEN: a compact set is created
+     * THEN: it is empty
+     */
+    @Test
+    void should_be_empty()
+    {
+        CompactStringSet set = CompactStringSet.of(List.of());
+
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains("de-by.12345"));
+        assertFalse(set.iterator().hasNext());
+    }
+}
@@ -7,12 +7,16 @@ import static org.mockito.Mockito.*;
 import static org.mockserver.model.Header.header;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
+import static org.mockserver.model.HttpStatusCode.INTERNAL_SERVER_ERROR_500;
 import static org.mockserver.model.HttpStatusCode.OK_200;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
@@ -27,7 +31,14 @@ import org.keycloak.sessions.AuthenticationSessionModel;
 import org.mockserver.integration.ClientAndServer;
 import org.mockserver.junit.jupiter.MockServerExtension;
 import org.mockserver.junit.jupiter.MockServerSettings;
+import org.mockserver.model.Delay;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
+
+import de.intension.authentication.rest.SchoolAssignmentsClient;
+import de.intension.cache.ExpiringCache;
+import de.intension.metrics.WhitelistMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @ExtendWith(MockServerExtension.class)
 @MockServerSettings(ports = {18733})
@@ -78,6 +89,27 @@ class SchoolWhitelistAuthenticatorTest
                          .withHeaders(
                                       header(CONTENT_TYPE.toString(), MediaType.JSON_UTF_8.getType()))
                          .withBody(WHITELIST_ALLOW_ALL));
+        clientAndServer
+            .when(
+                  request().withPath("/school-assignments")
+                      .withQueryStringParameter("serviceProvider", "cached-client")
+                      .withQueryStringParameter("idpId", IDP_VALID))
+            .respond(
+                     response()
+                         .withStatusCode(OK_200.code())
+                         .withReasonPhrase(OK_200.reasonPhrase())
+                         .withHeaders(
+                                      header(CONTENT_TYPE.toString(), MediaType.JSON_UTF_8.getType()))
+                         .withBody(WHITELIST_DEDICATED));
+        clientAndServer
+            .when(
+                  request().withPath("/school-assignments")
+                      .withQueryStringParameter("serviceProvider", "slow-client")
+                      .withQueryStringParameter("idpId", IDP_VALID))
+            .respond(
+                     response()
+                         .withDelay(Delay.delay(TimeUnit.SECONDS, 2))
+                         .withBody(WHITELIST_ALLOW_ALL));
         clientAndServer
             .when(
                   request().withPath("/school-assignments")
@@ -94,6 +126,14 @@ class SchoolWhitelistAuthenticatorTest
             .respond(
                      response()
                          .withBody(WHITELIST_NOT_ENTRIES_FOUND));
+        clientAndServer
+            .when(
+                  request().withPath("/school-assignments")
+                      .withQueryStringParameter("serviceProvider", "error-client")
+                      .withQueryStringParameter("idpId", IDP_VALID))
+            .respond(
+                     response()
+                         .withStatusCode(INTERNAL_SERVER_ERROR_500.code()));
         clientAndServer
             .when(
                   request().withPath("/auth/realms/test/protocol/openid-connect/token"))
@@ -203,6 +243,29 @@ class SchoolWhitelistAuthenticatorTest
         assertEquals(false, context.getSuccess());
     }
 
+    /**
+     * GIVEN: a reachable and an unreachable whitelist
+     * WHEN: authentication flow is called with an invalid schoolId and with the unreachable whitelist
+     * THEN: a denied and a failed decision are counted and the assignment fetches are timed
+     */
+    @Test
+    void should_record_decision_metrics()
+    {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        WhitelistMetrics metrics = new WhitelistMetrics(SchoolWhitelistAuthenticatorFactory.PROVIDER_ID, registry);
+        new TestSchoolWhitelistAuthenticator("http://localhost:18733/school-assignments", metrics)
+            .authenticate(mockContext("test-client", List.of("5678")));
+        new TestSchoolWhitelistAuthenticator("http://invalid:18733/school-assignments", metrics)
+            .authenticate(mockContext("test-client", List.of("1234")));
+
+        assertEquals(1, registry.get(WhitelistMetrics.DECISIONS_METRIC).tag("realm", "test").tag("flow", LoginActionsService.FIRST_BROKER_LOGIN_PATH)
+            .tag("outcome", "denied").counter().count());
+        assertEquals(1, registry.get(WhitelistMetrics.DECISIONS_METRIC).tag("outcome", "error").counter().count());
+        assertEquals(2, registry.get(WhitelistMetrics.DECISION_METRIC).timer().count());
+        assertEquals(1, registry.get(WhitelistMetrics.ASSIGNMENT_FETCH_METRIC).tag("result", "success").timer().count());
+        assertEquals(1, registry.get(WhitelistMetrics.ASSIGNMENT_FETCH_METRIC).tag("result", "error").timer().count());
+    }
+
     /**
      * GIVEN: valid whitelist configuration which is reachable via URI
      * WHEN: authentication flow is called with a not configured IdP and valid schoolId user
@@ -219,6 +282,79 @@ class SchoolWhitelistAuthenticatorTest
         assertEquals(false, context.getSuccess());
     }
 
+    /**
+     * GIVEN: valid whitelist configuration which is reachable via URI and an enabled cache
+     * WHEN: authentication flow is called twice for the same clientId and IdP
+     * THEN: context status is "success" and the REST-API is called only once
+     */
+    @Test
+    void should_call_whitelist_once_because_of_cached_school_config()
+    {
+        try (ExpiringCache<SchoolWhitelistAuthenticator.CacheKey, AllowedSchools> cache = new ExpiringCache<>("test", 60, 0, 10)) {
+            SchoolWhitelistAuthenticator authenticator = new TestSchoolWhitelistAuthenticator(cache);
+            TestAuthenticationFlowContext context = mockContext("cached-client", List.of("1234"));
+            authenticator.authenticate(context);
+            assertEquals(true, context.getSuccess());
+            context = mockContext("cached-client", List.of("5678", "1234"));
+            authenticator.authenticate(context);
+            assertEquals(true, context.getSuccess());
+            clientAndServer.verify(request().withPath("/school-assignments").withQueryStringParameter("serviceProvider", "cached-client"),
+                                   VerificationTimes.exactly(1));
+        }
+    }
+
+    /**
+     * GIVEN: a whitelist responding with a server error and an enabled cache
+     * WHEN: authentication flow is called twice for the same clientId and IdP
+     * THEN: access is denied with an error decision and the outage is not cached
+     */
+    @Test
+    void should_not_cache_server_error()
+    {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        WhitelistMetrics metrics = new WhitelistMetrics(SchoolWhitelistAuthenticatorFactory.PROVIDER_ID, registry);
+        try (ExpiringCache<SchoolWhitelistAuthenticator.CacheKey, AllowedSchools> cache = new ExpiringCache<>("test", 60, 0, 10)) {
+            SchoolWhitelistAuthenticator authenticator = new TestSchoolWhitelistAuthenticator("http://localhost:18733/school-assignments", metrics,
+                                                                                              cache);
+            for (int i = 0; i < 2; i++) {
+                TestAuthenticationFlowContext context = mockContext("error-client", List.of("1234"));
+                authenticator.authenticate(context);
+                assertEquals(false, context.getSuccess());
+            }
+            clientAndServer.verify(request().withPath("/school-assignments").withQueryStringParameter("serviceProvider", "error-client"),
+                                   VerificationTimes.exactly(2));
+            assertEquals(2, registry.get(WhitelistMetrics.DECISIONS_METRIC).tag("outcome", "error").counter().count());
+        }
+    }
+
+    /**
+     * GIVEN: valid whitelist configuration which is reachable via URI and asynchronous requests
+     * WHEN: authentication flow is called with a configured clientId and valid schoolId user attribute
+     * THEN: context status is "success"
+     */
+    @Test
+    void should_permit_access_because_of_matching_schoolId_with_async_requests()
+    {
+        SchoolWhitelistAuthenticator authenticator = new TestSchoolWhitelistAuthenticator(asyncClient(Duration.ofSeconds(5)));
+        TestAuthenticationFlowContext context = mockContext("test-client", List.of("1234"));
+        authenticator.authenticate(context);
+        assertEquals(true, context.getSuccess());
+    }
+
+    /**
+     * GIVEN: asynchronous requests with a deadline shorter than the response time of the REST-API
+     * WHEN: authentication flow is called
+     * THEN: context status is "failure"
+     */
+    @Test
+    void should_deny_access_because_of_exceeded_request_deadline()
+    {
+        SchoolWhitelistAuthenticator authenticator = new TestSchoolWhitelistAuthenticator(asyncClient(Duration.ofMillis(300)));
+        TestAuthenticationFlowContext context = mockContext("slow-client", List.of("1234"));
+        authenticator.authenticate(context);
+        assertEquals(false, context.getSuccess());
+    }
+
     @ParameterizedTest
     @CsvSource({IDP_VALID + ",true", IDP_INVALID + ",false"})
     void should_allow_access_because_of_valid_user_idp_attribute(String idp, boolean expected){
@@ -228,6 +364,12 @@ class SchoolWhitelistAuthenticatorTest
         assertEquals(expected, context.getSuccess());
     }
 
+    private static SchoolAssignmentsClient asyncClient(Duration deadline)
+    {
+        return new SchoolAssignmentsClient("http://localhost:18733/auth", "http://localhost:18733/school-assignments")
+            .withAsyncRequests(HttpClient.newHttpClient(), deadline);
+    }
+
     private TestAuthenticationFlowContext mockContext(String clientId, List<String> usersSchoolIds)
     {
         return mockContext(clientId, usersSchoolIds, IDP_VALID, LoginActionsService.FIRST_BROKER_LOGIN_PATH);
@@ -3,6 +3,8 @@ package de.intension.authentication.schools;
 import org.keycloak.authentication.AuthenticationFlowContext;
 
 import de.intension.authentication.rest.SchoolAssignmentsClient;
+import de.intension.cache.ExpiringCache;
+import de.intension.metrics.WhitelistMetrics;
 import jakarta.ws.rs.core.Response;
 
 /**
@@ -23,6 +25,27 @@ public class TestSchoolWhitelistAuthenticator
         super(new SchoolAssignmentsClient("http://localhost:18733/auth", "http://localhost:18733/school-assignments"));
     }
 
+    public TestSchoolWhitelistAuthenticator(ExpiringCache<CacheKey, AllowedSchools> allowedSchoolsCache)
+    {
+        super(new SchoolAssignmentsClient("http://localhost:18733/auth", "http://localhost:18733/school-assignments"), allowedSchoolsCache);
+    }
+
+    public TestSchoolWhitelistAuthenticator(SchoolAssignmentsClient client)
+    {
+        super(client);
+    }
+
+    public TestSchoolWhitelistAuthenticator(String restApiUri, WhitelistMetrics metrics)
+    {
+        super(new SchoolAssignmentsClient("http://localhost:18733/auth", restApiUri).withMetrics(metrics),
+              new ExpiringCache<>(SchoolWhitelistAuthenticatorFactory.PROVIDER_ID, 0, 0, 0), metrics);
+    }
+
+    public TestSchoolWhitelistAuthenticator(String restApiUri, WhitelistMetrics metrics, ExpiringCache<CacheKey, AllowedSchools> allowedSchoolsCache)
+    {
+        super(new SchoolAssignmentsClient("http://localhost:18733/auth", restApiUri).withMetrics(metrics), allowedSchoolsCache, metrics);
+    }
+
     /**
      * Do nothing and return null, because ErrorPage must not be created in case of unit tests.
      */
@@ -1,6 +1,12 @@
 package de.intension.authentication;
 
+import de.intension.authentication.cache.WhitelistPreloader;
+import de.intension.authentication.rest.CircuitOpenException;
 import de.intension.authentication.rest.IdPAssignmentsClient;
+import de.intension.cache.ExpiringCache;
+import de.intension.metrics.WhitelistMetrics;
+import de.intension.metrics.WhitelistMetrics.Outcome;
+import io.micrometer.core.instrument.Timer;
 import jakarta.ws.rs.core.Response;
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
@@ -20,9 +26,11 @@ import org.keycloak.utils.StringUtil;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Check IdP hint against a configured whitelist.
@@ -34,22 +42,50 @@ public class WhitelistAuthenticator
     public static final String  IDP_ALIAS = "idpAlias";
     private static final Logger        logger = Logger.getLogger(WhitelistAuthenticator.class);
     private final IdPAssignmentsClient client;
+    private final ExpiringCache<String, Set<String>> allowedIdPsCache;
+    private final WhitelistPreloader preloader;
+    private final WhitelistMetrics metrics;
 
     public WhitelistAuthenticator(IdPAssignmentsClient client)
+    {
+        this(client, new ExpiringCache<>(WhitelistAuthenticatorFactory.PROVIDER_ID, 0, 0, 0));
+    }
+
+    public WhitelistAuthenticator(IdPAssignmentsClient client, ExpiringCache<String, Set<String>> allowedIdPsCache)
+    {
+        this(client, allowedIdPsCache, null);
+    }
+
+    /**
+     * @param preloader Preloaded whitelist which is checked before the cache, may be {@code null}
+     */
+    public WhitelistAuthenticator(IdPAssignmentsClient client, ExpiringCache<String, Set<String>> allowedIdPsCache, WhitelistPreloader preloader)
+    {
+        this(client, allowedIdPsCache, preloader, WhitelistMetrics.DISABLED);
+    }
+
+    public WhitelistAuthenticator(IdPAssignmentsClient client, ExpiringCache<String, Set<String>> allowedIdPsCache, WhitelistPreloader preloader,
+                                  WhitelistMetrics metrics)
     {
         this.client = client;
+        this.allowedIdPsCache = allowedIdPsCache;
+        this.preloader = preloader;
+        this.metrics = metrics;
     }
 
     @Override
     public void authenticate(AuthenticationFlowContext context)
     {
+        Timer.Sample sample = metrics.start();
         String clientId = context.getAuthenticationSession().getClient().getClientId();
-        logger.infof("authenticate - clientId=%s realm=%s", clientId, context.getRealm().getId());
+        logger.debugf("authenticate - clientId=%s realm=%s", clientId, context.getRealm().getId());
         String providerId = getProviderIdFromContext(context);
         if (StringUtil.isNotBlank(providerId)) {
             Optional.ofNullable(context.getUser()).ifPresent(user -> user.setSingleAttribute(IDP_ALIAS, providerId));
         }
-        if (!isAllowedIdP(context, clientId, providerId)) {
+        Outcome outcome = checkIdP(context, clientId, providerId);
+        metrics.decision(sample, context.getRealm().getName(), context.getFlowPath(), outcome);
+        if (outcome != Outcome.ALLOWED) {
             logger.infof("IdP with providerId=%s is not configured for clientId=%s", providerId, clientId);
             Response response = ErrorPage.error(context.getSession(), context.getAuthenticationSession(),
                                                 Response.Status.FORBIDDEN, "idpNotConfigured", providerId, clientId);
@@ -66,28 +102,28 @@ public class WhitelistAuthenticator
     private String getProviderIdFromContext(AuthenticationFlowContext context)
     {
         String flowPath = context.getFlowPath();
-        logger.infof("getProviderId - flowPath=%s", flowPath);
+        logger.debugf("getProviderId - flowPath=%s", flowPath);
         String providerId = null;
         try {
             if (LoginActionsService.AUTHENTICATE_PATH.equals(flowPath)) {
                 providerId = getProviderIdFromIdpHint(context);
-                logger.infof("getProviderId - from URI = %s", providerId);
+                logger.debugf("getProviderId - from URI = %s", providerId);
                 if (providerId == null) {
                     providerId = getProviderIdFromFederatedIdentitesStream(context);
                 }
-                logger.infof("getProviderId - from FederatedIdentitesStream = %s", providerId);
+                logger.debugf("getProviderId - from FederatedIdentitesStream = %s", providerId);
             }
             else if (LoginActionsService.FIRST_BROKER_LOGIN_PATH.equals(flowPath)) {
                 providerId = getProviderIdFromBrokeredContextNote(context);
-                logger.infof("First Broker Login: getProviderId - from brokered context = %s", providerId);
+                logger.debugf("First Broker Login: getProviderId - from brokered context = %s", providerId);
             }
             else if (LoginActionsService.POST_BROKER_LOGIN_PATH.equals(flowPath)) {
                 providerId = getProviderIdFromPostBrokerLoginContext(context);
-                logger.infof("Post Broker Login: getProviderId - from brokered context = %s", providerId);
+                logger.debugf("Post Broker Login: getProviderId - from brokered context = %s", providerId);
             }
             if (StringUtil.isBlank(providerId)) {
                 providerId = getProviderIdFromUserAttributes(context);
-                logger.infof("getProviderId - from userattribute = %s", providerId);
+                logger.debugf("getProviderId - from userattribute = %s", providerId);
             }
         } catch (Exception e) {
             logger.warn(e.getLocalizedMessage());
@@ -171,30 +207,39 @@ public class WhitelistAuthenticator
 
     /**
      * Check combination of clientId and providerId against configured whitelist.
+     * If the whitelist is not available, the outcome is {@link Outcome#ERROR}, which denies access as well.
      */
-    private boolean isAllowedIdP(AuthenticationFlowContext context, String clientId, String providerId)
+    private Outcome checkIdP(AuthenticationFlowContext context, String clientId, String providerId)
     {
-        boolean isAllowed = false;
+        Outcome outcome = Outcome.DENIED;
         if (providerId == null || providerId.isEmpty()) {
-            isAllowed = true;
+            outcome = Outcome.ALLOWED;
         }
         else {
             try {
-                String apiRealm = getConfigEntry(context, WhitelistAuthenticatorFactory.AUTH_WHITELIST_REALM, context.getRealm().getName());
-                String apiClientId = getConfigEntry(context, WhitelistAuthenticatorFactory.AUTH_WHITELIST_CLIENT_ID, null);
-                String apiClientSecret = getConfigEntry(context, WhitelistAuthenticatorFactory.AUTH_WHITELIST_CLIENT_SECRET, "n/a");
-                List<String> allowedIdPs = client.getListOfAllowedIdPs(clientId, apiRealm, apiClientId, apiClientSecret);
-                logger.tracef("Retrieve allowed IDPs using client %s, realm %s, secret %s from %s", apiClientId, apiRealm, apiClientSecret.substring(0, 3),
-                              client.getUrl());
+                Set<String> allowedIdPs = preloader != null ? preloader.getAllowedIdPs(clientId) : null;
+                if (allowedIdPs == null) {
+                    String apiRealm = getConfigEntry(context, WhitelistAuthenticatorFactory.AUTH_WHITELIST_REALM, context.getRealm().getName());
+                    String apiClientId = getConfigEntry(context, WhitelistAuthenticatorFactory.AUTH_WHITELIST_CLIENT_ID, null);
+                    String apiClientSecret = getConfigEntry(context, WhitelistAuthenticatorFactory.AUTH_WHITELIST_CLIENT_SECRET, "n/a");
+                    allowedIdPs = allowedIdPsCache.get(clientId, () -> Collections.unmodifiableSet(
+                            new HashSet<>(client.getListOfAllowedIdPs(clientId, apiRealm, apiClientId, apiClientSecret))));
+                    logger.tracef("Retrieve allowed IDPs using client %s, realm %s, secret %s from %s", apiClientId, apiRealm, apiClientSecret.substring(0, 3),
+                                  client.getUrl());
+                }
                 logger.debugf("Retrieved allowed IDPs %s for provider %s", allowedIdPs, providerId);
                 if (allowedIdPs != null && allowedIdPs.contains(providerId)) {
-                    isAllowed = true;
+                    outcome = Outcome.ALLOWED;
                 }
+            } catch (CircuitOpenException e) {
+                outcome = Outcome.ERROR;
+                logger.warnf("List of assigned IdPs not available clientId=%s, providerId=%s: %s", clientId, providerId, e.getMessage());
             } catch (IOException | URISyntaxException e) {
+                outcome = Outcome.ERROR;
                 logger.errorf(e, "List of assigned IdPs could not be fetched clientId=%s, providerId=%s, url=%s", clientId, providerId, client.getUrl());
             }
         }
-        return isAllowed;
+        return outcome;
     }
 
     /**
@@ -225,4 +270,14 @@ public class WhitelistAuthenticator
     {
         return client;
     }
+
+    public ExpiringCache<String, Set<String>> getAllowedIdPsCache()
+    {
+        return allowedIdPsCache;
+    }
+
+    public WhitelistPreloader getPreloader()
+    {
+        return preloader;
+    }
 }
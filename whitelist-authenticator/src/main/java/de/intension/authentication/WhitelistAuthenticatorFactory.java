@@ -1,7 +1,11 @@
 package de.intension.authentication;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import com.google.auto.service.AutoService;
 import org.keycloak.Config;
@@ -13,7 +17,13 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.provider.ProviderConfigProperty;
 
+import de.intension.authentication.cache.WhitelistPreloader;
+import de.intension.authentication.rest.CircuitBreaker;
 import de.intension.authentication.rest.IdPAssignmentsClient;
+import de.intension.cache.ExpiringCache;
+import de.intension.http.AccessTokenCache;
+import de.intension.http.HttpClientPool;
+import de.intension.metrics.WhitelistMetrics;
 
 /**
  * Factory to create custom {@link WhitelistAuthenticator}.
@@ -29,8 +39,37 @@ public class WhitelistAuthenticatorFactory
     public static final String AUTH_WHITELIST_CLIENT_SECRET = "authWhiteListClientIdSecret";
     private static final String CONF_KC_AUTH_URL = "kcAuthUrl";
     private static final String CONF_REST_URL = "restUrl";
+    private static final String CONF_TOKEN_EXPIRY_MARGIN = "tokenExpiryMargin";
+    private static final String CONF_CACHE_TTL = "cacheTtl";
+    private static final String CONF_CACHE_STALE_WHILE_REVALIDATE = "cacheStaleWhileRevalidate";
+    private static final String CONF_CACHE_MAX_SIZE = "cacheMaxSize";
+    private static final String CONF_NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+    private static final String CONF_CIRCUIT_FAILURE_THRESHOLD = "circuitFailureThreshold";
+    private static final String CONF_CIRCUIT_OPEN_DURATION = "circuitOpenDuration";
+    private static final String CONF_CIRCUIT_FALLBACK = "circuitFallbackToLastKnown";
+    private static final String CONF_ASYNC_REQUESTS = "asyncRequests";
+    private static final String CONF_REQUEST_DEADLINE = "requestDeadline";
+    private static final String CONF_PRELOAD_ENABLED = "preloadEnabled";
+    private static final String CONF_PRELOAD_INTERVAL = "preloadInterval";
+    private static final String CONF_PRELOAD_JITTER = "preloadJitter";
+    private static final String CONF_PRELOAD_ON_FAILURE = "preloadOnFailure";
+    private static final String CONF_PRELOAD_URL = "preloadUrl";
+    private static final String CONF_PRELOAD_REALMS = "preloadRealms";
+    private static final String CONF_PRELOAD_AUTH_REALM = "preloadAuthRealm";
+    private static final String CONF_PRELOAD_AUTH_CLIENT_ID = "preloadAuthClientId";
+    private static final String CONF_PRELOAD_AUTH_CLIENT_SECRET = "preloadAuthClientSecret";
+    private static final long DEFAULT_CACHE_TTL = 300;
+    private static final long DEFAULT_CACHE_STALE_WHILE_REVALIDATE = 60;
+    private static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+    private static final long DEFAULT_NEGATIVE_CACHE_TTL = 30;
+    private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_CIRCUIT_OPEN_DURATION = 30;
+    private static final long DEFAULT_REQUEST_DEADLINE = 5000;
+    private static final long DEFAULT_PRELOAD_INTERVAL = 300;
+    private static final long DEFAULT_PRELOAD_JITTER = 30;
 
     private WhitelistAuthenticator whitelistAuthenticator;
+    private HttpClientPool httpClientPool;
 
     @Override
     public Authenticator create(KeycloakSession keycloakSession)
@@ -102,28 +141,77 @@ public class WhitelistAuthenticatorFactory
     @Override
     public void init(Config.Scope scope)
     {
-        whitelistAuthenticator = new WhitelistAuthenticator(
-                new IdPAssignmentsClient(
-                        scope.get(CONF_KC_AUTH_URL),
-                        scope.get(CONF_REST_URL)));
+        httpClientPool = HttpClientPool.acquire(scope);
+        AccessTokenCache tokenCache = new AccessTokenCache(
+                scope.getLong(CONF_TOKEN_EXPIRY_MARGIN, AccessTokenCache.DEFAULT_EXPIRY_MARGIN_SECS))
+                .registerMetrics(PROVIDER_ID);
+        ExpiringCache<String, Set<String>> allowedIdPsCache = new ExpiringCache<String, Set<String>>(
+                PROVIDER_ID,
+                scope.getLong(CONF_CACHE_TTL, DEFAULT_CACHE_TTL),
+                scope.getLong(CONF_CACHE_STALE_WHILE_REVALIDATE, DEFAULT_CACHE_STALE_WHILE_REVALIDATE),
+                scope.getInt(CONF_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE))
+                .withNegativeTtl(scope.getLong(CONF_NEGATIVE_CACHE_TTL, DEFAULT_NEGATIVE_CACHE_TTL), Set::isEmpty)
+                .registerMetrics();
+        CircuitBreaker circuitBreaker = new CircuitBreaker(
+                PROVIDER_ID,
+                scope.getInt(CONF_CIRCUIT_FAILURE_THRESHOLD, DEFAULT_CIRCUIT_FAILURE_THRESHOLD),
+                scope.getLong(CONF_CIRCUIT_OPEN_DURATION, DEFAULT_CIRCUIT_OPEN_DURATION))
+                .registerMetrics();
+        IdPAssignmentsClient client = new IdPAssignmentsClient(
+                scope.get(CONF_KC_AUTH_URL),
+                scope.get(CONF_REST_URL),
+                httpClientPool,
+                tokenCache,
+                circuitBreaker,
+                scope.getBoolean(CONF_CIRCUIT_FALLBACK, false));
+        client.getRequests().registerMetrics(PROVIDER_ID);
+        WhitelistMetrics metrics = new WhitelistMetrics(PROVIDER_ID);
+        client.withMetrics(metrics);
+        if (scope.getBoolean(CONF_ASYNC_REQUESTS, false)) {
+            client.withAsyncRequests(httpClientPool.getAsyncClient(), Duration.ofMillis(scope.getLong(CONF_REQUEST_DEADLINE, DEFAULT_REQUEST_DEADLINE)));
+        }
+        WhitelistPreloader preloader = null;
+        if (scope.getBoolean(CONF_PRELOAD_ENABLED, false)) {
+            String realms = scope.get(CONF_PRELOAD_REALMS, "");
+            preloader = new WhitelistPreloader(client, new WhitelistPreloader.Settings(
+                    scope.getLong(CONF_PRELOAD_INTERVAL, DEFAULT_PRELOAD_INTERVAL),
+                    scope.getLong(CONF_PRELOAD_JITTER, DEFAULT_PRELOAD_JITTER),
+                    WhitelistPreloader.FailureMode.valueOf(scope.get(CONF_PRELOAD_ON_FAILURE, WhitelistPreloader.FailureMode.KEEP.name()).toUpperCase()),
+                    scope.get(CONF_PRELOAD_URL),
+                    Arrays.stream(realms.split(",")).map(String::trim).filter(realm -> !realm.isEmpty()).collect(Collectors.toSet()),
+                    scope.get(CONF_PRELOAD_AUTH_REALM),
+                    scope.get(CONF_PRELOAD_AUTH_CLIENT_ID),
+                    scope.get(CONF_PRELOAD_AUTH_CLIENT_SECRET)))
+                    .registerMetrics();
+        }
+        whitelistAuthenticator = new WhitelistAuthenticator(client, allowedIdPsCache, preloader, metrics);
     }
 
     @Override
     public void postInit(KeycloakSessionFactory keycloakSessionFactory)
     {
-        //not needed
+        if (whitelistAuthenticator.getPreloader() != null) {
+            whitelistAuthenticator.getPreloader().start(keycloakSessionFactory);
+        }
     }
 
     @Override
     public void close()
     {
         if (whitelistAuthenticator != null) {
+            if (whitelistAuthenticator.getPreloader() != null) {
+                whitelistAuthenticator.getPreloader().close();
+            }
+            whitelistAuthenticator.getAllowedIdPsCache().close();
             try {
                 whitelistAuthenticator.getClient().close();
             } catch (IOException e) {
                 //do nothing
             }
         }
+        if (httpClientPool != null) {
+            httpClientPool.release();
+        }
     }
 
 }
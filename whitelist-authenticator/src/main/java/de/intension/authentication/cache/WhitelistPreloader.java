@@ -0,0 +1,231 @@
+package de.intension.authentication.cache;
+
+import static org.jboss.logging.Logger.getLogger;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.Constants;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import de.intension.authentication.dto.WhitelistEntry;
+import de.intension.authentication.rest.IdPAssignmentsClient;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Periodically downloads the complete SP to IdP whitelist and keeps it as an immutable in-memory index.
+ * <p>
+ * The whitelist is either fetched from a bulk endpoint or by requesting the assignments of every client of the
+ * configured realms, except the clients Keycloak creates for itself. A new index is only published if the whole
+ * download succeeded, i.e. every request was answered, and replaces the old one atomically. Clients missing in the
+ * index (e.g. created after the last refresh) are not answered by the preloader, so the authenticator falls back to
+ * a live lookup.
+ */
+public class WhitelistPreloader
+    implements Closeable
+{
+
+    public static final String  METRIC_NAME         = "fwu.whitelist.preload";
+    private static final Logger LOG                 = getLogger(WhitelistPreloader.class);
+
+    /**
+     * Clients Keycloak creates in every realm, they are never whitelisted and therefore not requested.
+     */
+    static final Set<String>    BUILT_IN_CLIENT_IDS = Set.of(Constants.ACCOUNT_MANAGEMENT_CLIENT_ID, Constants.ACCOUNT_CONSOLE_CLIENT_ID,
+                                                             Constants.ADMIN_CLI_CLIENT_ID, Constants.ADMIN_CONSOLE_CLIENT_ID,
+                                                             Constants.BROKER_SERVICE_CLIENT_ID, Constants.REALM_MANAGEMENT_CLIENT_ID);
+
+    /**
+     * Behaviour if a refresh fails.
+     */
+    public enum FailureMode
+    {
+        /** Keep the last successfully loaded index. */
+        KEEP,
+        /** Discard the index and look up every client live until the next successful refresh. */
+        LIVE,
+        /** Discard the index and deny every client until the next successful refresh. */
+        DENY
+    }
+
+    private record Index(Map<String, Set<String>> entries, boolean authoritative) {}
+
+    private final IdPAssignmentsClient     client;
+    private final Settings                 settings;
+    private final AtomicReference<Index>   index    = new AtomicReference<>();
+    private final LongAdder                failures = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+
+    public WhitelistPreloader(IdPAssignmentsClient client, Settings settings)
+    {
+        this.client = client;
+        this.settings = settings;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "whitelist-preload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Register index size and refresh failures with the global (Keycloak) meter registry.
+     */
+    public WhitelistPreloader registerMetrics()
+    {
+        Gauge.builder(METRIC_NAME + ".entries", this, preloader -> {
+            Index current = preloader.index.get();
+            return current == null ? 0 : current.entries().size();
+        }).description("Clients in the preloaded whitelist").register(Metrics.globalRegistry);
+        FunctionCounter.builder(METRIC_NAME + ".failures", failures, LongAdder::sum)
+            .description("Failed whitelist preloads").register(Metrics.globalRegistry);
+        return this;
+    }
+
+    /**
+     * Load the whitelist now and schedule further refreshes.
+     */
+    public void start(KeycloakSessionFactory sessionFactory)
+    {
+        scheduleRefresh(sessionFactory, 0);
+    }
+
+    private void scheduleRefresh(KeycloakSessionFactory sessionFactory, long delaySeconds)
+    {
+        long jitterMillis = settings.jitterSeconds() > 0 ? ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toMillis(settings.jitterSeconds())) : 0;
+        try {
+            scheduler.schedule(() -> {
+                refresh(sessionFactory);
+                scheduleRefresh(sessionFactory, settings.intervalSeconds());
+            }, TimeUnit.SECONDS.toMillis(delaySeconds) + jitterMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Whitelist preloader already closed");
+        }
+    }
+
+    /**
+     * Download the complete whitelist and swap the index.
+     */
+    void refresh(KeycloakSessionFactory sessionFactory)
+    {
+        try {
+            Map<String, Set<String>> entries = settings.bulkUrl() != null ? loadFromBulkEndpoint() : loadPerClient(sessionFactory);
+            index.set(new Index(Collections.unmodifiableMap(entries), false));
+            LOG.infof("Preloaded whitelist entries for %d clients", entries.size());
+        } catch (Exception e) {
+            failures.increment();
+            LOG.errorf(e, "Preloading whitelist failed, failure mode %s", settings.failureMode());
+            switch (settings.failureMode()) {
+                case LIVE:
+                    index.set(null);
+                    break;
+                case DENY:
+                    index.set(new Index(Map.of(), true));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private Map<String, Set<String>> loadFromBulkEndpoint()
+        throws Exception
+    {
+        Map<String, Set<String>> entries = new HashMap<>();
+        List<WhitelistEntry> whitelist = client.getAllWhitelistEntries(settings.bulkUrl(), settings.apiRealm(), settings.apiClientId(),
+                                                                       settings.apiClientSecret());
+        for (WhitelistEntry entry : whitelist) {
+            entries.put(entry.getClientId(), Collections.unmodifiableSet(new HashSet<>(entry.getListOfIdPs())));
+        }
+        return entries;
+    }
+
+    private Map<String, Set<String>> loadPerClient(KeycloakSessionFactory sessionFactory)
+        throws Exception
+    {
+        Map<String, Set<String>> entries = new HashMap<>();
+        for (String clientId : getClientIds(sessionFactory)) {
+            // a failed request fails the whole refresh instead of publishing an empty whitelist for the client
+            List<String> idps = client.getListOfAllowedIdPs(clientId, settings.apiRealm(), settings.apiClientId(), settings.apiClientSecret());
+            entries.put(clientId, Collections.unmodifiableSet(new HashSet<>(idps)));
+        }
+        return entries;
+    }
+
+    /**
+     * Get the client IDs of the configured realms without the clients Keycloak creates for itself.
+     */
+    Set<String> getClientIds(KeycloakSessionFactory sessionFactory)
+    {
+        Set<String> clientIds = new TreeSet<>();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            Set<String> builtInClientIds = new HashSet<>(BUILT_IN_CLIENT_IDS);
+            session.realms().getRealmsStream()
+                .map(realm -> KeycloakModelUtils.getMasterRealmAdminManagementClientId(realm.getName()))
+                .forEach(builtInClientIds::add);
+            session.realms().getRealmsStream()
+                .filter(realm -> settings.realms().isEmpty() || settings.realms().contains(realm.getName()))
+                .flatMap(realm -> realm.getClientsStream())
+                .map(ClientModel::getClientId)
+                .filter(clientId -> !builtInClientIds.contains(clientId))
+                .forEach(clientIds::add);
+        });
+        return clientIds;
+    }
+
+    /**
+     * Get the preloaded IdPs of a client.
+     *
+     * @return allowed IdPs or {@code null}, if the client is not part of the index and must be looked up live
+     */
+    public Set<String> getAllowedIdPs(String clientId)
+    {
+        Index current = index.get();
+        if (current == null) {
+            return null;
+        }
+        Set<String> idps = current.entries().get(clientId);
+        if (idps == null && current.authoritative()) {
+            return Set.of();
+        }
+        return idps;
+    }
+
+    @Override
+    public void close()
+    {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Preload settings.
+     *
+     * @param intervalSeconds Seconds between two refreshes
+     * @param jitterSeconds Random delay added to every refresh, so not all cluster nodes refresh at the same time
+     * @param failureMode Behaviour if a refresh fails
+     * @param bulkUrl Endpoint returning all whitelist entries, if {@code null} every client is requested on its own
+     * @param realms Realms whose clients are requested if no bulk endpoint is configured, empty for all realms
+     * @param apiRealm Realm of the REST-API client
+     * @param apiClientId REST-API client ID
+     * @param apiClientSecret REST-API client secret
+     */
+    public record Settings(long intervalSeconds, long jitterSeconds, FailureMode failureMode, String bulkUrl, Set<String> realms,
+                           String apiRealm, String apiClientId, String apiClientSecret) {}
+}
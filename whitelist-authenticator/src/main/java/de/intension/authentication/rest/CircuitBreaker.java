@@ -0,0 +1,125 @@
+package de.intension.authentication.rest;
+
+import static org.jboss.logging.Logger.getLogger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Circuit breaker for calls to a downstream REST-API.
+ * <ul>
+ * <li>{@link State#CLOSED}: all calls are permitted, consecutive failures are counted.</li>
+ * <li>{@link State#OPEN}: after {@code failureThreshold} consecutive failures no calls are permitted for
+ * {@code openDuration}.</li>
+ * <li>{@link State#HALF_OPEN}: a single trial call is permitted. Success closes the circuit, failure opens it
+ * again.</li>
+ * </ul>
+ * A {@code failureThreshold} of zero or less disables the circuit breaker.
+ */
+public class CircuitBreaker
+{
+
+    public static final String  METRIC_NAME = "fwu.whitelist.circuit.state";
+    private static final Logger LOG         = getLogger(CircuitBreaker.class);
+
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String       name;
+    private final int          failureThreshold;
+    private final long         openMillis;
+    private final LongSupplier clock;
+    private State              state = State.CLOSED;
+    private int                failures;
+    private long               openedAt;
+    private boolean            trialInProgress;
+
+    public CircuitBreaker(String name, int failureThreshold, long openDurationSeconds)
+    {
+        this(name, failureThreshold, openDurationSeconds, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openDurationSeconds, LongSupplier clock)
+    {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = TimeUnit.SECONDS.toMillis(openDurationSeconds);
+        this.clock = clock;
+    }
+
+    /**
+     * Register the current state (0 = closed, 1 = open, 2 = half open) with the global (Keycloak) meter registry.
+     */
+    public CircuitBreaker registerMetrics()
+    {
+        Gauge.builder(METRIC_NAME, this, breaker -> breaker.getState().ordinal())
+            .description("Circuit breaker state (0 = closed, 1 = open, 2 = half open)")
+            .tag("circuit", name)
+            .register(Metrics.globalRegistry);
+        return this;
+    }
+
+    /**
+     * Check whether a call is permitted. Every permitted call must be followed by {@link #onSuccess()} or
+     * {@link #onFailure()}.
+     */
+    public synchronized boolean tryAcquire()
+    {
+        if (failureThreshold <= 0) {
+            return true;
+        }
+        switch (state) {
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openMillis) {
+                    return false;
+                }
+                LOG.infof("Circuit %s is half open, trying next request", name);
+                state = State.HALF_OPEN;
+                trialInProgress = true;
+                return true;
+            case HALF_OPEN:
+                if (trialInProgress) {
+                    return false;
+                }
+                trialInProgress = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess()
+    {
+        if (state != State.CLOSED) {
+            LOG.infof("Circuit %s closed", name);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        trialInProgress = false;
+    }
+
+    public synchronized void onFailure()
+    {
+        trialInProgress = false;
+        failures++;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || failures >= failureThreshold)) {
+            if (state != State.OPEN) {
+                LOG.warnf("Circuit %s opened after %d failures", name, failures);
+            }
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+}
@@ -0,0 +1,16 @@
+package de.intension.authentication.rest;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a REST-API call is rejected, because the circuit breaker is open.
+ */
+public class CircuitOpenException
+    extends IOException
+{
+
+    public CircuitOpenException(String message)
+    {
+        super(message);
+    }
+}
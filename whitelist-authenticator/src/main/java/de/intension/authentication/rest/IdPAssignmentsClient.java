@@ -4,45 +4,73 @@ import static org.jboss.logging.Logger.getLogger;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.http.HttpHeaders;
-import org.apache.http.NameValuePair;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.jboss.logging.Logger;
-import org.keycloak.OAuth2Constants;
-import org.keycloak.representations.AccessTokenResponse;
-import org.keycloak.utils.MediaType;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import de.intension.authentication.dto.WhitelistEntry;
+import de.intension.http.AccessTokenCache;
+import de.intension.http.ClientCredentialsClient;
+import de.intension.http.Futures;
+import de.intension.http.HttpClientPool;
+import de.intension.http.SingleFlight;
+import de.intension.metrics.WhitelistMetrics;
+import io.micrometer.core.instrument.Timer;
+
 public class IdPAssignmentsClient
     implements Closeable
 {
 
-    private static final Logger       LOG          = getLogger(IdPAssignmentsClient.class);
-    private final ObjectMapper        objectMapper = new ObjectMapper();
-    private final String              restApiUrl;
-    private final String              kcAuthUrl;
-    private final CloseableHttpClient httpClient;
+    private static final Logger                      LOG           = getLogger(IdPAssignmentsClient.class);
+    private final ObjectMapper                       objectMapper  = new ObjectMapper();
+    private final String                             restApiUrl;
+    private final CloseableHttpClient                httpClient;
+    private final ClientCredentialsClient            apiClient;
+    private final CircuitBreaker                     circuitBreaker;
+    private final boolean                            fallbackToLastKnownGood;
+    private final Map<String, List<String>>          lastKnownGood = new ConcurrentHashMap<>();
+    private final SingleFlight<String, List<String>> requests      = new SingleFlight<>();
+    private HttpClient                               asyncClient;
+    private Duration                                 requestDeadline;
+    private WhitelistMetrics                         metrics       = WhitelistMetrics.DISABLED;
 
     public IdPAssignmentsClient(String kcAuthUrl, String restApiUrl)
     {
         this.restApiUrl = restApiUrl;
-        this.kcAuthUrl = kcAuthUrl;
+        this.circuitBreaker = new CircuitBreaker(restApiUrl, 0, 0);
+        this.fallbackToLastKnownGood = false;
         httpClient = HttpClientBuilder.create().setDefaultRequestConfig(getRequestConfig()).build();
+        apiClient = new ClientCredentialsClient(kcAuthUrl, httpClient, new AccessTokenCache());
+    }
+
+    public IdPAssignmentsClient(String kcAuthUrl, String restApiUrl, HttpClientPool httpClientPool, AccessTokenCache tokenCache,
+                                CircuitBreaker circuitBreaker, boolean fallbackToLastKnownGood)
+    {
+        this.restApiUrl = restApiUrl;
+        this.circuitBreaker = circuitBreaker;
+        this.fallbackToLastKnownGood = fallbackToLastKnownGood;
+        httpClient = httpClientPool.createClient(getRequestConfig());
+        apiClient = new ClientCredentialsClient(kcAuthUrl, httpClient, tokenCache);
     }
 
     /**
@@ -53,63 +81,205 @@ public class IdPAssignmentsClient
         return restApiUrl;
     }
 
+    /**
+     * Send token and assignment requests without blocking. {@link #getListOfAllowedIdPs} then waits only once for
+     * the whole pipeline, limited by the given overall deadline.
+     */
+    public IdPAssignmentsClient withAsyncRequests(HttpClient asyncClient, Duration requestDeadline)
+    {
+        this.asyncClient = asyncClient;
+        this.requestDeadline = requestDeadline;
+        apiClient.withAsyncRequests(asyncClient, requestDeadline);
+        return this;
+    }
+
+    /**
+     * Record token and assignment fetch times.
+     */
+    public IdPAssignmentsClient withMetrics(WhitelistMetrics metrics)
+    {
+        this.metrics = metrics;
+        apiClient.withMetrics(metrics);
+        return this;
+    }
+
     /**
      * Get list of allowed identity providers assigned to the given clientId.
+     * While the circuit breaker is open, the last successfully fetched list is returned if the fallback is enabled.
+     * Otherwise a {@link CircuitOpenException} is thrown without calling the REST-API.
+     * Concurrent calls for the same clientId share one request.
      */
     public List<String> getListOfAllowedIdPs(String clientId, String apiRealm, String apiClientId, String apiClientSecret)
             throws IOException, URISyntaxException
     {
+        URI uri = new URIBuilder(String.format(restApiUrl, clientId)).build();
+        if (asyncClient != null) {
+            return Futures.await(getListOfAllowedIdPsAsync(uri, clientId, apiRealm, apiClientId, apiClientSecret));
+        }
+        return requests.execute(clientId, () -> loadListOfAllowedIdPs(uri, clientId, apiRealm, apiClientId, apiClientSecret));
+    }
+
+    private List<String> loadListOfAllowedIdPs(URI uri, String clientId, String apiRealm, String apiClientId, String apiClientSecret)
+            throws IOException
+    {
+        if (!circuitBreaker.tryAcquire()) {
+            return getFallback(clientId);
+        }
         List<String> listOfIdps;
-        HttpGet httpGet = new HttpGet(new URIBuilder(String.format(restApiUrl, clientId)).build());
-        httpGet.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + getAccessToken(apiRealm, apiClientId, apiClientSecret));
-        httpGet.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+        try {
+            listOfIdps = fetchListOfAllowedIdPs(uri, clientId, apiRealm, apiClientId, apiClientSecret);
+        } catch (IOException | RuntimeException e) {
+            circuitBreaker.onFailure();
+            throw e;
+        }
+        onSuccess(clientId, listOfIdps);
+        return listOfIdps;
+    }
+
+    /**
+     * Non-blocking variant of {@link #getListOfAllowedIdPs}, requires {@link #withAsyncRequests}. The returned future
+     * fails with a {@link java.util.concurrent.TimeoutException} if the deadline is exceeded.
+     */
+    public CompletableFuture<List<String>> getListOfAllowedIdPsAsync(String clientId, String apiRealm, String apiClientId, String apiClientSecret)
+    {
+        if (asyncClient == null) {
+            throw new IllegalStateException("Asynchronous requests are not enabled");
+        }
+        try {
+            return getListOfAllowedIdPsAsync(new URIBuilder(String.format(restApiUrl, clientId)).build(), clientId, apiRealm, apiClientId, apiClientSecret);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        CloseableHttpResponse response = httpClient.execute(httpGet);
+    private CompletableFuture<List<String>> getListOfAllowedIdPsAsync(URI uri, String clientId, String apiRealm, String apiClientId,
+                                                                     String apiClientSecret)
+    {
+        return requests.executeAsync(clientId, () -> loadListOfAllowedIdPsAsync(uri, clientId, apiRealm, apiClientId, apiClientSecret));
+    }
 
-        final int status = response.getStatusLine().getStatusCode();
-        if (status == 200) {
-            LOG.debugv("Whitelist entries found for clientId [{0}]", clientId);
+    private CompletableFuture<List<String>> loadListOfAllowedIdPsAsync(URI uri, String clientId, String apiRealm, String apiClientId,
+                                                                      String apiClientSecret)
+    {
+        if (!circuitBreaker.tryAcquire()) {
             try {
-
-                listOfIdps = objectMapper.readValue(EntityUtils.toString(response.getEntity()), List.class);
-            } catch (JsonProcessingException e) {
-                listOfIdps = new ArrayList<>();
-                LOG.error("Error while parsing whitelist entries for clientId [{0}]", clientId, e);
+                return CompletableFuture.completedFuture(getFallback(clientId));
+            } catch (CircuitOpenException e) {
+                return CompletableFuture.failedFuture(e);
             }
         }
-        else {
-            listOfIdps = new ArrayList<>();
-            LOG.debugv("No Whitelist entries found for clientId [{0}]", clientId);
+        return metrics.timeAssignmentFetch(() -> fetchListOfAllowedIdPsAsync(uri, clientId, apiRealm, apiClientId, apiClientSecret))
+            .orTimeout(requestDeadline.toMillis(), TimeUnit.MILLISECONDS)
+            .whenComplete((listOfIdps, e) -> {
+                if (e == null) {
+                    onSuccess(clientId, listOfIdps);
+                }
+                else {
+                    circuitBreaker.onFailure();
+                }
+            });
+    }
+
+    private List<String> getFallback(String clientId)
+            throws CircuitOpenException
+    {
+        List<String> fallback = fallbackToLastKnownGood ? lastKnownGood.get(clientId) : null;
+        if (fallback == null) {
+            throw new CircuitOpenException(String.format("Circuit open, REST-API %s not called for clientId %s", restApiUrl, clientId));
         }
+        LOG.debugv("Circuit open, using last known whitelist entries for clientId [{0}]", clientId);
+        return fallback;
+    }
 
-        response.close();
-        return listOfIdps;
+    private void onSuccess(String clientId, List<String> listOfIdps)
+    {
+        circuitBreaker.onSuccess();
+        if (fallbackToLastKnownGood) {
+            lastKnownGood.put(clientId, listOfIdps);
+        }
+    }
+
+    private List<String> fetchListOfAllowedIdPs(URI uri, String clientId, String apiRealm, String apiClientId, String apiClientSecret)
+            throws IOException
+    {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try (CloseableHttpResponse response = apiClient.executeGet(uri, apiRealm, apiClientId, apiClientSecret)) {
+            final int status = response.getStatusLine().getStatusCode();
+            String body = status == HttpStatus.SC_OK ? EntityUtils.toString(response.getEntity()) : null;
+            List<String> listOfIdps = parseListOfAllowedIdPs(status, body, clientId);
+            success = true;
+            return listOfIdps;
+        } finally {
+            metrics.assignmentsFetched(sample, success);
+        }
+    }
+
+    private CompletableFuture<List<String>> fetchListOfAllowedIdPsAsync(URI uri, String clientId, String apiRealm, String apiClientId,
+                                                                       String apiClientSecret)
+    {
+        return apiClient.sendGetAsync(uri, apiRealm, apiClientId, apiClientSecret).thenCompose(response -> {
+            try {
+                return CompletableFuture.completedFuture(parseListOfAllowedIdPs(response.statusCode(), response.body(), clientId));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
     }
 
     /**
-     * Calls the token endpoint to get a valid token that can be used to send the events to IMS.
+     * Only {@code 200} and {@code 404}, which the REST-API returns for clients without assignments, are answers. Any
+     * other status, e.g. a rejected token, fails the request, so neither the circuit breaker nor the caches take it for
+     * an empty whitelist.
      */
-    private String getAccessToken(String realm, String clientId, String clientSecret)
+    @SuppressWarnings("unchecked")
+    private List<String> parseListOfAllowedIdPs(int status, String body, String clientId)
             throws IOException
     {
-        String tokenUrl = String.format("%s/realms/%s/protocol/openid-connect/token", kcAuthUrl, realm);
+        if (status == HttpStatus.SC_NOT_FOUND) {
+            LOG.debugv("No Whitelist entries found for clientId [{0}]", clientId);
+            return new ArrayList<>();
+        }
+        if (status != HttpStatus.SC_OK) {
+            throw new IOException(String.format("REST-API responded with status %d for clientId %s", status, clientId));
+        }
+        LOG.debugv("Whitelist entries found for clientId [{0}]", clientId);
+        try {
+            return objectMapper.readValue(body, List.class);
+        } catch (JsonProcessingException e) {
+            throw new IOException(String.format("Invalid whitelist entries for clientId %s", clientId), e);
+        }
+    }
 
-        HttpPost httpPost = new HttpPost(tokenUrl);
-        httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED);
-        httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+    /**
+     * Get all whitelist entries at once from a bulk endpoint.
+     * The circuit breaker is not involved, because the bulk endpoint is only called in the background.
+     */
+    public List<WhitelistEntry> getAllWhitelistEntries(String bulkUrl, String apiRealm, String apiClientId, String apiClientSecret)
+            throws IOException, URISyntaxException
+    {
+        try (CloseableHttpResponse response = apiClient.executeGet(new URIBuilder(bulkUrl).build(), apiRealm, apiClientId, apiClientSecret)) {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK) {
+                throw new IOException(String.format("REST-API responded with status %d for all whitelist entries", status));
+            }
+            return objectMapper.readValue(EntityUtils.toString(response.getEntity()), new TypeReference<List<WhitelistEntry>>() {});
+        }
+    }
 
-        List<NameValuePair> params = new ArrayList<>();
-        params.add(new BasicNameValuePair(OAuth2Constants.GRANT_TYPE, OAuth2Constants.CLIENT_CREDENTIALS));
-        params.add(new BasicNameValuePair(OAuth2Constants.CLIENT_ID, clientId));
-        params.add(new BasicNameValuePair(OAuth2Constants.CLIENT_SECRET, clientSecret));
+    public AccessTokenCache getTokenCache()
+    {
+        return apiClient.getTokenCache();
+    }
 
-        httpPost.setEntity(new UrlEncodedFormEntity(params));
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
 
-        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
-            LOG.debugv("Get access token. Status = {0, number, integer}", response.getStatusLine().getStatusCode());
-            AccessTokenResponse accesstoken = objectMapper.readValue(EntityUtils.toString(response.getEntity()), AccessTokenResponse.class);
-            return accesstoken.getToken();
-        }
+    public SingleFlight<String, List<String>> getRequests()
+    {
+        return requests;
     }
 
     /**
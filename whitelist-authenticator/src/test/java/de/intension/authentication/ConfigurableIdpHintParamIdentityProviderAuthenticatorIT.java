@@ -13,8 +13,10 @@ import org.junit.jupiter.api.TestInstance;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.io.File;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -27,6 +29,7 @@ class ConfigurableIdpHintParamIdentityProviderAuthenticatorIT {
     @Container
     private static final IntensionKeycloakContainer keycloak = new IntensionKeycloakContainer()
             .withProviderClassesFrom("target/classes")
+            .withProviderLibsFrom(List.of(new File("../target/fwu-base.jar")))
             .withContextPath("/auth")
             .withRealmImportFiles("whitelist_realm.json");
 
@@ -12,12 +12,14 @@ import org.junit.jupiter.api.*;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -59,6 +61,7 @@ class WhitelistAuthenticatorIT {
         // Start Keycloak with our provider and import realm
         keycloak = new KeycloakContainer("quay.io/keycloak/keycloak:26.4.6")
                 .withProviderClassesFrom("target/classes")
+                .withProviderLibsFrom(List.of(new File("../target/fwu-base.jar")))
                 .withContextPath("/auth")
                 .withRealmImportFiles("whitelist_whitelist_realm.json")
                 // Wire factory init properties to stub server on host
@@ -0,0 +1,133 @@
+package de.intension.authentication.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSessionFactory;
+
+import de.intension.authentication.cache.WhitelistPreloader.FailureMode;
+import de.intension.authentication.dto.WhitelistEntry;
+import de.intension.authentication.rest.IdPAssignmentsClient;
+
+class WhitelistPreloaderTest
+{
+
+    private final IdPAssignmentsClient client = mock(IdPAssignmentsClient.class);
+
+    /**
+     * GIVEN: a bulk endpoint returning the whitelist of one client
+     * WHEN: the whitelist is preloaded
+     * THEN: the IdPs of the client are served from the index and unknown clients are left to a live lookup
+     */
+    @Test
+    void should_serve_preloaded_entries()
+        throws Exception
+    {
+        when(client.getAllWhitelistEntries(any(), any(), any(), any())).thenReturn(List.of(entry("client", "idp1", "idp2")));
+        try (WhitelistPreloader preloader = new WhitelistPreloader(client, settings(FailureMode.KEEP))) {
+            preloader.refresh(null);
+
+            assertEquals(Set.of("idp1", "idp2"), preloader.getAllowedIdPs("client"));
+            assertNull(preloader.getAllowedIdPs("unknown"));
+        }
+    }
+
+    /**
+     * GIVEN: a preloaded whitelist and failure mode KEEP
+     * WHEN: the next refresh fails
+     * THEN: the last index is still served
+     */
+    @Test
+    void should_keep_index_on_failure()
+        throws Exception
+    {
+        when(client.getAllWhitelistEntries(any(), any(), any(), any()))
+            .thenReturn(List.of(entry("client", "idp1")))
+            .thenThrow(new IOException("unavailable"));
+        try (WhitelistPreloader preloader = new WhitelistPreloader(client, settings(FailureMode.KEEP))) {
+            preloader.refresh(null);
+            preloader.refresh(null);
+
+            assertEquals(Set.of("idp1"), preloader.getAllowedIdPs("client"));
+        }
+    }
+
+    /**
+     * GIVEN: a preloaded whitelist and failure mode LIVE or DENY
+     * WHEN: the next refresh fails
+     * THEN: the index is discarded and clients are looked up live or denied
+     */
+    @Test
+    void should_discard_index_on_failure()
+        throws Exception
+    {
+        when(client.getAllWhitelistEntries(any(), any(), any(), any()))
+            .thenReturn(List.of(entry("client", "idp1")))
+            .thenThrow(new IOException("unavailable"))
+            .thenReturn(List.of(entry("client", "idp1")))
+            .thenThrow(new IOException("unavailable"));
+        try (WhitelistPreloader live = new WhitelistPreloader(client, settings(FailureMode.LIVE));
+                WhitelistPreloader deny = new WhitelistPreloader(client, settings(FailureMode.DENY))) {
+            live.refresh(null);
+            live.refresh(null);
+            deny.refresh(null);
+            deny.refresh(null);
+
+            assertNull(live.getAllowedIdPs("client"));
+            assertEquals(Set.of(), deny.getAllowedIdPs("client"));
+        }
+    }
+
+    /**
+     * GIVEN: a whitelist preloaded per client and failure mode KEEP
+     * WHEN: the REST-API rejects the credentials during the next refresh
+     * THEN: the refresh fails and the last index is still served instead of an empty whitelist
+     */
+    @Test
+    void should_fail_per_client_refresh_on_unauthorized()
+        throws Exception
+    {
+        when(client.getListOfAllowedIdPs(any(), any(), any(), any()))
+            .thenReturn(List.of("idp1"))
+            .thenThrow(new IOException("REST-API responded with status 401 for clientId client"));
+        try (WhitelistPreloader preloader = new WhitelistPreloader(client, settings(FailureMode.KEEP, null)) {
+
+            @Override
+            Set<String> getClientIds(KeycloakSessionFactory sessionFactory)
+            {
+                return Set.of("client");
+            }
+        }) {
+            preloader.refresh(null);
+            preloader.refresh(null);
+
+            assertEquals(Set.of("idp1"), preloader.getAllowedIdPs("client"));
+        }
+    }
+
+    private static WhitelistPreloader.Settings settings(FailureMode failureMode)
+    {
+        return settings(failureMode, "http://localhost/whitelist");
+    }
+
+    private static WhitelistPreloader.Settings settings(FailureMode failureMode, String bulkUrl)
+    {
+        return new WhitelistPreloader.Settings(300, 0, failureMode, bulkUrl, Set.of(), "realm", "client", "secret");
+    }
+
+    private static WhitelistEntry entry(String clientId, String... idps)
+    {
+        WhitelistEntry entry = new WhitelistEntry();
+        entry.setClientId(clientId);
+        entry.setListOfIdPs(List.of(idps));
+        return entry;
+    }
+}
@@ -0,0 +1,97 @@
+package de.intension.authentication.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import de.intension.authentication.rest.CircuitBreaker.State;
+
+class CircuitBreakerTest
+{
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    /**
+     * GIVEN: a circuit breaker with a failure threshold of 3
+     * WHEN: 3 consecutive calls fail
+     * THEN: circuit is open and no further calls are permitted
+     */
+    @Test
+    void should_open_after_consecutive_failures()
+    {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 10, now::get);
+        fail(breaker);
+        fail(breaker);
+        assertEquals(State.CLOSED, breaker.getState());
+        fail(breaker);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    /**
+     * GIVEN: a circuit breaker with a failure threshold of 3
+     * WHEN: a successful call happens between failures
+     * THEN: failure count is reset and circuit stays closed
+     */
+    @Test
+    void should_reset_failures_on_success()
+    {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 10, now::get);
+        fail(breaker);
+        fail(breaker);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        fail(breaker);
+        fail(breaker);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * GIVEN: an open circuit
+     * WHEN: the open duration has passed
+     * THEN: exactly one trial call is permitted which closes or opens the circuit again
+     */
+    @Test
+    void should_permit_single_trial_call_when_half_open()
+    {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 10, now::get);
+        fail(breaker);
+        now.set(10_000);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        now.set(20_000);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    /**
+     * GIVEN: a circuit breaker with a failure threshold of 0
+     * WHEN: calls fail
+     * THEN: calls are always permitted
+     */
+    @Test
+    void should_always_permit_calls_if_disabled()
+    {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0, 10, now::get);
+        fail(breaker);
+        fail(breaker);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private static void fail(CircuitBreaker breaker)
+    {
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+    }
+}
@@ -0,0 +1,111 @@
+package de.intension.authentication.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.intension.http.AccessTokenCache;
+import de.intension.http.HttpClientPool;
+
+class IdPAssignmentsClientTest
+{
+
+    private final AtomicInteger           status = new AtomicInteger(200);
+    private final AtomicReference<String> body   = new AtomicReference<>("[\"idp1\"]");
+    private HttpServer                    server;
+    private HttpClientPool                pool;
+    private IdPAssignmentsClient          client;
+
+    @BeforeEach
+    void setUp()
+        throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/auth/realms/test/protocol/openid-connect/token", exchange -> respond(exchange, 200, "{\"access_token\":\"12345\"}"));
+        server.createContext("/service-provider", exchange -> respond(exchange, status.get(), body.get()));
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort();
+        pool = new HttpClientPool(HttpClientPool.Settings.DEFAULT);
+        client = new IdPAssignmentsClient(url + "/auth", url + "/service-provider/%s/idp-assignments", pool, new AccessTokenCache(),
+                                          new CircuitBreaker("test", 1, 60), true);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        server.stop(0);
+        pool.close();
+    }
+
+    /**
+     * GIVEN: a client without assignments
+     * WHEN: the REST-API responds with 404
+     * THEN: the whitelist is empty
+     */
+    @Test
+    void should_return_empty_list_for_not_found()
+        throws Exception
+    {
+        status.set(404);
+
+        assertEquals(List.of(), client.getListOfAllowedIdPs("client", "test", "api", "secret"));
+    }
+
+    /**
+     * GIVEN: a successfully fetched whitelist and a circuit breaker with fallback to the last known entries
+     * WHEN: the REST-API rejects the next request or responds with an invalid body
+     * THEN: the request fails and the circuit serves the last known entries instead of an empty whitelist
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {401, 403, 400, 500})
+    void should_fail_on_error_status(int errorStatus)
+        throws Exception
+    {
+        assertEquals(List.of("idp1"), client.getListOfAllowedIdPs("client", "test", "api", "secret"));
+
+        status.set(errorStatus);
+
+        assertThrows(IOException.class, () -> client.getListOfAllowedIdPs("client", "test", "api", "secret"));
+        assertEquals(List.of("idp1"), client.getListOfAllowedIdPs("client", "test", "api", "secret"));
+    }
+
+    /**
+     * GIVEN: a REST-API responding with 200
+     * WHEN: the body is no list of IdPs
+     * THEN: the request fails
+     */
+    @Test
+    void should_fail_on_invalid_body()
+    {
+        body.set("{invalid");
+
+        assertThrows(IOException.class, () -> client.getListOfAllowedIdPs("client", "test", "api", "secret"));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+        throws IOException
+    {
+        byte[] response = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+}